@@ -1,5 +1,9 @@
 package client;
 
+import airport.Booking;
+import airport.BookingResult;
+import airport.CompactEncoding;
+import airport.Itinerary;
 import airport.PossiblePath;
 import airport.Reservation;
 import airport.Route;
@@ -16,6 +20,7 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.stream.Collectors;
 
 import static java.lang.System.out;
@@ -31,7 +36,12 @@ public class Client implements Runnable {
     private final Scanner in; // From console
     private boolean logged_in;
 
-    private final Queue<String> pendingNotifications = new ArrayDeque<>();
+    /**
+     * Encoding of the reservations and routes received, as negotiated with the server.
+     */
+    private volatile byte encoding = CompactEncoding.LEGACY;
+
+    private final Queue<String> pendingNotifications = new ConcurrentLinkedQueue<>();
 
     public Client() throws IOException {
         this.demultiplexer = new Demultiplexer(new TaggedConnection(new Socket(host, PORT))); // TODO: Repetir a conexão caso o server não esteja ligado.
@@ -42,6 +52,7 @@ public class Client implements Runnable {
 
     public void run() {
         try {
+            setEncoding(CompactEncoding.LATEST);
             boolean quit = false;
             while (!quit) {
                 try {
@@ -67,6 +78,11 @@ public class Client implements Runnable {
                         case CHANGE_PASSWORD -> changePasswordIO();
 
                         case GET_NOTIFICATION -> getNotifications();
+                        case GET_ROUTES_VERSION -> out.println("Routes version: " + getRoutesVersion());
+                        case GET_BEST_PATHS -> getBestPathsIO();
+                        case GET_AVAILABLE_ITINERARIES -> getAvailableItinerariesIO();
+                        case RESERVE_BATCH -> reserveBatchIO();
+                        case SET_ENCODING -> out.println("Encoding: " + setEncoding(CompactEncoding.LATEST));
                     }
                     out.println();
                 } catch (Exception e) {
@@ -98,7 +114,32 @@ public class Client implements Runnable {
         var response = demultiplexer.receive(tag);
 
         out.println("Reservations: ");
-        response.stream().map(Reservation::deserialize).forEach(out::println);
+        decodeReservations(response).forEach(out::println);
+    }
+
+    private List<Reservation> decodeReservations(List<byte[]> response) {
+        if (encoding == CompactEncoding.LEGACY)
+            return response.stream().map(Reservation::deserialize).collect(Collectors.toList());
+        return CompactEncoding.decodeReservations(response.get(0));
+    }
+
+    /**
+     * Asks the server to send reservations and routes in a compact encoding from now on.
+     * Servers that don't know the request, or an older version, keep the encoding they support.
+     *
+     * @param version the version wanted.
+     * @return the version the server set.
+     */
+    public byte setEncoding(byte version) throws IOException, InterruptedException {
+        int tag = SET_ENCODING.ordinal();
+        List<byte[]> list = new ArrayList<>(1);
+        list.add(new byte[]{version});
+        demultiplexer.send(tag, list);
+        var response = demultiplexer.receive(tag);
+
+        if (!checkError(response) && response.get(0).length == 1)
+            encoding = response.get(0)[0];
+        return encoding;
     }
 
     public void quit() throws IOException {
@@ -155,7 +196,7 @@ public class Client implements Runnable {
         if (checkError(response)) printError(response);
         else {
             logger.info("Reservation cancelled with success!");
-            logger.info(Reservation.deserialize(response.get(0)));
+            logger.info(decodeReservations(response).get(0));
         }
     }
 
@@ -189,26 +230,69 @@ public class Client implements Runnable {
         list.add(start.toString().getBytes(StandardCharsets.UTF_8));
         list.add(end.toString().getBytes(StandardCharsets.UTF_8));
 
-        int tag = RESERVE.ordinal();
-        demultiplexer.send(tag, list);
-
-        new Thread(() -> {
-            try {
-                var response = demultiplexer.receive(tag);
-
-                if (checkError(response)) {
-                    logger.info(response);
-                    pendingNotifications.add("Error making reservation: " + cities);
-                } else {
-                    logger.info("\nReserve with success!");
-                    UUID id = UUID.fromString(new String(response.get(0), StandardCharsets.UTF_8));
-                    logger.info("Reservation id: " + id);
-                    pendingNotifications.add("Made reservation with ID " + id + ": " + cities);
-                }
-            } catch (IOException | InterruptedException e) {
+        // Reservations don't block the menu, and several can be in flight at once.
+        demultiplexer.request(RESERVE.ordinal(), list).whenComplete((response, e) -> {
+            if (e != null) {
                 e.printStackTrace();
+            } else if (checkError(response)) {
+                logger.info(response);
+                pendingNotifications.add("Error making reservation: " + cities);
+            } else {
+                logger.info("\nReserve with success!");
+                UUID id = UUID.fromString(new String(response.get(0), StandardCharsets.UTF_8));
+                logger.info("Reservation id: " + id);
+                pendingNotifications.add("Made reservation with ID " + id + ": " + cities);
             }
-        }).start();
+        });
+    }
+
+    private void reserveBatchIO() throws NotLoggedInException, IOException, InterruptedException {
+        if (!logged_in) throw new NotLoggedInException();
+
+        out.print("Insert the number of reservations: ");
+        int n = Integer.parseInt(in.nextLine());
+        List<Booking> bookings = new ArrayList<>(n);
+        for (int b = 0; b < n; b++) {
+            out.print("Insert the cities of reservation " + (b + 1) + ", separated by spaces: ");
+            List<String> cities = Arrays.asList(in.nextLine().trim().split("\\s+"));
+            out.print("Insert the start date with the following format \"2007-12-03\": ");
+            LocalDate start = LocalDate.parse(in.nextLine());
+            out.print("Insert the end date with the following format \"2007-12-03\": ");
+            LocalDate end = LocalDate.parse(in.nextLine());
+            bookings.add(new Booking(cities, start, end));
+        }
+        out.print("Reserve all or nothing? (y/n): ");
+        boolean allOrNothing = in.nextLine().trim().equalsIgnoreCase("y");
+
+        List<BookingResult> results = reserveBatch(bookings, allOrNothing);
+        if (results != null) {
+            for (int b = 0; b < results.size(); b++)
+                out.println(bookings.get(b) + ": " + results.get(b));
+        }
+    }
+
+    /**
+     * Reserves many bookings with a single request.
+     *
+     * @param bookings     the bookings.
+     * @param allOrNothing true to reserve no booking if some booking can't be reserved.
+     * @return the result of each booking, in the same order, or null if the request failed.
+     */
+    public List<BookingResult> reserveBatch(List<Booking> bookings, boolean allOrNothing) throws IOException, InterruptedException {
+        List<byte[]> args = new ArrayList<>(bookings.size() + 1);
+        args.add(new byte[]{(byte) (allOrNothing ? 1 : 0)});
+        for (Booking booking : bookings)
+            args.add(booking.serialize());
+
+        int tag = RESERVE_BATCH.ordinal();
+        demultiplexer.send(tag, args);
+        var response = demultiplexer.receive(tag);
+
+        if (checkError(response)) {
+            printError(response);
+            return null;
+        }
+        return response.stream().limit(bookings.size()).map(BookingResult::deserialize).collect(Collectors.toList());
     }
 
     protected void getRoutes() throws NotLoggedInException, IOException, InterruptedException {
@@ -221,10 +305,31 @@ public class Client implements Runnable {
         if (checkError(response)) printError(response);
         else {
             logger.info("Get routes with success!");
-            response.stream().map(Route::deserialize).forEach(out::println);
+            if (encoding == CompactEncoding.LEGACY)
+                response.stream().map(Route::deserialize).forEach(out::println);
+            else
+                CompactEncoding.decodeRoutes(response.get(0)).forEach(out::println);
         }
     }
 
+    /**
+     * Gets the version of the routes in the server, that changes every time a route is added.
+     * If it is the same as when the routes were last fetched, they are still up to date.
+     *
+     * @return the version, or -1 if the request failed.
+     */
+    public long getRoutesVersion() throws IOException, InterruptedException {
+        int tag = GET_ROUTES_VERSION.ordinal();
+        demultiplexer.send(tag, null);
+        var response = demultiplexer.receive(tag);
+
+        if (checkError(response)) {
+            printError(response);
+            return -1;
+        }
+        return ByteBuffer.wrap(response.get(0)).getLong();
+    }
+
     private void getPathsBetweenIO() throws NotLoggedInException, IOException, InterruptedException {
         if (!logged_in) throw new NotLoggedInException();
 
@@ -259,6 +364,126 @@ public class Client implements Runnable {
         return null;
     }
 
+    private void getBestPathsIO() throws NotLoggedInException, IOException, InterruptedException {
+        if (!logged_in) throw new NotLoggedInException();
+
+        out.print("Insert origin: ");
+        String origin = in.nextLine();
+        out.print("Insert destination: ");
+        String destination = in.nextLine();
+        out.print("Insert the maximum number of routes: ");
+        int maxHops = Integer.parseInt(in.nextLine());
+        out.print("Insert the number of itineraries: ");
+        int k = Integer.parseInt(in.nextLine());
+
+        out.print("Insert the start date with the following format \"2007-12-03\" (empty to ignore dates): ");
+        String startStr = in.nextLine();
+        LocalDate start = null, end = null;
+        if (!startStr.isBlank()) {
+            start = LocalDate.parse(startStr);
+            out.print("Insert the end date with the following format \"2007-12-03\": ");
+            end = LocalDate.parse(in.nextLine());
+        }
+
+        List<Itinerary> itineraries = getBestPaths(origin, destination, maxHops, k, start, end);
+        if (itineraries != null)
+            itineraries.forEach(out::println);
+        else
+            out.println("Path not found!");
+    }
+
+    /**
+     * Gets the k best itineraries between two cities.
+     *
+     * @param origin      the origin city.
+     * @param destination the destination city.
+     * @param maxHops     the maximum number of routes of an itinerary.
+     * @param k           the maximum number of itineraries.
+     * @param start       the start date, or null to rank only by number of routes.
+     * @param end         the end date, or null to rank only by number of routes.
+     * @return the itineraries, best first, or null if the request failed.
+     */
+    public List<Itinerary> getBestPaths(String origin, String destination, int maxHops, int k,
+                                        LocalDate start, LocalDate end) throws IOException, InterruptedException {
+        List<byte[]> args = new ArrayList<>(6);
+
+        args.add(origin.getBytes(StandardCharsets.UTF_8));
+        args.add(destination.getBytes(StandardCharsets.UTF_8));
+        args.add(ByteBuffer.allocate(Integer.BYTES).putInt(maxHops).array());
+        args.add(ByteBuffer.allocate(Integer.BYTES).putInt(k).array());
+        if (start != null && end != null) {
+            args.add(start.toString().getBytes(StandardCharsets.UTF_8));
+            args.add(end.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        int tag = GET_BEST_PATHS.ordinal();
+        demultiplexer.send(tag, args);
+        var response = demultiplexer.receive(tag);
+
+        if (checkError(response)) printError(response);
+        else {
+            logger.info("Get best paths with success!");
+            return response.stream().map(Itinerary::deserialize).collect(Collectors.toList());
+        }
+        return null;
+    }
+
+    private void getAvailableItinerariesIO() throws NotLoggedInException, IOException, InterruptedException {
+        if (!logged_in) throw new NotLoggedInException();
+
+        out.print("Insert origin: ");
+        String origin = in.nextLine();
+        out.print("Insert destination: ");
+        String destination = in.nextLine();
+        out.print("Insert the maximum number of routes: ");
+        int maxHops = Integer.parseInt(in.nextLine());
+
+        out.print("Insert the start date with the following format \"2007-12-03\": ");
+        LocalDate start = LocalDate.parse(in.nextLine());
+        out.print("Insert the end date with the following format \"2007-12-03\": ");
+        LocalDate end = LocalDate.parse(in.nextLine());
+
+        List<Itinerary> itineraries = getAvailableItineraries(origin, destination, maxHops, start, end);
+        if (itineraries == null)
+            out.println("Path not found!");
+        else if (itineraries.isEmpty())
+            out.println("No seats available in that interval!");
+        else
+            itineraries.forEach(out::println);
+    }
+
+    /**
+     * Gets the itineraries between two cities with seats on every flight in a date interval.
+     *
+     * @param origin      the origin city.
+     * @param destination the destination city.
+     * @param maxHops     the maximum number of routes of an itinerary.
+     * @param start       the start date.
+     * @param end         the end date.
+     * @return the itineraries with the day of each flight, or null if the request failed.
+     */
+    public List<Itinerary> getAvailableItineraries(String origin, String destination, int maxHops,
+                                                   LocalDate start, LocalDate end) throws IOException, InterruptedException {
+        List<byte[]> args = new ArrayList<>(5);
+
+        args.add(origin.getBytes(StandardCharsets.UTF_8));
+        args.add(destination.getBytes(StandardCharsets.UTF_8));
+        args.add(ByteBuffer.allocate(Integer.BYTES).putInt(maxHops).array());
+        args.add(start.toString().getBytes(StandardCharsets.UTF_8));
+        args.add(end.toString().getBytes(StandardCharsets.UTF_8));
+
+        int tag = GET_AVAILABLE_ITINERARIES.ordinal();
+        demultiplexer.send(tag, args);
+        var response = demultiplexer.receive(tag);
+
+        if (checkError(response)) printError(response);
+        else {
+            logger.info("Get available itineraries with success!");
+            return response.stream().map(Itinerary::deserialize).collect(Collectors.toList());
+        }
+        return null;
+    }
+
     private void insertRouteIO() throws NotLoggedInException, IOException, InterruptedException {
         if (!logged_in) throw new NotLoggedInException();
 
@@ -5,6 +5,9 @@ import connection.TaggedConnection.Frame;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -12,7 +15,13 @@ public class Demultiplexer {
     private final TaggedConnection conn;
     private final ReentrantLock l = new ReentrantLock();
     private final Map<Integer, FrameValue> map = new HashMap<>();
-    private IOException exception = null;
+    private volatile IOException exception = null;
+
+    /**
+     * Replies awaited by the requests sent with a correlation id, by tag.
+     */
+    private final Map<Integer, CompletableFuture<List<byte[]>>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger lastCorrelationId = new AtomicInteger();
 
     public Demultiplexer(TaggedConnection conn) {
         this.conn = conn;
@@ -23,6 +32,11 @@ public class Demultiplexer {
             try {
                 while (true) {
                     Frame frame = conn.receive();
+                    if (frame.correlationId() != 0) {
+                        CompletableFuture<List<byte[]>> future = pending.remove(frame.tag());
+                        if (future != null) future.complete(frame.data());
+                        continue;
+                    }
                     l.lock();
                     try {
                         FrameValue fv = map.get(frame.tag());
@@ -38,10 +52,45 @@ public class Demultiplexer {
                 }
             } catch (IOException e) {
                 exception = e;
+                pending.values().forEach(future -> future.completeExceptionally(e));
+                pending.clear();
+                l.lock();
+                try {
+                    map.values().forEach(fv -> fv.c.signalAll());
+                } finally {
+                    l.unlock();
+                }
             }
         }).start();
     }
 
+    /**
+     * Sends a request with a new correlation id, without waiting for the reply.
+     * Many requests, even of the same type, can be in flight at once, and the server may reply out of order.
+     *
+     * @param type the request type.
+     * @param data the data of the request.
+     * @return the reply, completed when it arrives.
+     * @throws IOException if the request couldn't be sent.
+     */
+    public CompletableFuture<List<byte[]>> request(int type, List<byte[]> data) throws IOException {
+        int id = lastCorrelationId.updateAndGet(last -> last == TaggedConnection.MAX_CORRELATION_ID ? 1 : last + 1);
+        int tag = TaggedConnection.tag(type, id);
+        CompletableFuture<List<byte[]>> future = new CompletableFuture<>();
+        pending.put(tag, future);
+        if (exception != null) {
+            pending.remove(tag);
+            throw exception;
+        }
+        try {
+            conn.send(tag, data);
+        } catch (IOException e) {
+            pending.remove(tag);
+            throw e;
+        }
+        return future;
+    }
+
     public void send(int tag, List<byte[]> data) throws IOException {
         conn.send(tag, data);
     }
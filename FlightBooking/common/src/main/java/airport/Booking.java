@@ -0,0 +1,84 @@
+package airport;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A reservation asked for, as the cities in order of passage and the interval of days to fly in.
+ */
+public class Booking {
+
+    /**
+     * Cities in order of passage, from the origin to the destination.
+     */
+    private final List<String> cities;
+
+    private final LocalDate start;
+    private final LocalDate end;
+
+    /**
+     * Constructor
+     *
+     * @param cities the cities in order of passage.
+     * @param start  the first day of the interval.
+     * @param end    the last day of the interval.
+     */
+    public Booking(List<String> cities, LocalDate start, LocalDate end) {
+        this.cities = List.copyOf(cities);
+        this.start = start;
+        this.end = end;
+    }
+
+    public static Booking deserialize(byte[] bytes) {
+        ByteBuffer bb = ByteBuffer.wrap(bytes);
+
+        int size = bb.getInt();
+        List<String> cities = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            byte[] city = new byte[bb.getInt()];
+            bb.get(city);
+            cities.add(new String(city, StandardCharsets.UTF_8));
+        }
+
+        LocalDate start = LocalDate.ofEpochDay(bb.getLong());
+        LocalDate end = LocalDate.ofEpochDay(bb.getLong());
+        return new Booking(cities, start, end);
+    }
+
+    public List<String> getCities() {
+        return cities;
+    }
+
+    public LocalDate getStart() {
+        return start;
+    }
+
+    public LocalDate getEnd() {
+        return end;
+    }
+
+    public byte[] serialize() {
+        List<byte[]> citiesBytes = cities.stream().map(city -> city.getBytes(StandardCharsets.UTF_8)).toList();
+        ByteBuffer bb = ByteBuffer.allocate(Integer.BYTES +
+                citiesBytes.stream().mapToInt(city -> Integer.BYTES + city.length).sum() +
+                2 * Long.BYTES);
+
+        bb.putInt(citiesBytes.size());
+        for (byte[] city : citiesBytes) {
+            bb.putInt(city.length);
+            bb.put(city);
+        }
+        bb.putLong(start.toEpochDay());
+        bb.putLong(end.toEpochDay());
+
+        return bb.array();
+    }
+
+    @Override
+    public String toString() {
+        return String.join(" -> ", cities) + " [" + start + ", " + end + "]";
+    }
+}
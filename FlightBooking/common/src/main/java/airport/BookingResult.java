@@ -0,0 +1,82 @@
+package airport;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Outcome of one {@link Booking} of a batch: the id of the reservation made, or why it wasn't made.
+ */
+public class BookingResult {
+
+    private final UUID reservationId;
+    private final String error;
+
+    private BookingResult(UUID reservationId, String error) {
+        this.reservationId = reservationId;
+        this.error = error;
+    }
+
+    /**
+     * @param reservationId the id of the reservation made.
+     * @return the result of a booking that was reserved.
+     */
+    public static BookingResult reserved(UUID reservationId) {
+        return new BookingResult(reservationId, null);
+    }
+
+    /**
+     * @param error why the booking wasn't reserved.
+     * @return the result of a booking that wasn't reserved.
+     */
+    public static BookingResult failed(String error) {
+        return new BookingResult(null, error);
+    }
+
+    public static BookingResult deserialize(byte[] bytes) {
+        ByteBuffer bb = ByteBuffer.wrap(bytes);
+        if (bb.get() == 0)
+            return reserved(new UUID(bb.getLong(), bb.getLong()));
+        byte[] error = new byte[bb.remaining()];
+        bb.get(error);
+        return failed(new String(error, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return true if the booking was reserved.
+     */
+    public boolean isReserved() {
+        return reservationId != null;
+    }
+
+    /**
+     * @return the id of the reservation, or null if it wasn't made.
+     */
+    public UUID getReservationId() {
+        return reservationId;
+    }
+
+    /**
+     * @return why the booking wasn't reserved, or null if it was.
+     */
+    public String getError() {
+        return error;
+    }
+
+    public byte[] serialize() {
+        if (isReserved()) {
+            return ByteBuffer.allocate(1 + 2 * Long.BYTES)
+                    .put((byte) 0)
+                    .putLong(reservationId.getMostSignificantBits())
+                    .putLong(reservationId.getLeastSignificantBits())
+                    .array();
+        }
+        byte[] errorBytes = error.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(1 + errorBytes.length).put((byte) 1).put(errorBytes).array();
+    }
+
+    @Override
+    public String toString() {
+        return isReserved() ? "Reserved " + reservationId : "Not reserved: " + error;
+    }
+}
@@ -0,0 +1,221 @@
+package airport;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Compact wire encoding of reservations and routes, negotiated per connection.
+ * <p>
+ * A response is a single element: the version, a dictionary of the strings it uses (cities and usernames),
+ * a dictionary of the routes, referring to their cities by index, and then the reservations, referring
+ * to routes and usernames by index. UUIDs are 16 bytes, dates are epoch days, and every count, index
+ * and day is a varint, so a city or route that shows up in many reservations is only sent once.
+ * <p>
+ * Unlike the legacy encoding, the flights of a reservation don't carry the ids of the other
+ * reservations on them, so the size of a reservation doesn't grow with how full its flights are.
+ */
+public final class CompactEncoding {
+
+    /**
+     * Encoding of each object on its own, with {@code serialize} and {@code deserialize}, used unless
+     * the client asks for another one.
+     */
+    public static final byte LEGACY = 0;
+
+    /**
+     * First version of this encoding.
+     */
+    public static final byte V1 = 1;
+
+    /**
+     * Latest version supported.
+     */
+    public static final byte LATEST = V1;
+
+    private CompactEncoding() {
+    }
+
+    /**
+     * Encodes reservations, with their flights.
+     *
+     * @param reservations the reservations.
+     * @return the encoded reservations.
+     */
+    public static byte[] encodeReservations(Collection<Reservation> reservations) {
+        Dictionary dictionary = new Dictionary();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        putVarint(body, reservations.size());
+        for (Reservation reservation : reservations) {
+            putUuid(body, reservation.id);
+            putVarint(body, dictionary.string(reservation.getUsernameClient()));
+            Set<Flight> flights = reservation.getFlights();
+            putVarint(body, flights.size());
+            for (Flight flight : flights) {
+                putUuid(body, flight.id);
+                putVarint(body, dictionary.route(flight.route));
+                putVarint(body, flight.date.toEpochDay());
+            }
+        }
+        return dictionary.prepend(body);
+    }
+
+    /**
+     * Decodes reservations encoded by {@link #encodeReservations}.
+     *
+     * @param bytes the encoded reservations.
+     * @return the reservations, in the order they were encoded.
+     * @throws IllegalArgumentException if the version isn't supported.
+     */
+    public static List<Reservation> decodeReservations(byte[] bytes) {
+        ByteBuffer bb = ByteBuffer.wrap(bytes);
+        List<String> strings = new ArrayList<>();
+        List<Route> routes = new ArrayList<>();
+        readDictionary(bb, strings, routes);
+
+        int size = getVarint(bb);
+        List<Reservation> reservations = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            UUID id = getUuid(bb);
+            String username = strings.get(getVarint(bb));
+            int nFlights = getVarint(bb);
+            Set<Flight> flights = new HashSet<>(nFlights);
+            for (int f = 0; f < nFlights; f++) {
+                UUID flightId = getUuid(bb);
+                Route route = routes.get(getVarint(bb));
+                LocalDate date = LocalDate.ofEpochDay(getVarlong(bb));
+                flights.add(new Flight(flightId, route, date, Set.of()));
+            }
+            reservations.add(new Reservation(id, username, flights));
+        }
+        return reservations;
+    }
+
+    /**
+     * Encodes routes.
+     *
+     * @param routes the routes.
+     * @return the encoded routes.
+     */
+    public static byte[] encodeRoutes(Collection<Route> routes) {
+        Dictionary dictionary = new Dictionary();
+        for (Route route : routes)
+            dictionary.route(route);
+        return dictionary.prepend(new ByteArrayOutputStream());
+    }
+
+    /**
+     * Decodes routes encoded by {@link #encodeRoutes}.
+     *
+     * @param bytes the encoded routes.
+     * @return the routes, in the order they were encoded.
+     * @throws IllegalArgumentException if the version isn't supported.
+     */
+    public static List<Route> decodeRoutes(byte[] bytes) {
+        List<Route> routes = new ArrayList<>();
+        readDictionary(ByteBuffer.wrap(bytes), new ArrayList<>(), routes);
+        return routes;
+    }
+
+    /**
+     * Strings and routes of a response, each one given an index the first time it is used.
+     */
+    private static final class Dictionary {
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final Map<Route, Integer> routes = new LinkedHashMap<>();
+
+        int string(String string) {
+            return strings.computeIfAbsent(string, s -> strings.size());
+        }
+
+        int route(Route route) {
+            Integer index = routes.get(route);
+            if (index == null) {
+                string(route.origin);
+                string(route.destination);
+                index = routes.size();
+                routes.put(route, index);
+            }
+            return index;
+        }
+
+        /**
+         * @return the version and the dictionary, followed by the body that uses it.
+         */
+        byte[] prepend(ByteArrayOutputStream body) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + 16 * (strings.size() + routes.size()));
+            out.write(V1);
+            putVarint(out, strings.size());
+            for (String string : strings.keySet()) {
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                putVarint(out, utf8.length);
+                out.writeBytes(utf8);
+            }
+            putVarint(out, routes.size());
+            for (Route route : routes.keySet()) {
+                putVarint(out, strings.get(route.origin));
+                putVarint(out, strings.get(route.destination));
+                putVarint(out, route.capacity);
+            }
+            out.write(body.toByteArray(), 0, body.size());
+            return out.toByteArray();
+        }
+    }
+
+    private static void readDictionary(ByteBuffer bb, List<String> strings, List<Route> routes) {
+        byte version = bb.get();
+        if (version != V1)
+            throw new IllegalArgumentException("Unsupported encoding version: " + version);
+        int nStrings = getVarint(bb);
+        for (int i = 0; i < nStrings; i++) {
+            byte[] utf8 = new byte[getVarint(bb)];
+            bb.get(utf8);
+            strings.add(new String(utf8, StandardCharsets.UTF_8));
+        }
+        int nRoutes = getVarint(bb);
+        for (int i = 0; i < nRoutes; i++)
+            routes.add(new Route(strings.get(getVarint(bb)), strings.get(getVarint(bb)), getVarint(bb)));
+    }
+
+    /**
+     * Writes a non-negative number in 7 bits per byte, with the high bit set on every byte but the last.
+     */
+    static void putVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long getVarlong(ByteBuffer bb) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = bb.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Varint too long");
+    }
+
+    static int getVarint(ByteBuffer bb) {
+        long value = getVarlong(bb);
+        if (value > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Varint out of range: " + value);
+        return (int) value;
+    }
+
+    private static void putUuid(ByteArrayOutputStream out, UUID uuid) {
+        out.writeBytes(ByteBuffer.allocate(2 * Long.BYTES)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array());
+    }
+
+    private static UUID getUuid(ByteBuffer bb) {
+        return new UUID(bb.getLong(), bb.getLong());
+    }
+}
@@ -8,6 +8,7 @@ import java.time.LocalDate;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
@@ -41,6 +42,20 @@ public class Flight {
      */
     private final Set<Reservation> reservations;
 
+    /**
+     * Seats that are still free on this flight.
+     * <p>
+     * Kept apart from the reservations set so that the capacity check never has to
+     * take the flight's lock: a seat is claimed with a CAS decrement and given back
+     * when the reservation is removed.
+     */
+    private final AtomicInteger availableSeats;
+
+    /**
+     * Set when the day of this flight is cancelled, so no reservation can be added afterwards.
+     */
+    private volatile boolean canceled;
+
     private final Lock readLockReservations;
 
     private final Lock writeLockReservations;
@@ -50,6 +65,8 @@ public class Flight {
         this.route = route;
         this.date = date;
         this.reservations = new HashSet<>(reservations);
+        this.availableSeats = new AtomicInteger(Math.max(0, route.capacity - this.reservations.size()));
+        this.canceled = false;
         ReentrantReadWriteLock rwReservation = new ReentrantReadWriteLock();
         this.readLockReservations = rwReservation.readLock();
         this.writeLockReservations = rwReservation.writeLock();
@@ -67,6 +84,8 @@ public class Flight {
         this.route = route;
         this.date = date;
         this.reservations = new HashSet<>();
+        this.availableSeats = new AtomicInteger(route.capacity);
+        this.canceled = false;
         ReentrantReadWriteLock rwReservation = new ReentrantReadWriteLock();
         this.readLockReservations = rwReservation.readLock();
         this.writeLockReservations = rwReservation.writeLock();
@@ -104,6 +123,28 @@ public class Flight {
         return deserialize(bb);
     }
 
+    /**
+     * Claims one seat of this flight, without taking any lock.
+     *
+     * @return true if a seat was claimed, false if the flight is full.
+     */
+    public boolean tryReserveSeat() {
+        int seats;
+        do {
+            seats = availableSeats.get();
+            if (seats <= 0)
+                return false;
+        } while (!availableSeats.compareAndSet(seats, seats - 1));
+        return true;
+    }
+
+    /**
+     * Gives back a seat claimed with {@link #tryReserveSeat()} that ended up not being used.
+     */
+    public void releaseSeat() {
+        availableSeats.incrementAndGet();
+    }
+
     /**
      * Adds a reservation to this flight.
      *
@@ -112,11 +153,30 @@ public class Flight {
      * @throws FullFlightException is launched if aren't seats available.
      */
     public boolean addReservation(Reservation reservation) throws FullFlightException {
+        if (!tryReserveSeat())
+            throw new FullFlightException();
+        boolean added = false;
+        try {
+            added = commitReservation(reservation);
+            return added;
+        } finally {
+            if (!added)
+                releaseSeat();
+        }
+    }
+
+    /**
+     * Adds a reservation to this flight using a seat already claimed with {@link #tryReserveSeat()}.
+     *
+     * @param reservation the reservation.
+     * @return true if the reservation was added, false if the flight was cancelled or already had it.
+     */
+    public boolean commitReservation(Reservation reservation) {
         try {
             writeLockReservations.lock();
-            if (route.capacity > reservations.size())
-                return this.reservations.add(reservation);
-            throw new FullFlightException();
+            if (canceled)
+                return false;
+            return this.reservations.add(reservation);
         } finally {
             writeLockReservations.unlock();
         }
@@ -131,7 +191,23 @@ public class Flight {
     public boolean removeReservation(Reservation reservation) {
         try {
             writeLockReservations.lock();
-            return this.reservations.remove(reservation);
+            boolean removed = this.reservations.remove(reservation);
+            if (removed)
+                releaseSeat();
+            return removed;
+        } finally {
+            writeLockReservations.unlock();
+        }
+    }
+
+    /**
+     * Sets the free seats to the capacity minus the reservations of this flight,
+     * for when the reservations were added without every seat being claimed, as when the state is recovered.
+     */
+    public void recountSeats() {
+        try {
+            writeLockReservations.lock();
+            availableSeats.set(route.capacity - reservations.size());
         } finally {
             writeLockReservations.unlock();
         }
@@ -157,20 +233,30 @@ public class Flight {
      * @return true if there is a seat.
      */
     public boolean seatAvailable() {
-        try {
-            readLockReservations.lock();
-            return route.capacity > reservations.size();
-        } finally {
-            readLockReservations.unlock();
-        }
+        return availableSeats.get() > 0;
+    }
+
+    /**
+     * Number of free seats on this flight.
+     *
+     * @return the free seats.
+     */
+    public int availableSeats() {
+        return Math.max(0, availableSeats.get());
+    }
+
+    public boolean isCanceled() {
+        return canceled;
     }
 
+    /**
+     * Cancels this flight, so no reservation can be added afterwards.
+     * Its reservations are kept, and must be cancelled on their other flights by the caller.
+     */
     public void cancelFlight() {
         try {
             writeLockReservations.lock();
-            for (Reservation reservation : reservations) {
-                reservation.cancelReservation(id);
-            }
+            canceled = true;
         } finally {
             writeLockReservations.unlock();
         }
@@ -0,0 +1,132 @@
+package airport;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * One way of going from a city to another, as the cities in order of passage.
+ * When the seats are known, it also has the earliest day of each flight with seats on every flight.
+ */
+public class Itinerary {
+
+    /**
+     * Cities in order of passage, from the origin to the destination.
+     */
+    private final List<String> cities;
+
+    /**
+     * Day of each flight, in order of passage, or empty if the seats are unknown.
+     */
+    private final List<LocalDate> dates;
+
+    /**
+     * Constructor
+     *
+     * @param cities the cities in order of passage.
+     * @param dates  the day of each flight, or an empty list if unknown.
+     */
+    public Itinerary(List<String> cities, List<LocalDate> dates) {
+        if (!dates.isEmpty() && dates.size() != cities.size() - 1)
+            throw new IllegalArgumentException("Expected " + (cities.size() - 1) + " dates, got " + dates.size());
+        this.cities = List.copyOf(cities);
+        this.dates = List.copyOf(dates);
+    }
+
+    public static Itinerary deserialize(byte[] bytes) {
+        ByteBuffer bb = ByteBuffer.wrap(bytes);
+
+        int size = bb.getInt();
+        List<String> cities = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            byte[] city = new byte[bb.getInt()];
+            bb.get(city);
+            cities.add(new String(city, StandardCharsets.UTF_8));
+        }
+
+        int numberDates = bb.getInt();
+        List<LocalDate> dates = new ArrayList<>(numberDates);
+        for (int i = 0; i < numberDates; i++)
+            dates.add(LocalDate.ofEpochDay(bb.getLong()));
+
+        return new Itinerary(cities, dates);
+    }
+
+    public List<String> getCities() {
+        return Collections.unmodifiableList(cities);
+    }
+
+    /**
+     * @return the number of routes of the itinerary.
+     */
+    public int hops() {
+        return cities.size() - 1;
+    }
+
+    /**
+     * @return the day of each flight, or an empty list if unknown.
+     */
+    public List<LocalDate> getDates() {
+        return dates;
+    }
+
+    /**
+     * @return the day of the first flight, or null if unknown.
+     */
+    public LocalDate getDeparture() {
+        return dates.isEmpty() ? null : dates.get(0);
+    }
+
+    /**
+     * @return the day of the last flight, or null if unknown.
+     */
+    public LocalDate getArrival() {
+        return dates.isEmpty() ? null : dates.get(dates.size() - 1);
+    }
+
+    public byte[] serialize() {
+        List<byte[]> citiesBytes = cities.stream().map(city -> city.getBytes(StandardCharsets.UTF_8)).toList();
+        ByteBuffer bb = ByteBuffer.allocate(Integer.BYTES +
+                citiesBytes.stream().mapToInt(city -> Integer.BYTES + city.length).sum() +
+                Integer.BYTES + dates.size() * Long.BYTES);
+
+        bb.putInt(citiesBytes.size());
+        for (byte[] city : citiesBytes) {
+            bb.putInt(city.length);
+            bb.put(city);
+        }
+
+        bb.putInt(dates.size());
+        for (LocalDate date : dates)
+            bb.putLong(date.toEpochDay());
+
+        return bb.array();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Itinerary itinerary = (Itinerary) o;
+        return cities.equals(itinerary.cities) && dates.equals(itinerary.dates);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(cities, dates);
+    }
+
+    @Override
+    public String toString() {
+        if (dates.isEmpty())
+            return String.join(" -> ", cities);
+        StringBuilder builder = new StringBuilder(cities.get(0));
+        for (int i = 0; i < dates.size(); i++)
+            builder.append(" -(").append(dates.get(i)).append(")-> ").append(cities.get(i + 1));
+        return builder.toString();
+    }
+}
@@ -2,20 +2,30 @@ package airport;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 
 public class PossiblePath {
     private final String thisCity;
+    private final byte[] cityBytes;
     private final boolean isDestiny;
     private final List<PossiblePath> connections;
 
 
     public PossiblePath(boolean isDest, String from) {
         thisCity = from;
+        cityBytes = from.getBytes();
 
         this.isDestiny = isDest;
-        connections = new LinkedList<>();
+        connections = new ArrayList<>();
+    }
+
+    private PossiblePath(boolean isDest, String from, byte[] cityBytes, int numPaths) {
+        thisCity = from;
+        this.cityBytes = cityBytes;
+
+        this.isDestiny = isDest;
+        connections = new ArrayList<>(numPaths);
     }
 
     public static PossiblePath deserialize(byte[] bytes) {
@@ -23,19 +33,13 @@ public class PossiblePath {
     }
 
     private static PossiblePath deserializeAux(ByteBuffer bb) {
-        int sizeNameCity = bb.getInt();
-        byte[] thisCityBytes = new byte[sizeNameCity];
+        byte[] thisCityBytes = new byte[bb.getInt()];
         bb.get(thisCityBytes);
-        String thisCityDes = new String(thisCityBytes);
         int size = bb.getInt();
-        PossiblePath possiblePath = new PossiblePath(size == 0, thisCityDes);
+        PossiblePath possiblePath = new PossiblePath(size == 0, new String(thisCityBytes), thisCityBytes, size);
 
-        List<PossiblePath> list = new ArrayList<>();
-        for (int i = 0; i < size; i++) {
-            list.add(deserializeAux(bb));
-        }
-        for (PossiblePath path : list)
-            possiblePath.addPossiblePath(path);
+        for (int i = 0; i < size; i++)
+            possiblePath.connections.add(deserializeAux(bb));
         return possiblePath;
     }
 
@@ -47,24 +51,57 @@ public class PossiblePath {
         return connections.size();
     }
 
+    public String getCity() {
+        return thisCity;
+    }
+
+    public boolean isDestiny() {
+        return isDestiny;
+    }
+
+    /**
+     * Gets the paths that continue from this city.
+     * The same path may be shared by several cities.
+     *
+     * @return the paths from this city.
+     */
+    public List<PossiblePath> getPossiblePaths() {
+        return Collections.unmodifiableList(connections);
+    }
+
+    /**
+     * Serializes the paths as a tree, each city followed by the number of paths from it and each of them.
+     * A path shared by several cities is written under each of them.
+     * <p>
+     * The size is computed first, so the paths are written in a single buffer, once.
+     *
+     * @return the serialized paths.
+     * @throws IllegalStateException if the paths, expanded as a tree, don't fit in an array.
+     */
     public byte[] serialize() {
-        byte[] cityToByte = thisCity.getBytes();
-        ByteBuffer bb = ByteBuffer.allocate(Integer.BYTES + cityToByte.length + Integer.BYTES);
+        long size = serializedSize();
+        if (size > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("Paths too large to serialize: " + size + " bytes");
+        ByteBuffer bb = ByteBuffer.allocate((int) size);
+        serialize(bb);
+        return bb.array();
+    }
 
-        bb.putInt(cityToByte.length);
-        bb.put(cityToByte);
+    private long serializedSize() {
+        long size = Integer.BYTES + cityBytes.length + Integer.BYTES;
+        for (PossiblePath possiblePath : connections)
+            size += possiblePath.serializedSize();
+        return size;
+    }
 
-        bb.putInt(connections.size());
+    private void serialize(ByteBuffer bb) {
+        bb.putInt(cityBytes.length);
+        bb.put(cityBytes);
 
-        for (PossiblePath possiblePath : connections) {
-            byte[] elem = possiblePath.serialize();
-            ByteBuffer newBuffer = ByteBuffer.allocate(bb.capacity() + elem.length);
-            newBuffer.put(bb.array());
-            newBuffer.put(elem);
+        bb.putInt(connections.size());
 
-            bb = newBuffer;
-        }
-        return bb.array();
+        for (PossiblePath possiblePath : connections)
+            possiblePath.serialize(bb);
     }
 
     @Override
@@ -5,6 +5,7 @@ import org.apache.logging.log4j.Logger;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Objects;
 
 /**
  * This class stores the information about routes between cities.
@@ -87,6 +88,11 @@ public class Route {
         return capacity == route.capacity && origin.equals(route.origin) && destination.equals(route.destination);
     }
 
+    @Override
+    public int hashCode() {
+        return Objects.hash(origin, destination, capacity);
+    }
+
     @Override
     public String toString() {
         return origin +
@@ -0,0 +1,85 @@
+package connection;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pool of byte buffers of the same size, reused to encode and decode frames without allocating them every time.
+ * Bigger buffers can be asked for, but they are allocated and not pooled.
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+    private final boolean direct;
+    private final ByteBuffer[] free;
+    private int size;
+    private final Lock lock;
+
+    /**
+     * Constructor.
+     *
+     * @param bufferSize the size of the pooled buffers.
+     * @param maxBuffers the maximum number of free buffers kept.
+     * @param direct     true to pool direct buffers, that channels can write without copying.
+     */
+    public BufferPool(int bufferSize, int maxBuffers, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.free = new ByteBuffer[maxBuffers];
+        this.size = 0;
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * Takes a buffer from the pool, or allocates one if the pool is empty or the capacity is too big.
+     *
+     * @param capacity the least capacity needed.
+     * @return an empty buffer, in write mode.
+     */
+    public ByteBuffer acquire(int capacity) {
+        if (capacity > bufferSize)
+            return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        lock.lock();
+        try {
+            if (size > 0) {
+                ByteBuffer buffer = free[--size];
+                free[size] = null;
+                return buffer.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Gives a buffer back to the pool. It must not be used after this.
+     * Buffers that aren't from the pool, or that don't fit in it, are left for the garbage collector.
+     *
+     * @param buffer the buffer.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || buffer.isDirect() != direct)
+            return;
+        lock.lock();
+        try {
+            if (size < free.length)
+                free[size++] = buffer;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of free buffers in the pool.
+     */
+    public int available() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package connection;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes and decodes the frames of a {@link TaggedConnection} on top of byte buffers,
+ * for connections that are read without blocking.
+ * <p>
+ * A frame is its length, followed by the tag, the number of elements and each element prefixed by its length.
+ * The length counts the bytes after it, so a whole frame is known to have arrived before any of it is parsed,
+ * and many frames can be sent back to back. A frame without data has zero elements.
+ * Frames longer than the maximum frame size are rejected before anything is allocated for them.
+ * <p>
+ * Frames are decoded straight from the bytes read. Only the bytes of a frame that isn't whole yet are kept,
+ * in a buffer taken from a {@link BufferPool} and given back as soon as the frame is complete,
+ * so a connection between requests holds no buffer.
+ */
+public class FrameCodec {
+
+    /**
+     * Default maximum length of a frame, in bytes.
+     */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Length of the smallest frame: the tag and the number of elements.
+     */
+    private static final int MIN_FRAME_SIZE = 2 * Integer.BYTES;
+
+    private static final int PENDING_SIZE = 4096;
+
+    private final BufferPool pool;
+    private final int maxFrameSize;
+
+    /**
+     * Bytes received that don't form a whole frame yet, in write mode, or null if there are none.
+     */
+    private ByteBuffer pending;
+
+    /**
+     * Constructor for a codec that reuses its own buffer.
+     */
+    public FrameCodec() {
+        this(new BufferPool(PENDING_SIZE, 1, false), DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @param pool         where the buffers for the bytes of frames not whole yet are taken from.
+     * @param maxFrameSize the maximum length of a frame received, in bytes.
+     */
+    public FrameCodec(BufferPool pool, int maxFrameSize) {
+        if (maxFrameSize < MIN_FRAME_SIZE)
+            throw new IllegalArgumentException("Invalid maximum frame size: " + maxFrameSize);
+        this.pool = pool;
+        this.maxFrameSize = maxFrameSize;
+        this.pending = null;
+    }
+
+    /**
+     * @param data the data of a frame, or null for a frame without data.
+     * @return the number of bytes of the frame, including its length.
+     */
+    public static int encodedSize(List<byte[]> data) {
+        int size = Integer.BYTES + MIN_FRAME_SIZE;
+        if (data != null) {
+            for (int i = 0; i < data.size(); i++)
+                size += Integer.BYTES + data.get(i).length;
+        }
+        return size;
+    }
+
+    /**
+     * Checks the length of a frame received.
+     *
+     * @param length       the length of the frame, not counting the length itself.
+     * @param maxFrameSize the maximum length.
+     * @throws ProtocolException if the length isn't valid or is larger than the maximum.
+     */
+    public static void checkFrameSize(int length, int maxFrameSize) throws ProtocolException {
+        if (length < MIN_FRAME_SIZE)
+            throw new ProtocolException("Invalid frame length: " + length);
+        if (length > maxFrameSize)
+            throw new ProtocolException("Frame of " + length + " bytes is larger than the maximum of " + maxFrameSize);
+    }
+
+    /**
+     * Encodes a frame.
+     *
+     * @param tag  the tag of the frame.
+     * @param data the data of the frame, or null for a frame without data.
+     * @return the frame, ready to be written.
+     */
+    public static ByteBuffer encode(int tag, List<byte[]> data) {
+        ByteBuffer bb = ByteBuffer.allocate(encodedSize(data));
+        return encode(tag, data, bb).flip();
+    }
+
+    /**
+     * Encodes a frame in a buffer taken from a pool, to be given back once written.
+     *
+     * @param tag  the tag of the frame.
+     * @param data the data of the frame, or null for a frame without data.
+     * @param pool the pool.
+     * @return the frame, ready to be written.
+     */
+    public static ByteBuffer encode(int tag, List<byte[]> data, BufferPool pool) {
+        ByteBuffer bb = pool.acquire(encodedSize(data));
+        return encode(tag, data, bb).flip();
+    }
+
+    /**
+     * Encodes a frame at the position of a buffer, that must have room for {@link #encodedSize} bytes.
+     *
+     * @param tag  the tag of the frame.
+     * @param data the data of the frame, or null for a frame without data.
+     * @param bb   the buffer, in write mode.
+     * @return the buffer.
+     */
+    public static ByteBuffer encode(int tag, List<byte[]> data, ByteBuffer bb) {
+        bb.putInt(encodedSize(data) - Integer.BYTES);
+        bb.putInt(tag);
+        if (data == null) {
+            bb.putInt(0);
+            return bb;
+        }
+        bb.putInt(data.size());
+        for (int i = 0; i < data.size(); i++) {
+            byte[] bytes = data.get(i);
+            bb.putInt(bytes.length);
+            bb.put(bytes);
+        }
+        return bb;
+    }
+
+    /**
+     * Parses a whole frame, whose length was already read.
+     *
+     * @param buffer the buffer, with the frame after the length at its position.
+     *               The position is left at the end of the frame.
+     * @param length the length of the frame.
+     * @return the frame.
+     * @throws ProtocolException if the elements don't fit exactly in the length of the frame.
+     */
+    public static TaggedConnection.Frame parseFrame(ByteBuffer buffer, int length) throws ProtocolException {
+        int end = buffer.position() + length;
+        int tag = buffer.getInt();
+        int size = buffer.getInt();
+        // Each element has at least its length, so a frame can't claim more than it has room for.
+        if (size < 0 || size > (end - buffer.position()) / Integer.BYTES)
+            throw new ProtocolException("Invalid number of elements: " + size);
+
+        List<byte[]> data = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (end - buffer.position() < Integer.BYTES)
+                throw new ProtocolException("Element " + i + " past the end of the frame");
+            int elementLength = buffer.getInt();
+            if (elementLength < 0 || elementLength > end - buffer.position())
+                throw new ProtocolException("Invalid element length: " + elementLength);
+            byte[] bytes = new byte[elementLength];
+            buffer.get(bytes);
+            data.add(bytes);
+        }
+        if (buffer.position() != end)
+            throw new ProtocolException("Frame length doesn't match its elements");
+        return new TaggedConnection.Frame(tag, data);
+    }
+
+    /**
+     * Adds the bytes received and decodes the frames they complete.
+     *
+     * @param in the bytes received, in read mode. They are all consumed.
+     * @return the frames completed, in order.
+     * @throws ProtocolException if the bytes aren't a valid frame.
+     */
+    public List<TaggedConnection.Frame> decode(ByteBuffer in) throws ProtocolException {
+        List<TaggedConnection.Frame> frames = new ArrayList<>();
+        decode(in, frames);
+        return frames;
+    }
+
+    /**
+     * Adds the bytes received and decodes the frames they complete.
+     *
+     * @param in     the bytes received, in read mode. They are all consumed.
+     * @param frames where the frames completed are added, in order.
+     * @throws ProtocolException if the bytes aren't a valid frame.
+     */
+    public void decode(ByteBuffer in, List<TaggedConnection.Frame> frames) throws ProtocolException {
+        if (pending == null) {
+            decodeFrames(in, frames);
+            if (in.hasRemaining())
+                pending = pool.acquire(in.remaining()).put(in);
+            return;
+        }
+
+        if (pending.remaining() < in.remaining()) {
+            ByteBuffer bigger = pool.acquire(Math.max(pending.capacity() * 2, pending.position() + in.remaining()));
+            bigger.put(pending.flip());
+            pool.release(pending);
+            pending = bigger;
+        }
+        pending.put(in).flip();
+        decodeFrames(pending, frames);
+        if (pending.hasRemaining()) {
+            pending.compact();
+        } else {
+            pool.release(pending);
+            pending = null;
+        }
+    }
+
+    /**
+     * Gives back the buffer of the bytes of a frame not whole yet, once the connection is closed.
+     */
+    public void release() {
+        if (pending != null) {
+            pool.release(pending);
+            pending = null;
+        }
+    }
+
+    private void decodeFrames(ByteBuffer buffer, List<TaggedConnection.Frame> frames) throws ProtocolException {
+        while (buffer.remaining() >= Integer.BYTES) {
+            int length = buffer.getInt(buffer.position());
+            checkFrameSize(length, maxFrameSize);
+            if (buffer.remaining() - Integer.BYTES < length)
+                break;
+            buffer.position(buffer.position() + Integer.BYTES);
+            frames.add(parseFrame(buffer, length));
+        }
+    }
+}
@@ -3,63 +3,112 @@ package connection;
 import java.io.*;
 import java.net.InetAddress;
 import java.net.Socket;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Connection that sends and receives frames, each with a tag and a list of elements,
+ * as encoded by {@link FrameCodec}.
+ */
 public class TaggedConnection implements AutoCloseable {
+
+    /**
+     * Number of low bits of a tag with the request type. The bits above have the correlation id.
+     */
+    public static final int TYPE_BITS = 8;
+
+    /**
+     * Largest correlation id that fits in a tag.
+     */
+    public static final int MAX_CORRELATION_ID = (1 << (Integer.SIZE - TYPE_BITS)) - 1;
+
+    /**
+     * Size of the buffers kept by a connection. A longer frame gets a buffer of its own, dropped once it is done,
+     * so a few large frames don't leave the connection holding that much memory.
+     */
+    static final int BUFFER_SIZE = 1024;
+
     private final Socket socket;
     private final DataInputStream inputStream;
-    private final DataOutputStream outputStream;
+    private final OutputStream outputStream;
     private final Lock in = new ReentrantLock();
     private final Lock out = new ReentrantLock();
+    private final int maxFrameSize;
+
+    /**
+     * Where the frames up to {@link #BUFFER_SIZE} are encoded before being written. Guarded by the out lock.
+     */
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Where the frames up to {@link #BUFFER_SIZE} are read into before being parsed. Guarded by the in lock.
+     */
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(BUFFER_SIZE);
 
     public TaggedConnection(Socket s) throws IOException {
+        this(s, FrameCodec.DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @param s            the socket.
+     * @param maxFrameSize the maximum length of a frame received, in bytes.
+     *                     The frames sent aren't limited, since the peer has its own maximum.
+     * @throws IOException if the streams of the socket couldn't be opened.
+     */
+    public TaggedConnection(Socket s, int maxFrameSize) throws IOException {
         this.socket = s;
         this.inputStream = new DataInputStream(new BufferedInputStream(s.getInputStream()));
-        this.outputStream = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        this.outputStream = s.getOutputStream();
+        this.maxFrameSize = maxFrameSize;
     }
 
     public void send(int tag, List<byte[]> data) throws IOException {
         out.lock();
         try {
-            outputStream.writeInt(tag); // Tag
-            if (data != null) {
-                outputStream.writeInt(data.size()); // Length of the data
-                for (byte[] bytes : data) {
-                    outputStream.writeInt(bytes.length);
-                    outputStream.write(bytes);
-                }
-            }
+            int size = FrameCodec.encodedSize(data);
+            ByteBuffer buffer = size <= BUFFER_SIZE ? sendBuffer.clear() : ByteBuffer.allocate(size);
+            FrameCodec.encode(tag, data, buffer);
+            // The whole frame goes in a single write.
+            outputStream.write(buffer.array(), 0, buffer.position());
             outputStream.flush();
         } finally {
             out.unlock();
         }
     }
 
+    /**
+     * Reads a whole frame, in one go once its length is known.
+     *
+     * @return the frame.
+     * @throws java.net.ProtocolException if the frame is longer than the maximum, or isn't valid.
+     *                                    The bytes of the frame aren't read, so the connection should be closed.
+     * @throws IOException                if the frame couldn't be read.
+     */
     public Frame receive() throws IOException {
         in.lock();
         try {
-            int tag = inputStream.readInt();
-            List<byte[]> list = null;
-            if (inputStream.available() != 0) {
-                int listLen = inputStream.readInt();
-                if (listLen > 500000) listLen = 100;
-                list = new ArrayList<>(listLen);
-                for (int i = 0; i < listLen; i -= -1) {
-                    int size = inputStream.readInt();
-                    byte[] bytes = new byte[size];
-                    inputStream.readFully(bytes);
-                    list.add(bytes);
-                }
-            }
-            return new Frame(tag, list);
+            int length = inputStream.readInt();
+            FrameCodec.checkFrameSize(length, maxFrameSize);
+            ByteBuffer buffer = length <= BUFFER_SIZE ? receiveBuffer.clear() : ByteBuffer.allocate(length);
+            inputStream.readFully(buffer.array(), 0, length);
+            return FrameCodec.parseFrame(buffer, length);
         } finally {
             in.unlock();
         }
     }
 
+    /**
+     * Sets how long {@link #receive()} waits for a frame before it throws a {@link java.net.SocketTimeoutException}.
+     *
+     * @param timeoutMs the timeout in milliseconds, or 0 to wait forever.
+     * @throws IOException if the timeout couldn't be set.
+     */
+    public void setTimeout(int timeoutMs) throws IOException {
+        socket.setSoTimeout(timeoutMs);
+    }
+
     public InetAddress getIP() {
         return socket.getInetAddress();
     }
@@ -73,7 +122,34 @@ public class TaggedConnection implements AutoCloseable {
         socket.close();
     }
 
+    /**
+     * Builds the tag of a request that can be told apart from the other requests in flight.
+     * The reply has the same tag.
+     *
+     * @param type          the request type.
+     * @param correlationId the id of the request, between 1 and {@link #MAX_CORRELATION_ID}.
+     *                      0 is a request handled in order with the others, as done by clients without ids.
+     * @return the tag.
+     */
+    public static int tag(int type, int correlationId) {
+        return (correlationId << TYPE_BITS) | type;
+    }
+
     public record Frame(int tag, List<byte[]> data) {
+
+        /**
+         * @return the request type.
+         */
+        public int type() {
+            return tag & ((1 << TYPE_BITS) - 1);
+        }
+
+        /**
+         * @return the correlation id, or 0 if the frame has none.
+         */
+        public int correlationId() {
+            return tag >>> TYPE_BITS;
+        }
     }
 }
 
@@ -20,6 +20,12 @@ public enum RequestType {
     CANCEL_RESERVATION,
 
     GET_NOTIFICATION,
+
+    GET_ROUTES_VERSION,
+    GET_BEST_PATHS,
+    GET_AVAILABLE_ITINERARIES,
+    RESERVE_BATCH,
+    SET_ENCODING,
     ;
 
 
@@ -15,6 +15,17 @@ public class Admin extends User {
         super(username, password);
     }
 
+    /**
+     * Constructor for a admin whose password was already hashed, as when restored.
+     *
+     * @param username     the username.
+     * @param passwordHash the hash of the password.
+     * @param hashed       unused, tells this constructor apart from the one that hashes the password.
+     */
+    public Admin(String username, String passwordHash, boolean hashed) {
+        super(username, passwordHash, hashed);
+    }
+
     @Override
     public boolean equals(Object o) {
         try {
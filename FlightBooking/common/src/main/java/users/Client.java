@@ -14,6 +14,17 @@ public class Client extends User {
         super(username, password);
     }
 
+    /**
+     * Constructor for a client whose password was already hashed, as when restored.
+     *
+     * @param username     the username.
+     * @param passwordHash the hash of the password.
+     * @param hashed       unused, tells this constructor apart from the one that hashes the password.
+     */
+    public Client(String username, String passwordHash, boolean hashed) {
+        super(username, passwordHash, hashed);
+    }
+
     @Override
     public boolean equals(Object o) {
         try {
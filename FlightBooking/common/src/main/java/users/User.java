@@ -47,6 +47,21 @@ public class User {
         this.notifications = new ArrayDeque<>();
     }
 
+    /**
+     * Constructor for a user whose password was already hashed, as when restored.
+     *
+     * @param username     the username.
+     * @param passwordHash the hash of the password, as given by {@link #getPasswordHash()}.
+     * @param hashed       unused, tells this constructor apart from the one that hashes the password.
+     */
+    protected User(String username, String passwordHash, boolean hashed) {
+        this.password = passwordHash;
+        this.username = username;
+        this.reservations = new HashSet<>();
+        this.lock = new ReentrantLock();
+        this.notifications = new ArrayDeque<>();
+    }
+
     public User(String username) {
         this.username = username;
         this.password = null;
@@ -98,6 +113,32 @@ public class User {
         }
     }
 
+    /**
+     * @return the hash of the password, to store it without the password itself.
+     */
+    public String getPasswordHash() {
+        try {
+            lock.lock();
+            return password;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the password by one already hashed.
+     *
+     * @param passwordHash the hash of the password, as given by {@link #getPasswordHash()}.
+     */
+    public void setPasswordHash(String passwordHash) {
+        try {
+            lock.lock();
+            this.password = passwordHash;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public void addReservation(UUID reservation) {
         try {
             lock.lock();
@@ -164,6 +205,18 @@ public class User {
         }
     }
 
+    /**
+     * @return a copy of the notifications not read yet, leaving them in place.
+     */
+    public List<Notification> getNotifications() {
+        try {
+            lock.lock();
+            return new ArrayList<>(notifications);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public void addNotification(Notification notification) {
         try {
             lock.lock();
@@ -0,0 +1,94 @@
+package airport;
+
+import org.junit.jupiter.api.Assertions;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+public class CompactEncodingTest {
+
+    private static List<Reservation> reservations(int n) {
+        Route r1 = new Route("Porto", "Lisbon", 30);
+        Route r2 = new Route("Lisbon", "London", 30);
+        LocalDate date = LocalDate.of(2024, 3, 1);
+        List<Reservation> reservations = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Set<Flight> flights = new HashSet<>();
+            flights.add(new Flight(UUID.randomUUID(), r1, date.plusDays(i), new HashSet<>()));
+            flights.add(new Flight(UUID.randomUUID(), r2, date.plusDays(i + 1), new HashSet<>()));
+            reservations.add(new Reservation(UUID.randomUUID(), "user" + (i % 3), flights));
+        }
+        return reservations;
+    }
+
+    /**
+     * Test to check that reservations decode to the same ids, usernames and flights they were encoded with.
+     */
+    @org.junit.jupiter.api.Test
+    void reservationsRoundTrip() {
+        List<Reservation> reservations = reservations(20);
+        List<Reservation> decoded = CompactEncoding.decodeReservations(CompactEncoding.encodeReservations(reservations));
+
+        Assertions.assertEquals(reservations.size(), decoded.size());
+        for (int i = 0; i < reservations.size(); i++) {
+            Reservation expected = reservations.get(i), actual = decoded.get(i);
+            Assertions.assertEquals(expected.id, actual.id);
+            Assertions.assertEquals(expected.getUsernameClient(), actual.getUsernameClient());
+            Map<UUID, Flight> flights = actual.getFlights().stream()
+                    .collect(Collectors.toMap(flight -> flight.id, Function.identity()));
+            Assertions.assertEquals(expected.getFlights().size(), flights.size());
+            for (Flight flight : expected.getFlights())
+                Assertions.assertTrue(FlightTest.equals(flight, flights.get(flight.id)));
+        }
+        Assertions.assertTrue(CompactEncoding.decodeReservations(CompactEncoding.encodeReservations(List.of())).isEmpty());
+    }
+
+    /**
+     * Test to check that routes decode to the routes they were encoded with, in the same order.
+     */
+    @org.junit.jupiter.api.Test
+    void routesRoundTrip() {
+        List<Route> routes = List.of(new Route("Porto", "Lisbon", 30), new Route("Lisbon", "Porto", 200),
+                new Route("Lisbon", "São Paulo", 1000));
+        Assertions.assertEquals(routes, CompactEncoding.decodeRoutes(CompactEncoding.encodeRoutes(routes)));
+    }
+
+    /**
+     * Test to check that varints round trip at the edges of each byte length, and that unknown versions are refused.
+     */
+    @org.junit.jupiter.api.Test
+    void varintsAndVersion() {
+        long[] values = {0, 1, 127, 128, 16_383, 16_384, Integer.MAX_VALUE, LocalDate.of(9999, 12, 31).toEpochDay()};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (long value : values)
+            CompactEncoding.putVarint(out, value);
+        ByteBuffer bb = ByteBuffer.wrap(out.toByteArray());
+        for (long value : values)
+            Assertions.assertEquals(value, CompactEncoding.getVarlong(bb));
+        Assertions.assertFalse(bb.hasRemaining());
+
+        byte[] bytes = CompactEncoding.encodeRoutes(List.of(new Route("Porto", "Lisbon", 30)));
+        bytes[0] = CompactEncoding.LATEST + 1;
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CompactEncoding.decodeRoutes(bytes));
+    }
+
+    /**
+     * Test to check that the compact encoding of many reservations is smaller than the legacy one.
+     */
+    @org.junit.jupiter.api.Test
+    void smallerThanLegacy() {
+        List<Reservation> reservations = reservations(50);
+        int legacy = reservations.stream().mapToInt(reservation -> reservation.serialize().length).sum();
+        int compact = CompactEncoding.encodeReservations(reservations).length;
+        Assertions.assertTrue(compact < legacy / 2, compact + " >= " + legacy + " / 2");
+    }
+}
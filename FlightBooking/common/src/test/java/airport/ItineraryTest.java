@@ -0,0 +1,29 @@
+package airport;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class ItineraryTest {
+
+    private static Stream<Arguments> itineraries() {
+        return Stream.of(
+                Arguments.of(new Itinerary(List.of("Porto", "Lisbon"), List.of())),
+                Arguments.of(new Itinerary(List.of("Porto", "Lisbon", "London"), List.of(LocalDate.now(), LocalDate.now()))),
+                Arguments.of(new Itinerary(List.of("Lisboa", "São Paulo"), List.of(LocalDate.now().plusDays(3))))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("itineraries")
+    void serializeAndDeserialize(Itinerary itinerary) {
+        Itinerary i = Itinerary.deserialize(itinerary.serialize());
+
+        Assertions.assertEquals(itinerary, i);
+    }
+}
@@ -0,0 +1,42 @@
+package airport;
+
+import org.junit.jupiter.api.Assertions;
+
+public class PossiblePathTest {
+
+    /**
+     * Builds the paths from A to D through B and C, with the path from C to D shared by A and B.
+     */
+    private static PossiblePath sharedPaths() {
+        PossiblePath d = new PossiblePath(true, "D");
+        PossiblePath c = new PossiblePath(false, "C");
+        c.addPossiblePath(d);
+        PossiblePath b = new PossiblePath(false, "B");
+        b.addPossiblePath(c);
+        b.addPossiblePath(d);
+        PossiblePath a = new PossiblePath(false, "A");
+        a.addPossiblePath(b);
+        a.addPossiblePath(c);
+        return a;
+    }
+
+    /**
+     * Test to check that paths serialize to the same bytes as when each path was serialized on its own,
+     * and that they deserialize to the same paths.
+     */
+    @org.junit.jupiter.api.Test
+    void serializeAndDeserialize() {
+        PossiblePath paths = sharedPaths();
+        byte[] bytes = paths.serialize();
+        // A, B, C, D, D, C, D: each city is 1 byte, with its length and number of paths.
+        Assertions.assertEquals(7 * (2 * Integer.BYTES + 1), bytes.length);
+
+        PossiblePath deserialized = PossiblePath.deserialize(bytes);
+        Assertions.assertEquals(paths.toStringPretty(""), deserialized.toStringPretty(""));
+        Assertions.assertArrayEquals(bytes, deserialized.serialize());
+
+        PossiblePath leaf = PossiblePath.deserialize(new PossiblePath(true, "Lisbon").serialize());
+        Assertions.assertTrue(leaf.isDestiny());
+        Assertions.assertEquals("Lisbon", leaf.getCity());
+    }
+}
@@ -0,0 +1,65 @@
+package connection;
+
+import org.junit.jupiter.api.Assertions;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+class FrameCodecTest {
+
+    /**
+     * Test to check that frames split across reads, or many in the same read, are decoded whole and in order.
+     */
+    @org.junit.jupiter.api.Test
+    void decodeSplitFrames() throws Exception {
+        ByteBuffer first = FrameCodec.encode(1, List.of("a".getBytes(StandardCharsets.UTF_8), new byte[3000]));
+        ByteBuffer second = FrameCodec.encode(2, List.of());
+        ByteBuffer bytes = ByteBuffer.allocate(first.remaining() + second.remaining()).put(first).put(second).flip();
+
+        FrameCodec codec = new FrameCodec();
+        Assertions.assertTrue(codec.decode(bytes.slice(0, 10)).isEmpty());
+        List<TaggedConnection.Frame> frames = codec.decode(bytes.slice(10, bytes.limit() - 10));
+
+        Assertions.assertEquals(2, frames.size());
+        Assertions.assertEquals(1, frames.get(0).tag());
+        Assertions.assertEquals("a", new String(frames.get(0).data().get(0), StandardCharsets.UTF_8));
+        Assertions.assertEquals(3000, frames.get(0).data().get(1).length);
+        Assertions.assertEquals(2, frames.get(1).tag());
+        Assertions.assertEquals(List.of(), frames.get(1).data());
+    }
+
+    /**
+     * Test to check that a frame without data is decoded with no elements, even with another frame right after it.
+     */
+    @org.junit.jupiter.api.Test
+    void decodeWithoutData() throws Exception {
+        ByteBuffer first = FrameCodec.encode(7, null);
+        ByteBuffer second = FrameCodec.encode(TaggedConnection.tag(8, 1), List.of());
+        ByteBuffer bytes = ByteBuffer.allocate(first.remaining() + second.remaining()).put(first).put(second).flip();
+
+        List<TaggedConnection.Frame> frames = new FrameCodec().decode(bytes);
+
+        Assertions.assertEquals(2, frames.size());
+        Assertions.assertEquals(7, frames.get(0).tag());
+        Assertions.assertEquals(List.of(), frames.get(0).data());
+        Assertions.assertEquals(TaggedConnection.tag(8, 1), frames.get(1).tag());
+        Assertions.assertEquals(List.of(), frames.get(1).data());
+    }
+
+    /**
+     * Test to check that a frame longer than the maximum is rejected from its length alone,
+     * and that a frame whose elements don't match its length is rejected.
+     */
+    @org.junit.jupiter.api.Test
+    void decodeInvalidFrames() {
+        FrameCodec codec = new FrameCodec(new BufferPool(64, 1, false), 100);
+        ByteBuffer oversized = ByteBuffer.allocate(8).putInt(101).putInt(1).flip();
+        Assertions.assertThrows(ProtocolException.class, () -> codec.decode(oversized));
+
+        ByteBuffer frame = FrameCodec.encode(1, List.of(new byte[10]));
+        frame.putInt(frame.limit() - 10 - Integer.BYTES, 11);
+        Assertions.assertThrows(ProtocolException.class, () -> new FrameCodec().decode(frame));
+    }
+}
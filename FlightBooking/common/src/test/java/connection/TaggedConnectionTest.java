@@ -0,0 +1,40 @@
+package connection;
+
+import org.junit.jupiter.api.Assertions;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+
+class TaggedConnectionTest {
+
+    /**
+     * Test to check that frames longer than the buffers of a connection are sent and received whole,
+     * and that the frames after them still use the buffers of the connection.
+     */
+    @org.junit.jupiter.api.Test
+    void framesLongerThanBuffers() throws Exception {
+        try (ServerSocket server = new ServerSocket(0);
+             TaggedConnection client = new TaggedConnection(new Socket("localhost", server.getLocalPort()));
+             TaggedConnection peer = new TaggedConnection(server.accept())) {
+            byte[] large = new byte[64 * TaggedConnection.BUFFER_SIZE];
+            large[large.length - 1] = 7;
+            byte[] small = {1, 2, 3};
+
+            client.send(1, List.of(large));
+            client.send(2, List.of(small));
+            client.send(3, List.of(large, small));
+
+            TaggedConnection.Frame frame = peer.receive();
+            Assertions.assertEquals(1, frame.tag());
+            Assertions.assertArrayEquals(large, frame.data().get(0));
+            frame = peer.receive();
+            Assertions.assertEquals(2, frame.tag());
+            Assertions.assertArrayEquals(small, frame.data().get(0));
+            frame = peer.receive();
+            Assertions.assertEquals(3, frame.tag());
+            Assertions.assertArrayEquals(large, frame.data().get(0));
+            Assertions.assertArrayEquals(small, frame.data().get(1));
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package server;
 
+import airport.Booking;
+import airport.BookingResult;
+import airport.CompactEncoding;
+import airport.Itinerary;
 import airport.Reservation;
 import airport.Route;
+import connection.FrameCodec;
 import connection.TaggedConnection;
 import exceptions.*;
 import org.apache.logging.log4j.LogManager;
@@ -13,6 +18,7 @@ import users.Notification;
 import users.User;
 
 import java.io.IOException;
+import java.net.ProtocolException;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
@@ -28,12 +34,63 @@ public class ClientHandler implements Runnable {
 
     private final IAirportSystem airportSystem;
     private final TaggedConnection taggedConnection;
-    private User account;
+    private final FrameSender sender;
+    private volatile User account;
+
+    /**
+     * Maximum length of a request, and of a reply, in bytes.
+     * A longer reply is replaced by an error, so clients with the same maximum can always read it.
+     */
+    private final int maxFrameSize;
+
+    /**
+     * Encoding of the reservations and routes sent, as negotiated by the client with {@code SET_ENCODING}.
+     * Clients that never negotiate one get the legacy encoding.
+     */
+    private volatile byte encoding = CompactEncoding.LEGACY;
 
     public ClientHandler(Socket socket, IAirportSystem airportSystem) throws IOException {
-        this.taggedConnection = new TaggedConnection(socket);
+        this(socket, airportSystem, FrameCodec.DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @param socket        the socket of the connection.
+     * @param airportSystem the system.
+     * @param maxFrameSize  the maximum length of a request, in bytes. A longer one closes the connection.
+     *                      A longer reply is answered with an error instead.
+     * @throws IOException if the streams of the socket couldn't be opened.
+     */
+    public ClientHandler(Socket socket, IAirportSystem airportSystem, int maxFrameSize) throws IOException {
+        this.taggedConnection = new TaggedConnection(socket, maxFrameSize);
+        this.sender = taggedConnection::send;
         this.account = null;
         this.airportSystem = airportSystem;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Constructor for a connection whose frames are read by someone else, that calls {@link #handle} for each one.
+     *
+     * @param sender        where the replies are sent to.
+     * @param airportSystem the system.
+     */
+    public ClientHandler(FrameSender sender, IAirportSystem airportSystem) {
+        this(sender, airportSystem, FrameCodec.DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Constructor for a connection whose frames are read by someone else, that calls {@link #handle} for each one.
+     *
+     * @param sender        where the replies are sent to.
+     * @param airportSystem the system.
+     * @param maxFrameSize  the maximum length of a reply, in bytes. A longer one is answered with an error instead.
+     */
+    public ClientHandler(FrameSender sender, IAirportSystem airportSystem, int maxFrameSize) {
+        this.taggedConnection = null;
+        this.sender = sender;
+        this.account = null;
+        this.airportSystem = airportSystem;
+        this.maxFrameSize = maxFrameSize;
     }
 
     @Override
@@ -44,47 +101,16 @@ public class ClientHandler implements Runnable {
 
             boolean quit = false;
             while (!quit) {
-                TaggedConnection.Frame frame = taggedConnection.receive();
-                logger.debug("Request data: " + frame.tag() + " " + frame.data());
-
-                List<byte[]> data = frame.data();
-                try {
-                    switch (RequestType.getRequestType(frame.tag())) {
-                        case REGISTER -> register(data);
-                        case LOGIN -> login(data);
-                        case EXIT -> quit = true;
-
-                        case CANCEL_DAY -> cancelDay(data);
-                        case INSERT_ROUTE -> insertRoute(data);
-
-                        case GET_ROUTES -> getRoutes();
-                        case GET_RESERVATIONS -> getReservations();
-                        case GET_PATHS_BETWEEN -> getPathsBetween(data);
-                        case RESERVE -> reserve(data);
-                        case CANCEL_RESERVATION -> cancelReservation(data);
-                        case LOGOUT -> logout();
-                        case CHANGE_PASSWORD -> changePassword(data);
-
-                        case GET_NOTIFICATION -> getNotification();
-                    }
-
-                    logger.info("Request with type " + RequestType.getRequestType(frame.tag()) + " has been successfully handled!");
-
-                } catch (Exception e) {
-                    if (e instanceof IOException) throw new Exception(e);
-                    // TODO: Falta adicionar aqui o resto das exceptions
-
-                    List<byte[]> list = new ArrayList<>();
-                    list.add("ERROR".getBytes(StandardCharsets.UTF_8));
-                    if (e.getMessage() != null) list.add(e.getMessage().getBytes(StandardCharsets.UTF_8));
-
-                    logger.info("Request with type " + RequestType.getRequestType(frame.tag()) + " has result in a error: " + e.getMessage());
-
-                    taggedConnection.send(frame.tag(), list);
-                }
+                quit = !handle(taggedConnection.receive());
             }
             taggedConnection.close();
             logger.info("Connection between client closed!");
+        } catch (ProtocolException e) {
+            logger.warn("Closing the connection after an invalid frame: {}", e.getMessage());
+            try {
+                taggedConnection.close();
+            } catch (IOException ignored) {
+            }
         } catch (IOException e) {
             logger.info("Something went wrong with the connection!");
             // e.printStackTrace();
@@ -94,28 +120,117 @@ public class ClientHandler implements Runnable {
 
     }
 
-    private void changePassword(List<byte[]> data) throws IOException {
-        account.changePassword(new String(data.get(0)));
-        sendOk(CHANGE_PASSWORD.ordinal(), new ArrayList<>());
+    /**
+     * Checks if a request can be handled while other requests of the same connection are being handled.
+     * That is the case of the requests with a correlation id that don't change who is logged in.
+     *
+     * @param frame the request.
+     * @return true if the request can be handled concurrently.
+     */
+    public static boolean isIndependent(TaggedConnection.Frame frame) {
+        if (frame.correlationId() == 0 || frame.type() >= RequestType.values().length)
+            return false;
+        return switch (RequestType.getRequestType(frame.type())) {
+            case REGISTER, LOGIN, LOGOUT, EXIT, CHANGE_PASSWORD, SET_ENCODING -> false;
+            default -> true;
+        };
+    }
+
+    /**
+     * Handles one request and sends its reply, with the tag of the request.
+     * Independent requests, as told by {@link #isIndependent}, may be handled by several threads at once.
+     *
+     * @param frame the request.
+     * @return false if the client asked to close the connection.
+     * @throws IOException if the reply couldn't be sent.
+     */
+    public boolean handle(TaggedConnection.Frame frame) throws IOException {
+        logger.debug("Request data: {} {}", frame.tag(), frame.data());
+
+        List<byte[]> data = frame.data();
+        int tag = frame.tag();
+        try {
+            switch (RequestType.getRequestType(frame.type())) {
+                case REGISTER -> register(tag, data);
+                case LOGIN -> login(tag, data);
+                case EXIT -> {
+                    return false;
+                }
+
+                case CANCEL_DAY -> cancelDay(tag, data);
+                case INSERT_ROUTE -> insertRoute(tag, data);
+
+                case GET_ROUTES -> getRoutes(tag);
+                case GET_RESERVATIONS -> getReservations(tag);
+                case GET_PATHS_BETWEEN -> getPathsBetween(tag, data);
+                case RESERVE -> reserve(tag, data);
+                case CANCEL_RESERVATION -> cancelReservation(tag, data);
+                case LOGOUT -> logout(tag);
+                case CHANGE_PASSWORD -> changePassword(tag, data);
+
+                case GET_NOTIFICATION -> getNotification(tag);
+                case GET_ROUTES_VERSION -> getRoutesVersion(tag);
+                case GET_BEST_PATHS -> getBestPaths(tag, data);
+                case GET_AVAILABLE_ITINERARIES -> getAvailableItineraries(tag, data);
+                case RESERVE_BATCH -> reserveBatch(tag, data);
+                case SET_ENCODING -> setEncoding(tag, data);
+            }
+
+            logger.info("Request with type {} has been successfully handled!", RequestType.getRequestType(frame.type()));
+
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            // TODO: Falta adicionar aqui o resto das exceptions
+
+            logger.info("Request with type {} has result in a error: {}", RequestType.getRequestType(frame.type()), e.getMessage());
+
+            sendError(frame.tag(), e.getMessage());
+        }
+        return true;
+    }
+
+    private void changePassword(int tag, List<byte[]> data) throws IOException, UserNotFoundException, UserNotLoggedInException {
+        if (!isLoggedIn()) throw new UserNotLoggedInException();
+        airportSystem.changePassword(account.getUsername(), new String(data.get(0)));
+        sendOk(tag, new ArrayList<>());
     }
 
-    private void getReservations() throws IOException, UserNotFoundException, UserNotLoggedInException {
+    private void getReservations(int tag) throws IOException, UserNotFoundException, UserNotLoggedInException {
         if (!isLoggedIn()) throw new UserNotLoggedInException();
         Set<Reservation> reservations = airportSystem.getReservationsFromClient(account.getUsername());
 
-        sendOk(GET_RESERVATIONS.ordinal(), reservations.stream().map(Reservation::serialize).collect(Collectors.toList()));
+        sendOk(tag, encodeReservations(reservations));
     }
 
-    private void cancelReservation(List<byte[]> data) throws ReservationNotFoundException,
+    private List<byte[]> encodeReservations(Collection<Reservation> reservations) {
+        if (encoding == CompactEncoding.LEGACY)
+            return reservations.stream().map(Reservation::serialize).collect(Collectors.toList());
+        List<byte[]> list = new ArrayList<>(1);
+        list.add(CompactEncoding.encodeReservations(reservations));
+        return list;
+    }
+
+    /**
+     * Sets the encoding of the replies of this connection to the version asked by the client,
+     * or the latest one supported if it is older, and replies with the version set.
+     */
+    private void setEncoding(int tag, List<byte[]> data) throws IOException {
+        byte requested = data.isEmpty() || data.get(0).length == 0 ? CompactEncoding.LEGACY : data.get(0)[0];
+        encoding = (byte) Math.max(CompactEncoding.LEGACY, Math.min(requested, CompactEncoding.LATEST));
+        List<byte[]> list = new ArrayList<>(1);
+        list.add(new byte[]{encoding});
+        sendOk(tag, list);
+    }
+
+    private void cancelReservation(int tag, List<byte[]> data) throws ReservationNotFoundException,
             ReservationDoesNotBelongToTheClientException, UserNotFoundException, IOException, UserNotLoggedInException {
         if (!isLoggedIn()) throw new UserNotLoggedInException();
         Reservation reservation = airportSystem.cancelReservation(account.getUsername(), UUID.fromString(new String(data.get(0))));
-        List<byte[]> list = new ArrayList<>();
-        list.add(reservation.serialize());
-        sendOk(CANCEL_RESERVATION.ordinal(), list);
+        sendOk(tag, encodeReservations(List.of(reservation)));
     }
 
-    private void reserve(List<byte[]> data) throws UserNotFoundException, RouteDoesntExistException, BookingFlightsNotPossibleException, IOException, UserNotLoggedInException, InvalidDateException {
+    private void reserve(int tag, List<byte[]> data) throws UserNotFoundException, RouteDoesntExistException, BookingFlightsNotPossibleException, IOException, UserNotLoggedInException, InvalidDateException {
         if (!isLoggedIn()) throw new UserNotLoggedInException();
         List<String> cities = new ArrayList<>();
 
@@ -130,63 +245,154 @@ public class ClientHandler implements Runnable {
         List<byte[]> list = new ArrayList<>();
         list.add(id.toString().getBytes(StandardCharsets.UTF_8));
 
-        sendOk(RESERVE.ordinal(), list);
+        sendOk(tag, list);
     }
 
-    private void getRoutes() throws IOException {
-        sendOk(GET_ROUTES.ordinal(), airportSystem.getRoutes().stream().map(Route::serialize).collect(Collectors.toList()));
+    /**
+     * Reserves many bookings at once. The first element has the flags, with the first bit set for all-or-nothing,
+     * and each other element is a booking. The reply has the result of each booking, in the same order.
+     */
+    private void reserveBatch(int tag, List<byte[]> data) throws UserNotFoundException, IOException, UserNotLoggedInException {
+        if (!isLoggedIn()) throw new UserNotLoggedInException();
+        boolean allOrNothing = (data.get(0)[0] & 1) != 0;
+        List<Booking> bookings = new ArrayList<>(data.size() - 1);
+        for (int i = 1; i < data.size(); i++)
+            bookings.add(Booking.deserialize(data.get(i)));
+
+        List<BookingResult> results = airportSystem.reserveFlights(account.getUsername(), bookings, allOrNothing);
+        sendOk(tag, results.stream().map(BookingResult::serialize).collect(Collectors.toList()));
+    }
+
+    private void getRoutes(int tag) throws IOException {
+        List<Route> routes = airportSystem.getRoutes();
+        if (encoding == CompactEncoding.LEGACY) {
+            sendOk(tag, routes.stream().map(Route::serialize).collect(Collectors.toList()));
+        } else {
+            List<byte[]> list = new ArrayList<>(1);
+            list.add(CompactEncoding.encodeRoutes(routes));
+            sendOk(tag, list);
+        }
+    }
+
+    private void getRoutesVersion(int tag) throws IOException {
+        List<byte[]> list = new ArrayList<>(1);
+        list.add(ByteBuffer.allocate(Long.BYTES).putLong(airportSystem.getRoutesVersion()).array());
+        sendOk(tag, list);
     }
 
-    private void getNotification() throws IOException, UserNotFoundException {
+    private void getNotification(int tag) throws IOException, UserNotFoundException {
         var all = airportSystem.getNotificationsByUsername(account.getUsername());
-        sendOk(GET_NOTIFICATION.ordinal(), all.stream().map(Notification::serialize).collect(Collectors.toList()));
+        sendOk(tag, all.stream().map(Notification::serialize).collect(Collectors.toList()));
     }
 
-    private void getPathsBetween(List<byte[]> data) throws RouteDoesntExistException, IOException {
+    private void getPathsBetween(int tag, List<byte[]> data) throws RouteDoesntExistException, IOException {
         String origin = new String(data.get(0));
         String destination = new String(data.get(1));
-        sendOk(GET_PATHS_BETWEEN.ordinal(),
-                Collections.singletonList(airportSystem.getPathsBetween(origin, destination).serialize()));
+        sendOk(tag,
+                Collections.singletonList(airportSystem.getSerializedPathsBetween(origin, destination, IAirportSystem.DEFAULT_MAX_HOPS)));
     }
 
-    private void insertRoute(List<byte[]> data) throws RouteDoesntExistException, RouteAlreadyExistsException, IOException, ForbiddenException {
+    private void getBestPaths(int tag, List<byte[]> data) throws RouteDoesntExistException, IOException,
+            InvalidDateException {
+        String origin = new String(data.get(0));
+        String destination = new String(data.get(1));
+        int maxHops = readMaxHops(data.get(2));
+        int k = readLimit(data.get(3), IAirportSystem.MAX_ITINERARIES);
+        LocalDate start = data.size() > 5 ? LocalDate.parse(new String(data.get(4))) : null;
+        LocalDate end = data.size() > 5 ? LocalDate.parse(new String(data.get(5))) : null;
+
+        var itineraries = airportSystem.getBestPaths(origin, destination, maxHops, k, start, end);
+        sendOk(tag, itineraries.stream().map(Itinerary::serialize).collect(Collectors.toList()));
+    }
+
+    /**
+     * Reads the maximum number of routes of a search, bounded by {@link IAirportSystem#MAX_HOPS}.
+     *
+     * @throws IllegalArgumentException if it is negative, what is replied with an error.
+     */
+    private static int readMaxHops(byte[] field) {
+        int maxHops = ByteBuffer.wrap(field).getInt();
+        if (maxHops < 0)
+            throw new IllegalArgumentException("Invalid maximum number of routes: " + maxHops);
+        return Math.min(maxHops, IAirportSystem.MAX_HOPS);
+    }
+
+    /**
+     * Reads the maximum number of results of a search, bounded by the given maximum.
+     *
+     * @throws IllegalArgumentException if it isn't positive, what is replied with an error.
+     */
+    private static int readLimit(byte[] field, int max) {
+        int limit = ByteBuffer.wrap(field).getInt();
+        if (limit < 1)
+            throw new IllegalArgumentException("Invalid number of results: " + limit);
+        return Math.min(limit, max);
+    }
+
+    private void getAvailableItineraries(int tag, List<byte[]> data) throws RouteDoesntExistException, IOException,
+            InvalidDateException {
+        String origin = new String(data.get(0));
+        String destination = new String(data.get(1));
+        int maxHops = readMaxHops(data.get(2));
+        LocalDate start = LocalDate.parse(new String(data.get(3)));
+        LocalDate end = LocalDate.parse(new String(data.get(4)));
+
+        var itineraries = airportSystem.getAvailableItineraries(origin, destination, maxHops, start, end);
+        sendOk(tag, itineraries.stream().map(Itinerary::serialize).collect(Collectors.toList()));
+    }
+
+    private void insertRoute(int tag, List<byte[]> data) throws RouteDoesntExistException, RouteAlreadyExistsException, IOException, ForbiddenException {
         if (!isLoggedIn() || !(account instanceof Admin)) throw new ForbiddenException(account);
 
         airportSystem.addRoute(new String(data.get(0)), new String(data.get(1)), ByteBuffer.wrap(data.get(2)).getInt());
-        sendOk(INSERT_ROUTE.ordinal(), new ArrayList<>());
+        sendOk(tag, new ArrayList<>());
     }
 
-    private void cancelDay(List<byte[]> data) throws DayAlreadyCanceledException, IOException, ForbiddenException {
+    private void cancelDay(int tag, List<byte[]> data) throws DayAlreadyCanceledException, IOException, ForbiddenException {
         if (!isLoggedIn() || !(account instanceof Admin)) throw new ForbiddenException(account);
 
         var reservations = airportSystem.cancelDay(LocalDate.parse(new String(data.get(0))));
 
-        sendOk(CANCEL_DAY.ordinal(), reservations.stream().map(Reservation::serialize).collect(Collectors.toList()));
+        sendOk(tag, encodeReservations(reservations));
     }
 
-    private void register(List<byte[]> data) throws UsernameAlreadyExistsException, IOException, AlreadyLoggedInException {
+    private void register(int tag, List<byte[]> data) throws UsernameAlreadyExistsException, IOException, AlreadyLoggedInException {
         if (isLoggedIn()) throw new AlreadyLoggedInException(account);
         airportSystem.registerClient(new String(data.get(0)), new String(data.get(1)));
-        sendOk(REGISTER.ordinal(), new ArrayList<>());
+        sendOk(tag, new ArrayList<>());
     }
 
     public boolean isLoggedIn() {
         return account != null;
     }
 
-    private void login(List<byte[]> data) throws UserNotFoundException, InvalidCredentialsException, AlreadyLoggedInException, IOException {
+    private void login(int tag, List<byte[]> data) throws UserNotFoundException, InvalidCredentialsException, AlreadyLoggedInException, IOException {
         if (isLoggedIn()) throw new AlreadyLoggedInException(account);
         this.account = airportSystem.authenticate(new String(data.get(0)), new String(data.get(1)));
-        sendOk(LOGIN.ordinal(), new ArrayList<>());
+        sendOk(tag, new ArrayList<>());
     }
 
-    private void logout() throws IOException {
+    private void logout(int tag) throws IOException {
         account = null;
-        sendOk(LOGOUT.ordinal(), new ArrayList<>());
+        sendOk(tag, new ArrayList<>());
     }
 
-    private void sendOk(int type, List<byte[]> args) throws IOException {
+    private void sendOk(int tag, List<byte[]> args) throws IOException {
         if (args.size() == 0) args.add("Ok".getBytes(StandardCharsets.UTF_8));
-        taggedConnection.send(type, args);
+        int length = FrameCodec.encodedSize(args) - Integer.BYTES;
+        if (length > maxFrameSize) {
+            // Sent as is, the client would have to close the connection.
+            logger.warn("Replying with an error instead of a reply of {} bytes", length);
+            sendError(tag, "Reply of " + length + " bytes is larger than the maximum of " + maxFrameSize);
+            return;
+        }
+        sender.send(tag, args);
+    }
+
+    private void sendError(int tag, String message) throws IOException {
+        List<byte[]> list = new ArrayList<>(2);
+        list.add("ERROR".getBytes(StandardCharsets.UTF_8));
+        if (message != null) list.add(message.getBytes(StandardCharsets.UTF_8));
+        sender.send(tag, list);
     }
 }
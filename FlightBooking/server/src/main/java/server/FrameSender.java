@@ -0,0 +1,20 @@
+package server;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where the replies to a client are sent to.
+ */
+@FunctionalInterface
+public interface FrameSender {
+
+    /**
+     * Sends a frame to the client.
+     *
+     * @param tag  the tag of the frame.
+     * @param data the data of the frame.
+     * @throws IOException if the frame couldn't be sent.
+     */
+    void send(int tag, List<byte[]> data) throws IOException;
+}
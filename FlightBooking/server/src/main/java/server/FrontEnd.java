@@ -0,0 +1,15 @@
+package server;
+
+import java.io.Closeable;
+
+/**
+ * Accepts client connections and hands their requests to a {@link ClientHandler}.
+ * {@link #run()} serves until the front end is closed.
+ */
+public interface FrontEnd extends Runnable, Closeable {
+
+    /**
+     * @return the port the front end is listening on.
+     */
+    int getPort();
+}
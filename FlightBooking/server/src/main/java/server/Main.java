@@ -5,26 +5,46 @@ import exceptions.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import system.AirportSystem;
+import system.HistoryArchive;
 import system.IAirportSystem;
+import system.ReservationEngine;
+import system.RetentionStats;
+import system.Snapshot;
+import system.WriteAheadLog;
 import users.User;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
     public static final int PORT = 12345;
     private static final Logger logger = LogManager.getLogger(Main.class);
     private static final int NTHREADS = 50;
-    @SuppressWarnings({"CanBeFinal", "FieldMayBeFinal", "FieldCanBeLocal"})
-    private static boolean running = true;
 
-    private static IAirportSystem initState() throws UsernameAlreadyExistsException, RouteDoesntExistException, RouteAlreadyExistsException, BookingFlightsNotPossibleException, UserNotFoundException, InvalidDateException {
-        IAirportSystem iAirportSystem = new AirportSystem();
+    /**
+     * Default time the changes are gathered before the log is synced, in microseconds.
+     */
+    private static final long GROUP_COMMIT_WINDOW_US = 1000;
 
+    /**
+     * Default time between snapshots, in seconds.
+     */
+    private static final long SNAPSHOT_INTERVAL_S = 300;
+
+    /**
+     * Default time between runs of the retention, in seconds.
+     */
+    private static final long RETENTION_INTERVAL_S = 3600;
+
+    private static void initState(IAirportSystem iAirportSystem) throws UsernameAlreadyExistsException, RouteDoesntExistException, RouteAlreadyExistsException, BookingFlightsNotPossibleException, UserNotFoundException, InvalidDateException {
         iAirportSystem.registerAdmin("admin", "admin");
         User user = iAirportSystem.registerClient("1", "1");
         User user2 = iAirportSystem.registerClient("2", "2");
@@ -45,19 +65,110 @@ public class Main {
             iAirportSystem.cancelDay(LocalDate.now());
         } catch (DayAlreadyCanceledException ignored) {
         }
-        return iAirportSystem;
     }
 
+    /**
+     * Takes a snapshot and, once it is saved, truncates the log before it.
+     */
+    private static void snapshot(AirportSystem airportSystem, WriteAheadLog log, Path path) {
+        try {
+            log.truncateBefore(airportSystem.snapshot(path));
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("Couldn't take a snapshot: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Starts the server. The options are the mode, {@code --nio} (default), {@code --blocking} or {@code --virtual},
+     * and {@code --log <file>}, to keep the state in a write-ahead log, with {@code --group-commit-us <window>}.
+     * With a log, {@code --snapshot <file>} takes a snapshot every {@code --snapshot-interval-s <interval>},
+     * and the server starts from the last snapshot and the changes logged after it; the log is truncated
+     * before each snapshot saved.
+     * {@code --history <file>} archives there, every {@code --retention-interval-s <interval>}, the days departed
+     * more than {@code --retention-days <days>} ago, evicting them from memory. With a snapshot, one is taken
+     * after each run that archived days, so their reservations are also dropped from the log.
+     * Without a log, or with an empty one, the server starts with demo data.
+     */
     public static void main(String[] args) throws IOException, UsernameAlreadyExistsException, RouteDoesntExistException, RouteAlreadyExistsException, BookingFlightsNotPossibleException, UserNotFoundException, InvalidDateException {
-        IAirportSystem iAirportSystem = initState();
+        String mode = "--nio";
+        Path logPath = null;
+        Path snapshotPath = null;
+        Path historyPath = null;
+        int retentionDays = 0;
+        long retentionIntervalS = RETENTION_INTERVAL_S;
+        long groupCommitWindowUs = GROUP_COMMIT_WINDOW_US;
+        long snapshotIntervalS = SNAPSHOT_INTERVAL_S;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--log" -> logPath = Path.of(args[++i]);
+                case "--group-commit-us" -> groupCommitWindowUs = Long.parseLong(args[++i]);
+                case "--snapshot" -> snapshotPath = Path.of(args[++i]);
+                case "--snapshot-interval-s" -> snapshotIntervalS = Long.parseLong(args[++i]);
+                case "--history" -> historyPath = Path.of(args[++i]);
+                case "--retention-days" -> retentionDays = Integer.parseInt(args[++i]);
+                case "--retention-interval-s" -> retentionIntervalS = Long.parseLong(args[++i]);
+                default -> mode = args[i];
+            }
+        }
+
+        long start = System.nanoTime();
+        Snapshot snapshot = logPath == null || snapshotPath == null ? null : Snapshot.read(snapshotPath);
+        WriteAheadLog log = logPath == null ? null : WriteAheadLog.open(logPath, groupCommitWindowUs * 1000,
+                snapshot == null ? 0 : snapshot.getLogPosition());
+        AirportSystem airportSystem = new AirportSystem(ReservationEngine.PESSIMISTIC, AirportSystem.PATH_CACHE_CAPACITY,
+                snapshot, log);
+        IAirportSystem iAirportSystem = airportSystem;
+        logger.info("State recovered in {} ms", (System.nanoTime() - start) / 1_000_000);
+        if (snapshot == null && (log == null || log.getRecovered().isEmpty()))
+            initState(iAirportSystem);
 
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            logger.info("ServerSocket starting...");
-            var pool = new ThreadPool(NTHREADS, NTHREADS * 2);
+        // Snapshots and the retention run in the background, one at a time.
+        ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor();
+        if (log != null && snapshotPath != null) {
+            Path path = snapshotPath;
+            maintenance.scheduleWithFixedDelay(() -> snapshot(airportSystem, log, path),
+                    snapshotIntervalS, snapshotIntervalS, TimeUnit.SECONDS);
+        }
+        HistoryArchive history = historyPath == null ? null : HistoryArchive.open(historyPath);
+        if (history != null) {
+            if (log != null && snapshotPath == null)
+                logger.warn("Without a snapshot, the reservations archived are kept in the log");
+            int keptDays = retentionDays;
+            Path path = log == null ? null : snapshotPath;
+            maintenance.scheduleWithFixedDelay(() -> {
+                try {
+                    RetentionStats run = airportSystem.archiveBefore(LocalDate.now().minusDays(keptDays), history);
+                    RetentionStats total = airportSystem.getRetentionStats();
+                    logger.info("Archived {} days, {} flights and {} reservations, reclaiming an estimated {} MB "
+                                    + "({} MB so far, {} MB of history)", run.days(), run.flights(),
+                            run.reservations(), run.estimatedHeapBytes() >> 20, total.estimatedHeapBytes() >> 20,
+                            total.historyBytes() >> 20);
+                    if (run.days() > 0 && path != null)
+                        snapshot(airportSystem, log, path);
+                } catch (IOException | UncheckedIOException e) {
+                    logger.error("Couldn't archive the departed days: {}", e.getMessage());
+                }
+            }, 0, retentionIntervalS, TimeUnit.SECONDS);
+        }
 
-            while (running) pool.execute(new ClientHandler(serverSocket.accept(), iAirportSystem));
+        try (FrontEnd server = switch (mode) {
+            // One thread of a fixed pool per connection, as before the selector front end.
+            case "--blocking" -> new ThreadPerConnectionServer(PORT, iAirportSystem, new ThreadPool(NTHREADS, NTHREADS * 2)::execute);
+            case "--virtual" -> ThreadPerConnectionServer.withVirtualThreads(PORT, iAirportSystem);
+            default -> new NioServer(PORT, iAirportSystem, NTHREADS);
+        }) {
+            logger.info("Server mode: " + mode);
+            server.run();
+        } finally {
+            maintenance.shutdown();
+            try {
+                maintenance.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (history != null) history.close();
+            if (log != null) log.close();
         }
-        logger.info("ServerSocket closing...");
     }
 
 }
@@ -0,0 +1,453 @@
+package server;
+
+import connection.BufferPool;
+import connection.FrameCodec;
+import connection.TaggedConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import system.IAirportSystem;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server front end that holds every connection on a single selector thread.
+ * <p>
+ * The selector thread only reads and writes bytes. The frames decoded are handled by a pool of workers,
+ * so an idle connection doesn't hold a thread. The requests of a connection are handled in the order they
+ * were received, like on a {@link ClientHandler} thread, except the ones with a correlation id that
+ * {@link ClientHandler#isIndependent} allows to run concurrently, whose replies may be sent out of order.
+ * A connection has at most as many of them in flight as there are workers, so it can't take every worker.
+ * <p>
+ * A connection stops being read while it has {@link #MAX_QUEUED_FRAMES} requests not handled and replies
+ * not written, so a client that sends requests without reading the replies can't fill the server's memory.
+ */
+public class NioServer implements FrontEnd {
+    private static final Logger logger = LogManager.getLogger(NioServer.class);
+
+    private static final int BUFFER_SIZE = 4096;
+    private static final int MAX_POOLED_BUFFERS = 4096;
+
+    /**
+     * Maximum number of replies of a connection written at once.
+     */
+    private static final int MAX_GATHERED = 16;
+
+    /**
+     * Maximum number of requests not handled and replies not written of a connection, before it stops being read.
+     * It can be passed by the frames of the last read, at most a read buffer of them.
+     */
+    static final int MAX_QUEUED_FRAMES = 64;
+
+    private final IAirportSystem airportSystem;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService workers;
+
+    /**
+     * Maximum number of independent requests of a connection being handled at once.
+     */
+    private final int maxInFlight;
+    private final ByteBuffer readBuffer;
+    private final int maxFrameSize;
+
+    /**
+     * Buffers of the replies and of the requests not whole yet, shared by every connection.
+     */
+    private final BufferPool buffers;
+
+    /**
+     * Frames decoded by the last read, reused by the selector thread.
+     */
+    private final List<TaggedConnection.Frame> decoded;
+
+    /**
+     * Connections with frames to write or to be closed, for the selector thread to pick up.
+     */
+    private final Queue<Connection> pendingUpdates;
+
+    private volatile boolean running;
+
+    /**
+     * Constructor.
+     *
+     * @param port          the port to listen on, or 0 for any free port.
+     * @param airportSystem the system.
+     * @param nWorkers      the number of threads that handle requests.
+     * @throws IOException if the port couldn't be opened.
+     */
+    public NioServer(int port, IAirportSystem airportSystem, int nWorkers) throws IOException {
+        this(port, airportSystem, nWorkers, FrameCodec.DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param port          the port to listen on, or 0 for any free port.
+     * @param airportSystem the system.
+     * @param nWorkers      the number of threads that handle requests.
+     * @param maxFrameSize  the maximum length of a request, in bytes. A longer one closes the connection.
+     *                      A longer reply is answered with an error instead.
+     * @throws IOException if the port couldn't be opened.
+     */
+    public NioServer(int port, IAirportSystem airportSystem, int nWorkers, int maxFrameSize) throws IOException {
+        this.maxFrameSize = maxFrameSize;
+        this.airportSystem = airportSystem;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port), 1024);
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.workers = Executors.newFixedThreadPool(nWorkers);
+        this.maxInFlight = nWorkers;
+        this.readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        this.buffers = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS, true);
+        this.decoded = new ArrayList<>();
+        this.pendingUpdates = new ConcurrentLinkedQueue<>();
+        this.running = true;
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void run() {
+        logger.info("Selector starting on port " + getPort() + "...");
+        try {
+            while (running) {
+                selector.select();
+                applyPendingUpdates();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) accept();
+                        else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable()) connection.read();
+                            if (key.isValid() && key.isWritable()) connection.write();
+                        }
+                    } catch (IOException e) {
+                        logger.info("Something went wrong with the connection!");
+                        if (key.attachment() instanceof Connection connection)
+                            connection.close();
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) logger.error("Selector failed: " + e.getMessage());
+        } finally {
+            // Only this thread goes through the keys, so they are closed here once it stops.
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection connection)
+                    connection.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+        logger.info("Selector closing...");
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            logger.info("Starting a new connection with client [Address: " + channel.getRemoteAddress() + " ]");
+        }
+    }
+
+    private void applyPendingUpdates() {
+        Connection connection;
+        while ((connection = pendingUpdates.poll()) != null) {
+            if (!connection.key.isValid()) continue;
+            connection.resumeReading();
+            if (connection.hasPendingWrites())
+                connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+            else if (connection.closing)
+                connection.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        workers.shutdown();
+        serverChannel.close();
+        selector.wakeup();
+    }
+
+    /**
+     * State of one client connection.
+     */
+    private class Connection implements FrameSender {
+        private final SocketChannel channel;
+        private final FrameCodec codec;
+        private final ClientHandler handler;
+        private SelectionKey key;
+
+        /**
+         * Frames received and not handled yet.
+         */
+        private final Queue<TaggedConnection.Frame> inbox;
+
+        /**
+         * Frames encoded by the workers and not taken by the selector thread yet.
+         */
+        private final Queue<ByteBuffer> outbox;
+
+        /**
+         * Frames taken from the outbox and being written, from first to end, owned by the selector thread.
+         */
+        private final ByteBuffer[] writing;
+        private int first;
+        private int end;
+
+        /**
+         * Number of frames in the inbox plus the replies not written yet.
+         */
+        private final AtomicInteger queued;
+
+        /**
+         * Set by the selector thread when it stops reading the connection because too many frames are queued.
+         */
+        private volatile boolean paused;
+
+        /**
+         * True while a worker is taking the frames of this connection from the inbox.
+         */
+        private final AtomicBoolean scheduled;
+
+        /**
+         * Number of independent requests of this connection being handled.
+         */
+        private final AtomicInteger inFlight;
+
+        /**
+         * Set once the client asks to leave. The connection is closed after the replies are written.
+         */
+        private volatile boolean closing;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.codec = new FrameCodec(buffers, maxFrameSize);
+            this.handler = new ClientHandler(this, airportSystem, maxFrameSize);
+            this.inbox = new ConcurrentLinkedQueue<>();
+            this.outbox = new ConcurrentLinkedQueue<>();
+            this.writing = new ByteBuffer[MAX_GATHERED];
+            this.queued = new AtomicInteger(0);
+            this.scheduled = new AtomicBoolean(false);
+            this.inFlight = new AtomicInteger(0);
+        }
+
+        /**
+         * Called by the selector thread when there are bytes to read.
+         */
+        void read() throws IOException {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                close();
+                logger.info("Connection between client closed!");
+                return;
+            }
+            readBuffer.flip();
+            decoded.clear();
+            try {
+                codec.decode(readBuffer, decoded);
+            } catch (ProtocolException e) {
+                // The frames after an invalid one can't be found, so the connection can't go on.
+                logger.warn("Closing the connection after an invalid frame: {}", e.getMessage());
+                close();
+                return;
+            }
+            if (decoded.isEmpty() || closing) return;
+
+            for (int i = 0; i < decoded.size(); i++)
+                inbox.add(decoded.get(i));
+            if (queued.addAndGet(decoded.size()) >= MAX_QUEUED_FRAMES) {
+                paused = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                // Frames may have left before the flag was set, without telling this thread.
+                resumeReading();
+            }
+            schedule();
+        }
+
+        /**
+         * Called by the selector thread to read the connection again, if it was stopped and enough frames left.
+         */
+        void resumeReading() {
+            if (paused && queued.get() < MAX_QUEUED_FRAMES) {
+                paused = false;
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Called when a request leaves the inbox or a reply is written.
+         * If the connection isn't being read, the selector thread is told to check it again.
+         */
+        private void dequeued() {
+            if (queued.decrementAndGet() < MAX_QUEUED_FRAMES && paused) {
+                pendingUpdates.add(this);
+                selector.wakeup();
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    workers.execute(this::handleFrames);
+                } catch (RejectedExecutionException e) {
+                    // The server is closing.
+                    closing = true;
+                }
+            }
+        }
+
+        /**
+         * Runs on a worker, taking the frames received until there are none left.
+         * Independent requests are handed to other workers and may finish in any order, up to
+         * {@link #maxInFlight} at once; the ones past it wait in the inbox until one of those finishes.
+         * Any other request waits, still in the inbox, until those in flight are done, and is then handled here,
+         * before the requests after it.
+         */
+        private void handleFrames() {
+            try {
+                TaggedConnection.Frame frame;
+                while (!closing && (frame = inbox.peek()) != null) {
+                    if (ClientHandler.isIndependent(frame)) {
+                        // The next request in flight to finish schedules this again.
+                        if (inFlight.get() >= maxInFlight) break;
+                        inbox.poll();
+                        dequeued();
+                        inFlight.incrementAndGet();
+                        TaggedConnection.Frame independent = frame;
+                        try {
+                            workers.execute(() -> handleIndependent(independent));
+                        } catch (RejectedExecutionException e) {
+                            closing = true;
+                        }
+                    } else {
+                        // The last request in flight to finish schedules this again.
+                        if (inFlight.get() > 0) break;
+                        inbox.poll();
+                        dequeued();
+                        if (!handler.handle(frame)) {
+                            closing = true;
+                            inbox.clear();
+                            pendingUpdates.add(this);
+                            selector.wakeup();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                logger.info("Something went wrong with the connection!");
+                closing = true;
+            } finally {
+                scheduled.set(false);
+            }
+            // Frames may have arrived, or the requests in flight finished, before the flag was cleared.
+            TaggedConnection.Frame next = inbox.peek();
+            int running = inFlight.get();
+            if (!closing && next != null
+                    && (running == 0 || (ClientHandler.isIndependent(next) && running < maxInFlight)))
+                schedule();
+        }
+
+        private void handleIndependent(TaggedConnection.Frame frame) {
+            try {
+                handler.handle(frame);
+            } catch (IOException e) {
+                logger.info("Something went wrong with the connection!");
+                closing = true;
+            }
+            // Frees a slot for the next independent request, or the last one lets a dependent one run.
+            inFlight.decrementAndGet();
+            if (!inbox.isEmpty())
+                schedule();
+        }
+
+        /**
+         * Called by the workers to reply. The frame is written later by the selector thread.
+         */
+        @Override
+        public void send(int tag, List<byte[]> data) throws IOException {
+            if (!channel.isOpen()) throw new ClosedChannelException();
+            queued.incrementAndGet();
+            outbox.add(FrameCodec.encode(tag, data, buffers));
+            pendingUpdates.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * Called by the selector thread when the connection can take more bytes.
+         */
+        void write() throws IOException {
+            while (true) {
+                if (first == end) {
+                    first = end = 0;
+                    ByteBuffer buffer;
+                    while (end < writing.length && (buffer = outbox.poll()) != null)
+                        writing[end++] = buffer;
+                    if (end == 0) break;
+                }
+
+                // Every reply taken goes in the same gathering write.
+                channel.write(writing, first, end - first);
+                while (first < end && !writing[first].hasRemaining()) {
+                    buffers.release(writing[first]);
+                    writing[first++] = null;
+                    queued.decrementAndGet();
+                }
+                if (first < end) return;
+            }
+
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            resumeReading();
+            // A reply may have been added after the queue was seen empty.
+            if (!outbox.isEmpty())
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            else if (closing)
+                close();
+        }
+
+        /**
+         * @return true if there are replies not written yet.
+         */
+        boolean hasPendingWrites() {
+            return first < end || !outbox.isEmpty();
+        }
+
+        void close() {
+            closing = true;
+            key.cancel();
+            codec.release();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
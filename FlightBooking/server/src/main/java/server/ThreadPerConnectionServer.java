@@ -0,0 +1,95 @@
+package server;
+
+import connection.FrameCodec;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import system.IAirportSystem;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.SocketException;
+import java.util.concurrent.Executor;
+
+/**
+ * Server front end that runs each connection, from start to end, on its own task.
+ * Connections are handled by a {@link ThreadPool}, or by one virtual thread each.
+ */
+public class ThreadPerConnectionServer implements FrontEnd {
+    private static final Logger logger = LogManager.getLogger(ThreadPerConnectionServer.class);
+
+    private final IAirportSystem airportSystem;
+    private final ServerSocket serverSocket;
+    private final Executor executor;
+    private final int maxFrameSize;
+    private volatile boolean running;
+
+    /**
+     * Constructor.
+     *
+     * @param port          the port to listen on, or 0 for any free port.
+     * @param airportSystem the system.
+     * @param executor      runs the {@link ClientHandler} of each connection.
+     * @throws IOException if the port couldn't be opened.
+     */
+    public ThreadPerConnectionServer(int port, IAirportSystem airportSystem, Executor executor) throws IOException {
+        this(port, airportSystem, executor, FrameCodec.DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param port          the port to listen on, or 0 for any free port.
+     * @param airportSystem the system.
+     * @param executor      runs the {@link ClientHandler} of each connection.
+     * @param maxFrameSize  the maximum length of a request, in bytes. A longer reply is answered with an error instead.
+     * @throws IOException if the port couldn't be opened.
+     */
+    public ThreadPerConnectionServer(int port, IAirportSystem airportSystem, Executor executor, int maxFrameSize) throws IOException {
+        this.airportSystem = airportSystem;
+        this.serverSocket = new ServerSocket(port, 1024);
+        this.executor = executor;
+        this.maxFrameSize = maxFrameSize;
+        this.running = true;
+    }
+
+    /**
+     * @param port          the port to listen on, or 0 for any free port.
+     * @param airportSystem the system.
+     * @return a server that runs each connection on its own virtual thread.
+     * @throws IOException if the port couldn't be opened.
+     */
+    public static ThreadPerConnectionServer withVirtualThreads(int port, IAirportSystem airportSystem) throws IOException {
+        var factory = VirtualThreads.factory();
+        return new ThreadPerConnectionServer(port, airportSystem, task -> factory.newThread(task).start());
+    }
+
+    /**
+     * @return true if {@link #withVirtualThreads} creates virtual threads on this JDK.
+     */
+    public static boolean virtualThreadsSupported() {
+        return VirtualThreads.isSupported();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void run() {
+        logger.info("ServerSocket starting on port " + getPort() + "...");
+        try {
+            while (running) executor.execute(new ClientHandler(serverSocket.accept(), airportSystem, maxFrameSize));
+        } catch (SocketException e) {
+            if (running) logger.error("ServerSocket failed: " + e.getMessage());
+        } catch (IOException e) {
+            logger.error("ServerSocket failed: " + e.getMessage());
+        }
+        logger.info("ServerSocket closing...");
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+    }
+}
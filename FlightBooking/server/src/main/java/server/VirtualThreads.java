@@ -0,0 +1,62 @@
+package server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads of the virtual-thread server mode.
+ * <p>
+ * The build targets Java 17, where virtual threads don't exist yet, so they are created through reflection
+ * when the server runs on a JDK that has them (21 or later). On older JDKs it falls back to one platform
+ * thread per connection, which keeps the mode usable, only without the memory savings.
+ * <p>
+ * The system only uses {@link java.util.concurrent.locks} locks, never {@code synchronized} or
+ * {@code Object.wait}, so a virtual thread blocked on a lock unmounts instead of pinning its carrier thread.
+ */
+final class VirtualThreads {
+    private static final Logger logger = LogManager.getLogger(VirtualThreads.class);
+
+    /**
+     * The virtual thread factory, or null if this JDK doesn't have virtual threads.
+     */
+    private static final ThreadFactory VIRTUAL_FACTORY = lookupFactory();
+
+    private VirtualThreads() {
+    }
+
+    private static ThreadFactory lookupFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method name = Class.forName("java.lang.Thread$Builder").getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, "client-", 0L);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the threads created are virtual.
+     */
+    static boolean isSupported() {
+        return VIRTUAL_FACTORY != null;
+    }
+
+    /**
+     * @return a factory of virtual threads, or of daemon platform threads if this JDK doesn't have them.
+     */
+    static ThreadFactory factory() {
+        if (VIRTUAL_FACTORY != null)
+            return VIRTUAL_FACTORY;
+
+        logger.warn("Virtual threads need Java 21 or later, using one platform thread per connection");
+        return task -> {
+            Thread thread = new Thread(task);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -1,24 +1,79 @@
 package system;
 
+import airport.Booking;
+import airport.BookingResult;
 import airport.Flight;
+import airport.Itinerary;
 import airport.PossiblePath;
 import airport.Reservation;
 import airport.Route;
+import encryption.BCrypt;
 import exceptions.*;
 import locks.LockObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import users.Admin;
 import users.Client;
 import users.Notification;
 import users.User;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class AirportSystem implements IAirportSystem {
+    private static final Logger logger = LogManager.getLogger(AirportSystem.class);
+
+    /**
+     * Global order in which the flights of a reservation are locked: by date, then by route.
+     * Every reservation takes its locks in this order, so itineraries that share flights can't deadlock.
+     */
+    private static final Comparator<Leg> LEG_LOCK_ORDER = Comparator.comparing(Leg::date)
+            .thenComparing(leg -> leg.route().origin.toUpperCase())
+            .thenComparing(leg -> leg.route().destination.toUpperCase());
+
+    private static final Comparator<Flight> FLIGHT_LOCK_ORDER =
+            Comparator.comparing(flight -> new Leg(flight.route, flight.date), LEG_LOCK_ORDER);
+
+    /**
+     * Number of times the optimistic engine tries to commit before falling back to the pessimistic one.
+     */
+    private static final int MAX_OPTIMISTIC_ATTEMPTS = 8;
+
+    /**
+     * Default maximum number of path searches cached.
+     */
+    public static final int PATH_CACHE_CAPACITY = 1024;
+
+    /**
+     * Maximum number of paths whose flights a search of itineraries looks at,
+     * so that a single search can't keep a thread busy for long.
+     */
+    private static final int MAX_PATHS_EXAMINED = 10_000;
+
+    /**
+     * Rough sizes of a flight, with its set of reservations and its locks, and of a reservation of one flight,
+     * with its id, set of flights and the entries that index it. Only used to estimate the heap reclaimed when
+     * departed days are archived; the RetentionBenchmark compares the estimate with the heap measured.
+     */
+    private static final long ESTIMATED_FLIGHT_BYTES = 300;
+    private static final long ESTIMATED_RESERVATION_BYTES = 330;
+
+    /**
+     * Strategy used to commit reservations.
+     */
+    private final ReservationEngine reservationEngine;
 
     /**
      * Associates ID to the respective User
@@ -28,27 +83,40 @@ public class AirportSystem implements IAirportSystem {
     private final Lock writeLockUser;
 
     /**
-     * Associates each city, by name, with the flights that leave that city.
+     * Current snapshot of the routes between cities.
+     * <p>
+     * Snapshots are never changed once published: addRoute builds the next one with the new route
+     * and swaps it in with a CAS, so readers just read the current snapshot without locking.
      */
-    private final Map<String, LockObject<Map<String, Route>>> connectionsByCityOrig;
-    private final Lock readLockConnections;
-    private final Lock writeLockConnections;
+    private final AtomicReference<RouteGraph> routeGraph;
 
     /**
      * Associates each day to the flies that happen in that day.
      * If a connection exists, but the fly in that day doesn't, then the flight will be created.
      * We can only have one flight by connection in each day.
+     * <p>
+     * Each day has its own lock, and the days are kept in a concurrent map,
+     * so operations on different days never contend with each other.
      */
-    private final Map<LocalDate, LockObject<Map<Route, Flight>>> flightsByDate;
-    private final Lock lockFlightsByDate;
+    private final ConcurrentMap<LocalDate, LockObject<Map<Route, Flight>>> flightsByDate;
 
     /**
      * Days cancelled by the administrator.
      * This is used to avoid reservations in cancelled days.
      */
     private final Set<LocalDate> canceledDays;
-    private final Lock readLockCanceledDays;
-    private final Lock writeLockCanceledDays;
+
+    /**
+     * Canceled days, as a bitmap, so the reservation search can jump over them.
+     */
+    private final DayBitmap canceledDaysBitmap;
+
+    /**
+     * Associates each route to the days in which its flight is full.
+     * Together with {@link #canceledDaysBitmap}, it lets the reservation search jump straight
+     * to the next day with a free seat instead of trying every day of the interval.
+     */
+    private final Map<Route, DayBitmap> fullDaysByRoute;
 
     /**
      * Associates each reservation to his id.
@@ -56,32 +124,372 @@ public class AirportSystem implements IAirportSystem {
     private final Map<UUID, Reservation> reservationsById;
     private final Lock lockReservations;
 
+    /**
+     * Results of the searches of paths between cities, invalidated as routes are added.
+     */
+    private final PathCache pathCache;
+
+    /**
+     * Where the changes are logged before they are answered, or null if the state isn't durable.
+     */
+    private final WriteAheadLog log;
+
+    /**
+     * Runs of the retention, one at a time, and what they archived so far.
+     */
+    private final Lock lockRetention;
+    private RetentionStats retentionStats;
+
+    /**
+     * True while the changes in the log are replayed, so they aren't logged again.
+     */
+    private boolean replaying;
+
     /**
      * Constructor.
      * It starts with empty parameters because they are all inserted by the users.
      */
     public AirportSystem() {
+        this(ReservationEngine.PESSIMISTIC);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param reservationEngine the strategy used to commit reservations.
+     */
+    public AirportSystem(ReservationEngine reservationEngine) {
+        this(reservationEngine, PATH_CACHE_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param reservationEngine the strategy used to commit reservations.
+     * @param pathCacheCapacity the maximum number of path searches cached.
+     */
+    public AirportSystem(ReservationEngine reservationEngine, int pathCacheCapacity) {
+        this(reservationEngine, pathCacheCapacity, null);
+    }
+
+    /**
+     * Constructor for a system whose changes are durable.
+     * The changes already in the log are replayed, and every change from then on is logged,
+     * only returning once it is durable.
+     *
+     * @param reservationEngine the strategy used to commit reservations.
+     * @param pathCacheCapacity the maximum number of path searches cached.
+     * @param log               the log, or null if the state isn't durable.
+     */
+    public AirportSystem(ReservationEngine reservationEngine, int pathCacheCapacity, WriteAheadLog log) {
+        this(reservationEngine, pathCacheCapacity, null, log);
+    }
+
+    /**
+     * Constructor for a system whose changes are durable, recovered from a snapshot.
+     * The snapshot is restored, decoding its partitions in parallel, and then only the changes logged
+     * after it are replayed. The log must have been opened from the position of the snapshot.
+     *
+     * @param reservationEngine the strategy used to commit reservations.
+     * @param pathCacheCapacity the maximum number of path searches cached.
+     * @param snapshot          the snapshot, or null to replay the whole log.
+     * @param log               the log, or null if the state isn't durable.
+     */
+    public AirportSystem(ReservationEngine reservationEngine, int pathCacheCapacity, Snapshot snapshot,
+                         WriteAheadLog log) {
+        this.reservationEngine = reservationEngine;
+        this.log = log;
+        this.pathCache = new PathCache(pathCacheCapacity);
         this.usersById = new HashMap<>();
-        this.connectionsByCityOrig = new HashMap<>();
-        this.flightsByDate = new HashMap<>();
-        this.canceledDays = new HashSet<>();
+        this.routeGraph = new AtomicReference<>(RouteGraph.EMPTY);
+        this.flightsByDate = new ConcurrentHashMap<>();
+        this.canceledDays = ConcurrentHashMap.newKeySet();
+        this.canceledDaysBitmap = new DayBitmap();
+        this.fullDaysByRoute = new ConcurrentHashMap<>();
         this.reservationsById = new HashMap<>();
 
         ReentrantReadWriteLock lockUser = new ReentrantReadWriteLock();
         this.readLockUser = lockUser.readLock();
         this.writeLockUser = lockUser.writeLock();
 
-        ReentrantReadWriteLock lockConnections = new ReentrantReadWriteLock();
-        this.readLockConnections = lockConnections.readLock();
-        this.writeLockConnections = lockConnections.readLock();
+        this.lockReservations = new ReentrantLock();
+        this.lockRetention = new ReentrantLock();
+        this.retentionStats = RetentionStats.EMPTY;
+
+        replaying = true;
+        if (snapshot != null)
+            restore(snapshot);
+        if (log != null)
+            log.getRecovered().forEach(this::replay);
+        if (snapshot != null || log != null)
+            recountSeats();
+        replaying = false;
+    }
+
+    /**
+     * Sets the free seats of every flight to its capacity minus the reservations it holds, once the state is recovered.
+     * A log written before the changes were logged in the order they took their seats may hold a reservation
+     * whose seat was still taken when it is replayed. It is kept, since it was acknowledged,
+     * and its flight is left with no seat free instead of one too many.
+     */
+    private void recountSeats() {
+        for (LockObject<Map<Route, Flight>> day : flightsByDate.values()) {
+            try {
+                day.readLock();
+                for (Flight flight : day.elem().values()) {
+                    flight.recountSeats();
+                    refreshAvailability(flight);
+                }
+            } finally {
+                day.readUnlock();
+            }
+        }
+    }
 
-        this.lockFlightsByDate = new ReentrantLock();
+    /**
+     * Restores the state saved in a snapshot, with the partitions of reservations restored in parallel.
+     * Reservations on a day cancelled by the time the snapshot was taken are dropped, as the cancel dropped them.
+     *
+     * @param snapshot the snapshot.
+     */
+    private void restore(Snapshot snapshot) {
+        List<User> users = new ArrayList<>(snapshot.getUsers().size());
+        for (Snapshot.UserEntry entry : snapshot.getUsers()) {
+            User user = entry.admin()
+                    ? new Admin(entry.username(), entry.passwordHash(), true)
+                    : new Client(entry.username(), entry.passwordHash(), true);
+            for (byte[] notification : entry.notifications())
+                user.addNotification(Notification.deserialize(notification));
+            usersById.put(user.getUsername(), user);
+            users.add(user);
+        }
 
-        ReentrantReadWriteLock lockCanceledDays = new ReentrantReadWriteLock();
-        this.readLockCanceledDays = lockCanceledDays.readLock();
-        this.writeLockCanceledDays = lockCanceledDays.readLock();
+        RouteGraph graph = RouteGraph.EMPTY;
+        for (Route route : snapshot.getRoutes()) {
+            try {
+                graph = graph.withRoute(route);
+            } catch (RouteAlreadyExistsException e) {
+                logger.warn("Skipping a route of the snapshot that is there twice: {}", route);
+            }
+        }
+        routeGraph.set(graph);
+        List<Route> routes = snapshot.getRoutes();
 
-        this.lockReservations = new ReentrantLock();
+        for (LocalDate day : snapshot.getCanceledDays()) {
+            canceledDays.add(day);
+            canceledDaysBitmap.set(day, true);
+        }
+
+        IntStream.range(0, snapshot.partitionCount()).parallel().forEach(partition -> {
+            List<Reservation> restored = new ArrayList<>();
+            snapshot.forEachReservation(partition, entry -> {
+                SortedSet<Flight> flights = new TreeSet<>(FLIGHT_LOCK_ORDER);
+                for (int i = 0; i < entry.routes().length; i++) {
+                    Flight flight = getValidFlight(entry.days()[i], routes.get(entry.routes()[i]));
+                    if (flight == null)
+                        return;
+                    flights.add(flight);
+                }
+                User user = users.get(entry.user());
+                Reservation reservation = new Reservation(entry.id(), user, flights);
+                for (Flight flight : flights) {
+                    claimSeat(flight);
+                    flight.commitReservation(reservation);
+                }
+                user.addReservation(reservation.id);
+                restored.add(reservation);
+            });
+            try {
+                lockReservations.lock();
+                for (Reservation reservation : restored)
+                    reservationsById.put(reservation.id, reservation);
+            } finally {
+                lockReservations.unlock();
+            }
+        });
+        logger.info("Restored {} users, {} routes and {} reservations from the snapshot",
+                users.size(), routes.size(), reservationsById.size());
+    }
+
+    /**
+     * Saves the state of the system to a snapshot, while bookings go on.
+     * <p>
+     * The position of the log is read first, and the state copied after it, so the copy holds every change
+     * logged up to that position, and maybe some logged after it, which replaying the log skips.
+     * The copy only waits for the changes in it to be durable in the log, so the snapshot never holds a change
+     * the log could lose. The reservations are copied under their lock, which only holds bookings for the copy,
+     * and are encoded and written after it is released.
+     *
+     * @param path the file of the snapshot, replaced once the new one is written.
+     * @return the position of the log the snapshot was taken at.
+     * @throws IOException if the snapshot couldn't be written.
+     */
+    public long snapshot(Path path) throws IOException {
+        long position = log == null ? 0 : log.lastAppended();
+
+        List<Reservation> reservations;
+        try {
+            lockReservations.lock();
+            reservations = new ArrayList<>(reservationsById.values());
+        } finally {
+            lockReservations.unlock();
+        }
+        // Users and routes are never removed, so the ones of the reservations copied are all still there.
+        List<User> users;
+        try {
+            readLockUser.lock();
+            users = new ArrayList<>(usersById.values());
+        } finally {
+            readLockUser.unlock();
+        }
+        List<Route> routes = getRoutes();
+        List<LocalDate> days = new ArrayList<>(canceledDays);
+        if (log != null)
+            log.awaitDurable(log.lastAppended());
+
+        Map<String, Integer> userIndex = new HashMap<>();
+        List<Snapshot.UserEntry> userEntries = new ArrayList<>(users.size());
+        for (User user : users) {
+            userIndex.put(user.getUsername(), userEntries.size());
+            userEntries.add(new Snapshot.UserEntry(user.getUsername(), user.getPasswordHash(), user instanceof Admin,
+                    user.getNotifications().stream().map(Notification::serialize).toList()));
+        }
+        Map<Route, Integer> routeIndex = new HashMap<>();
+        for (Route route : routes)
+            routeIndex.put(route, routeIndex.size());
+
+        Map<LocalDate, List<Snapshot.ReservationEntry>> partitions = reservations.parallelStream()
+                .map(reservation -> {
+                    List<Flight> flights = new ArrayList<>(reservation.getFlights());
+                    flights.sort(FLIGHT_LOCK_ORDER);
+                    int[] routesOfReservation = new int[flights.size()];
+                    LocalDate[] daysOfReservation = new LocalDate[flights.size()];
+                    for (int i = 0; i < flights.size(); i++) {
+                        routesOfReservation[i] = routeIndex.get(flights.get(i).route);
+                        daysOfReservation[i] = flights.get(i).date;
+                    }
+                    return new Snapshot.ReservationEntry(reservation.id,
+                            userIndex.get(reservation.getUsernameClient()), routesOfReservation, daysOfReservation);
+                })
+                .collect(Collectors.groupingByConcurrent(entry -> entry.days()[0]));
+
+        Snapshot.write(path, position, userEntries, routes, days, partitions);
+        logger.info("Snapshot of {} reservations taken at position {} of the log", reservations.size(), position);
+        return position;
+    }
+
+    private boolean hasRoute(String orig, String dest) {
+        try {
+            routeGraph.get().getRoute(orig, dest);
+            return true;
+        } catch (RouteDoesntExistException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Appends a change to the log, if there is one.
+     *
+     * @param record the change.
+     * @return the position of the record in the log, or 0 if it wasn't logged.
+     */
+    private long logChange(LogRecord record) {
+        if (log == null || replaying)
+            return 0;
+        return log.append(record);
+    }
+
+    /**
+     * Waits until the changes logged up to the given one are durable.
+     *
+     * @param position the position of the last change, as given by {@link #logChange}.
+     * @throws UncheckedIOException if the log failed, in which case the change may be lost.
+     */
+    private void awaitDurable(long position) {
+        if (position == 0)
+            return;
+        try {
+            log.awaitDurable(position);
+        } catch (IOException e) {
+            throw new UncheckedIOException("The change couldn't be made durable", e);
+        }
+    }
+
+    /**
+     * @param reservation a reservation committed.
+     * @return the record of the reservation.
+     */
+    private static LogRecord.Reserve reserveRecord(Reservation reservation) {
+        List<LogRecord.Leg> legs = new ArrayList<>();
+        for (Flight flight : reservation.getFlights())
+            legs.add(new LogRecord.Leg(flight.route.origin, flight.route.destination, flight.route.capacity, flight.date));
+        return new LogRecord.Reserve(reservation.id, reservation.client.getUsername(), legs);
+    }
+
+    /**
+     * Applies a change read from the log.
+     * Changes that were logged in a different order from the one they were made in are tolerated:
+     * a reservation on a day cancelled before it was logged is dropped, as the cancel dropped it,
+     * and a reservation on a route not logged yet adds the route.
+     * Changes already in the snapshot restored are skipped, as it may hold some of the changes logged after it.
+     *
+     * @param record the change.
+     */
+    private void replay(LogRecord record) {
+        try {
+            if (record instanceof LogRecord.RegisterUser r) {
+                if (getUserById(r.username()) == null)
+                    register(r.admin()
+                            ? new Admin(r.username(), r.passwordHash(), true)
+                            : new Client(r.username(), r.passwordHash(), true));
+            } else if (record instanceof LogRecord.AddRoute r) {
+                if (!hasRoute(r.origin(), r.destination()))
+                    addRoute(r.origin(), r.destination(), r.capacity());
+            } else if (record instanceof LogRecord.Reserve r) {
+                replayReservation(r);
+            } else if (record instanceof LogRecord.CancelReservation r) {
+                cancelReservation(r.username(), r.reservationId());
+            } else if (record instanceof LogRecord.CancelDay r) {
+                if (!invalidDate(r.day()))
+                    cancelDay(r.day());
+            } else if (record instanceof LogRecord.Archive r) {
+                archiveBefore(r.before(), null);
+            } else if (record instanceof LogRecord.ChangePassword r) {
+                User user = getUserById(r.username());
+                if (user != null)
+                    user.setPasswordHash(r.passwordHash());
+            }
+        } catch (Exception e) {
+            logger.warn("Skipping a change of the log that can't be replayed: {} ({})", record, e.getMessage());
+        }
+    }
+
+    private void replayReservation(LogRecord.Reserve record)
+            throws RouteAlreadyExistsException, RouteDoesntExistException, UserNotFoundException {
+        if (containsReservation(record.reservationId()))
+            return;
+        User user = getUserById(record.username());
+        if (user == null)
+            throw new UserNotFoundException("User not found: " + record.username() + " [username]");
+
+        SortedSet<Flight> flights = new TreeSet<>(FLIGHT_LOCK_ORDER);
+        for (LogRecord.Leg leg : record.legs()) {
+            if (!hasRoute(leg.origin(), leg.destination()))
+                addRoute(leg.origin(), leg.destination(), leg.capacity());
+            Flight flight = getValidFlight(leg.date(), getRoute(leg.origin(), leg.destination()));
+            if (flight == null)
+                return;
+            flights.add(flight);
+        }
+        for (Flight flight : flights) {
+            if (!claimSeat(flight))
+                logger.warn("Replaying reservation {} on the full flight {}, whose seats are recounted after the log",
+                        record.reservationId(), flight);
+        }
+        Reservation reservation = new Reservation(record.reservationId(), user, flights);
+        addReservation(user, reservation);
+        for (Flight flight : flights)
+            flight.commitReservation(reservation);
     }
 
     /**
@@ -91,11 +499,62 @@ public class AirportSystem implements IAirportSystem {
      * @return true if the given date is canceled.
      */
     private boolean invalidDate(LocalDate dateToSearch) {
-        try {
-            this.readLockCanceledDays.lock();
-            return canceledDays.contains(dateToSearch);
-        } finally {
-            this.readLockCanceledDays.unlock();
+        return canceledDays.contains(dateToSearch);
+    }
+
+    /**
+     * Updates the availability index with the current state of the flight.
+     * Must be called after a seat of the flight is claimed or given back.
+     *
+     * @param flight the flight.
+     */
+    private void refreshAvailability(Flight flight) {
+        fullDaysByRoute.computeIfAbsent(flight.route, r -> new DayBitmap())
+                .refresh(flight.date, () -> !flight.seatAvailable());
+    }
+
+    /**
+     * Claims a seat of the flight, keeping the availability index up to date.
+     *
+     * @param flight the flight.
+     * @return true if a seat was claimed.
+     */
+    private boolean claimSeat(Flight flight) {
+        if (!flight.tryReserveSeat())
+            return false;
+        if (!flight.seatAvailable())
+            refreshAvailability(flight);
+        return true;
+    }
+
+    /**
+     * Gives back a seat claimed with {@link #claimSeat(Flight)}, keeping the availability index up to date.
+     *
+     * @param flight the flight.
+     */
+    private void releaseSeat(Flight flight) {
+        flight.releaseSeat();
+        refreshAvailability(flight);
+    }
+
+    /**
+     * Finds the first day, equal or after the given one, that isn't canceled
+     * and where the flight of the given route isn't known to be full.
+     *
+     * @param route the route.
+     * @param from  the first day to consider.
+     * @return the day.
+     */
+    private LocalDate nextAvailableDay(Route route, LocalDate from) {
+        DayBitmap fullDays = fullDaysByRoute.get(route);
+        LocalDate day = from;
+        while (true) {
+            LocalDate next = canceledDaysBitmap.nextClearDay(day);
+            if (fullDays != null)
+                next = fullDays.nextClearDay(next);
+            if (next.equals(day))
+                return day;
+            day = next;
         }
     }
 
@@ -119,31 +578,17 @@ public class AirportSystem implements IAirportSystem {
      */
     public void addRoute(String orig, String dest, int capacity)
             throws RouteAlreadyExistsException, RouteDoesntExistException {
-        String origUpperCase = orig.toUpperCase();
-        String destUpperCase = dest.toUpperCase();
-        if (origUpperCase.equals(destUpperCase)) {
+        if (orig.equalsIgnoreCase(dest)) {
             throw new RouteDoesntExistException(orig, dest);
         }
         Route newRoute = new Route(orig, dest, capacity);
-        this.writeLockConnections.lock();
-        LockObject<Map<String, Route>> connectionsByCityDestWithLock = connectionsByCityOrig.get(origUpperCase);
-        if (connectionsByCityDestWithLock == null) {
-            try {
-                Map<String, Route> connectionsByCityDest = new HashMap<>();
-                connectionsByCityDest.put(destUpperCase, newRoute);
-                connectionsByCityOrig.put(origUpperCase, new LockObject<>(connectionsByCityDest));
-            } finally {
-                this.writeLockConnections.unlock();
-            }
-        } else {
-            try {
-                connectionsByCityDestWithLock.writeLock();
-                this.writeLockConnections.unlock();
-                Map<String, Route> connectionsByCityDest = connectionsByCityDestWithLock.elem();
-                if (connectionsByCityDest.putIfAbsent(destUpperCase, newRoute) != null)
-                    throw new RouteAlreadyExistsException(orig, dest);
-            } finally {
-                connectionsByCityDestWithLock.writeUnlock();
+        while (true) {
+            RouteGraph graph = routeGraph.get();
+            RouteGraph newGraph = graph.withRoute(newRoute);
+            if (routeGraph.compareAndSet(graph, newGraph)) {
+                pathCache.invalidate(newGraph, newRoute);
+                awaitDurable(logChange(new LogRecord.AddRoute(orig, dest, capacity)));
+                return;
             }
         }
     }
@@ -156,21 +601,7 @@ public class AirportSystem implements IAirportSystem {
      * @throws RouteDoesntExistException is launched if this route doesn't exist.
      */
     public Route getRoute(String orig, String dest) throws RouteDoesntExistException {
-        String origUpperCase = orig.toUpperCase();
-        String destUpperCase = dest.toUpperCase();
-        try {
-            readLockConnections.lock();
-            LockObject<Map<String, Route>> routesByDestCityWithLock = connectionsByCityOrig.get(origUpperCase);
-            if (routesByDestCityWithLock == null || routesByDestCityWithLock.elem().isEmpty())
-                throw new RouteDoesntExistException(orig, dest);
-            Map<String, Route> routesByDestCity = routesByDestCityWithLock.elem();
-            Route route = routesByDestCity.get(destUpperCase);
-            if (route == null)
-                throw new RouteDoesntExistException(orig, dest);
-            return route;
-        } finally {
-            readLockConnections.unlock();
-        }
+        return routeGraph.get().getRoute(orig, dest);
     }
 
     /**
@@ -178,24 +609,15 @@ public class AirportSystem implements IAirportSystem {
      * @return all cities in order of passage
      */
     private Queue<Route> getRoutesByCities(final List<String> cities) throws RouteDoesntExistException {
+        RouteGraph graph = routeGraph.get();
         String origCity = null;
-        String destCity;
         Queue<Route> routes = new ArrayDeque<>();
-        try {
-            readLockConnections.lock();
-            for (String city : cities) {
-                if (origCity == null) {
-                    origCity = city;
-                    continue;
-                }
-                destCity = city;
-                routes.add(getRoute(origCity, destCity));
-                origCity = city;
-            }
-            return routes;
-        } finally {
-            readLockConnections.unlock();
+        for (String city : cities) {
+            if (origCity != null)
+                routes.add(graph.getRoute(origCity, city));
+            origCity = city;
         }
+        return routes;
     }
 
     /**
@@ -203,118 +625,165 @@ public class AirportSystem implements IAirportSystem {
      *
      * @param date  Date we want
      * @param route Route
-     * @return a Flight
+     * @return a Flight, or null if the day is cancelled.
      */
     private Flight getValidFlight(LocalDate date, Route route) {
-        Map<Route, Flight> flightsByRoute;
-        LockObject<Map<Route, Flight>> flightsByRouteWithLock;
+        if (invalidDate(date))
+            return null;
+        LockObject<Map<Route, Flight>> flightsByRouteWithLock =
+                this.flightsByDate.computeIfAbsent(date, d -> new LockObject<>(new HashMap<>()));
         try {
-            lockFlightsByDate.lock();
-            flightsByRouteWithLock = this.flightsByDate.get(date);
-            if (flightsByRouteWithLock == null) {
-                Flight flight = addFlight(route, date);
-                flight.lock();
-                return flight;
-            }
-
             flightsByRouteWithLock.writeLock();
-            flightsByRoute = flightsByRouteWithLock.elem();
+            // cancelDay marks the day before removing and locking its flights,
+            // so a flight created after this check is always seen by it.
+            if (invalidDate(date))
+                return null;
+            return flightsByRouteWithLock.elem().computeIfAbsent(route, r -> new Flight(r, date));
         } finally {
-            lockFlightsByDate.unlock();
+            flightsByRouteWithLock.writeUnlock();
         }
-        try {
-            Flight flight = flightsByRoute.get(route);
-            if (flight == null) {
-                flight = addFlight(route, date);
-            }
+    }
 
-            flight.lock();
-            return flight;
+    /**
+     * Get the Flight on the given day for the route, without creating it.
+     *
+     * @param date  Date we want
+     * @param route Route
+     * @return the Flight, or null if no seat was ever booked on it.
+     */
+    private Flight getExistingFlight(LocalDate date, Route route) {
+        LockObject<Map<Route, Flight>> flightsByRouteWithLock = this.flightsByDate.get(date);
+        if (flightsByRouteWithLock == null)
+            return null;
+        try {
+            flightsByRouteWithLock.readLock();
+            return flightsByRouteWithLock.elem().get(route);
         } finally {
-            flightsByRouteWithLock.writeUnlock();
+            flightsByRouteWithLock.readUnlock();
         }
     }
 
     /**
-     * Returns a set of flights that make the trip possible.
+     * Gives back the seats claimed for the given flights and releases their locks.
+     *
+     * @param flights flights with a claimed seat and lock active.
+     */
+    private void releaseFlights(Collection<Flight> flights) {
+        for (Flight flight : flights) {
+            releaseSeat(flight);
+            flight.unlock();
+        }
+    }
+
+    /**
+     * Picks, without holding any flight lock, one flight for each route that still looks to have a free seat.
+     * Flights that don't exist yet are taken as empty, and aren't created here,
+     * so a search that fails doesn't leave behind empty flights.
      *
-     * @param cities the connections.
+     * @param routes the routes in order of passage.
      * @param start  the start date of the interval.
      * @param end    the end date of the interval.
-     * @return The available flights with lock active
+     * @return the candidate legs, in the global lock order.
+     * @throws BookingFlightsNotPossibleException if some route has no free flight in the interval.
      */
-    private Set<Flight> getConnectedFlights(List<String> cities, LocalDate start, LocalDate end)
-            throws BookingFlightsNotPossibleException, RouteDoesntExistException {
-        LocalDate dateToSearch = start;
-        Queue<Route> routes;
-        routes = getRoutesByCities(cities);
-
-        Set<Flight> flights = new HashSet<>();
-        int numberFlights = routes.size();
-
-        Route route = routes.remove();
-        int reservedSeats = 0;
-        while (true) {
-
-            if (dateToSearch.isAfter(end)) {
-                for (Flight flight : flights)
-                    flight.unlock();
-                throw new BookingFlightsNotPossibleException();
-            }
+    private SortedSet<Leg> findCandidateFlights(List<Route> routes, LocalDate start, LocalDate end)
+            throws BookingFlightsNotPossibleException {
+        List<LocalDate> dates = findCandidateDates(routes, start, end);
+        SortedSet<Leg> candidates = new TreeSet<>(LEG_LOCK_ORDER);
+        for (int i = 0; i < routes.size(); i++)
+            candidates.add(new Leg(routes.get(i), dates.get(i)));
+        return candidates;
+    }
 
-            if (invalidDate(dateToSearch)) {
-                dateToSearch = dateToSearch.plusDays(1);
-                continue;
-            }
+    /**
+     * Finds the earliest day of each route that still looks to have a free seat,
+     * each one on or after the day of the route before.
+     *
+     * @param routes the routes in order of passage.
+     * @param start  the start date of the interval.
+     * @param end    the end date of the interval.
+     * @return the day of each route, in order of passage.
+     * @throws BookingFlightsNotPossibleException if some route has no free flight in the interval.
+     */
+    private List<LocalDate> findCandidateDates(List<Route> routes, LocalDate start, LocalDate end)
+            throws BookingFlightsNotPossibleException {
+        List<LocalDate> dates = new ArrayList<>(routes.size());
+        LocalDate dateToSearch = start;
 
-            Flight flight;
-            flight = getValidFlight(dateToSearch, route);
+        for (Route route : routes) {
+            while (true) {
+                dateToSearch = nextAvailableDay(route, dateToSearch);
+                if (dateToSearch.isAfter(end))
+                    throw new BookingFlightsNotPossibleException();
 
-            if (!flight.seatAvailable()) {
-                flight.unlock();
+                Flight flight = getExistingFlight(dateToSearch, route);
+                if (flight == null ? route.capacity > 0 : flight.seatAvailable() && !flight.isCanceled()) {
+                    dates.add(dateToSearch);
+                    break;
+                }
+                if (flight != null)
+                    refreshAvailability(flight);
                 dateToSearch = dateToSearch.plusDays(1);
-                continue;
             }
+        }
+        return dates;
+    }
 
+    /**
+     * Gets the flights of the candidate legs, creating the ones that don't exist yet.
+     *
+     * @param legs the candidate legs.
+     * @return the flights, in the global lock order, or null if a day was cancelled meanwhile.
+     */
+    private SortedSet<Flight> getFlights(SortedSet<Leg> legs) {
+        SortedSet<Flight> flights = new TreeSet<>(FLIGHT_LOCK_ORDER);
+        for (Leg leg : legs) {
+            Flight flight = getValidFlight(leg.date(), leg.route());
+            if (flight == null)
+                return null;
             flights.add(flight);
-            reservedSeats++;
-            if (reservedSeats < numberFlights)
-                route = routes.remove();
-            else
-                break;
         }
         return flights;
     }
 
     /**
-     * Creates and add a flight
+     * Locks the candidate flights in the global lock order and claims one seat on each.
+     * It is all-or-nothing: if any flight became full or was cancelled meanwhile,
+     * every seat and lock taken so far is given back.
      *
-     * @param route the connection
-     * @param date  the day
-     * @return the flight
+     * @param candidates the flights, in the global lock order.
+     * @return true if every flight is locked with a seat claimed.
      */
-    private Flight addFlight(Route route, LocalDate date) {
-        Flight flight = new Flight(route, date);
-        LockObject<Map<Route, Flight>> flightsWithLock;
-        try {
-            lockFlightsByDate.lock();
-            flightsWithLock = flightsByDate.get(date);
-
-            if (flightsWithLock == null) {
-                flightsWithLock = new LockObject<>(new HashMap<>());
-                flightsWithLock.elem().put(route, flight);
-                flightsByDate.put(date, flightsWithLock);
-                return flight;
+    private boolean lockAndClaimSeats(SortedSet<Flight> candidates) {
+        List<Flight> claimed = new ArrayList<>(candidates.size());
+        for (Flight flight : candidates) {
+            flight.lock();
+            if (flight.isCanceled() || !claimSeat(flight)) {
+                flight.unlock();
+                releaseFlights(claimed);
+                return false;
             }
-            flightsWithLock.writeLock();
-        } finally {
-            lockFlightsByDate.unlock();
+            claimed.add(flight);
         }
-        try {
-            flightsWithLock.elem().put(route, flight);
-            return flight;
-        } finally {
-            flightsWithLock.writeUnlock();
+        return true;
+    }
+
+    /**
+     * Returns a set of flights that make the trip possible.
+     * The flights are first chosen without locks and only then locked, all in the same global order.
+     * If a chosen flight is taken meanwhile, the search is done again.
+     *
+     * @param routes the routes in order of passage.
+     * @param start  the start date of the interval.
+     * @param end    the end date of the interval.
+     * @return The available flights with a seat claimed and lock active
+     */
+    private Set<Flight> getConnectedFlights(List<Route> routes, LocalDate start, LocalDate end)
+            throws BookingFlightsNotPossibleException {
+        while (true) {
+            SortedSet<Flight> candidates = getFlights(findCandidateFlights(routes, start, end));
+            if (candidates != null && lockAndClaimSeats(candidates))
+                return candidates;
         }
     }
 
@@ -330,8 +799,7 @@ public class AirportSystem implements IAirportSystem {
     public UUID reserveFlight(String userName, List<String> cities, LocalDate start, LocalDate end)
             throws BookingFlightsNotPossibleException, RouteDoesntExistException, UserNotFoundException, InvalidDateException {
 
-        if (start.isBefore(LocalDate.now()) || end.isBefore(start))
-            throw new InvalidDateException(start, end);
+        checkInterval(start, end);
 
         User user;
         try {
@@ -344,13 +812,213 @@ public class AirportSystem implements IAirportSystem {
         if (user == null)
             throw new UserNotFoundException("User not found: " + userName + " [username]");
 
-        Set<Flight> flights;
+        List<Route> routes = new ArrayList<>(getRoutesByCities(cities));
+        Reserved reserved = null;
+        if (reservationEngine == ReservationEngine.OPTIMISTIC)
+            reserved = reserveFlightOptimistic(user, routes, start, end);
+        if (reserved == null)
+            reserved = reserveFlightPessimistic(user, routes, start, end);
+        // The reservation was logged before it could be seen, and so cancelled.
+        awaitDurable(reserved.position());
+        return reserved.reservation().id;
+    }
+
+    /**
+     * Reserves many bookings at once.
+     * <p>
+     * The flights of every booking still to reserve are chosen without locks, like in
+     * {@link #getConnectedFlights}, and then all of them are locked together, once, in the global lock order.
+     * With the locks held, the bookings claim their seats in the order given, so bookings that compete
+     * for the last seats of a flight are served in that order. A booking whose flights got full meanwhile,
+     * by another booking of the batch or not, is searched again in the next pass.
+     * <p>
+     * When all-or-nothing, the seats claimed are kept, but not committed, until every booking has its seats,
+     * and are all given back as soon as one booking can't be reserved.
+     *
+     * @param userName     the user's name.
+     * @param bookings     the bookings.
+     * @param allOrNothing true to reserve no booking if some booking can't be reserved.
+     * @return the result of each booking, in the same order.
+     */
+    public List<BookingResult> reserveFlights(String userName, List<Booking> bookings, boolean allOrNothing)
+            throws UserNotFoundException {
+        User user = getUserById(userName);
+        if (user == null)
+            throw new UserNotFoundException("User not found: " + userName + " [username]");
+
+        BookingResult[] results = new BookingResult[bookings.size()];
+        List<List<Route>> routes = new ArrayList<>(bookings.size());
+        List<Integer> pending = new ArrayList<>(bookings.size());
+        for (int i = 0; i < bookings.size(); i++) {
+            Booking booking = bookings.get(i);
+            try {
+                checkInterval(booking.getStart(), booking.getEnd());
+                routes.add(new ArrayList<>(getRoutesByCities(booking.getCities())));
+                pending.add(i);
+            } catch (RouteDoesntExistException | InvalidDateException e) {
+                routes.add(null);
+                results[i] = BookingResult.failed(e.getMessage());
+            }
+        }
+
+        // Flights with a seat claimed for each booking, not committed yet, when all-or-nothing.
+        List<SortedSet<Flight>> held = allOrNothing ? new ArrayList<>(Collections.nCopies(bookings.size(), null)) : null;
+        // Position of the last reservation of the batch logged.
+        long[] logged = new long[1];
+        while (!pending.isEmpty() && (!allOrNothing || pending.size() + countHeld(held) == bookings.size()))
+            pending = reserveFlightsPass(user, bookings, routes, pending, results, held, logged);
+
+        if (allOrNothing) {
+            String error;
+            if (countHeld(held) == bookings.size()) {
+                error = commitHeld(user, held, results, logged);
+            } else {
+                error = "Not reserved, since another booking of the batch failed";
+                for (SortedSet<Flight> flights : held) {
+                    if (flights != null)
+                        flights.forEach(this::releaseSeat);
+                }
+            }
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null)
+                    results[i] = BookingResult.failed(error);
+            }
+        }
+        // The reservations of the batch were logged as they were committed, and share the same wait.
+        awaitDurable(logged[0]);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Tries once to claim the seats of the bookings still pending, holding the locks of all their flights together.
+     * The bookings that get their seats are committed, or kept in the held flights, if given.
+     *
+     * @param user     the client.
+     * @param bookings the bookings.
+     * @param routes   the routes of each booking.
+     * @param pending  the indexes of the bookings to reserve, in order.
+     * @param results  where the result of each booking committed, or that can't be reserved, is set.
+     * @param held     where the flights of each booking are kept instead of being committed, or null.
+     * @param logged   where the position of the last reservation logged is set.
+     * @return the indexes of the bookings to try again.
+     */
+    private List<Integer> reserveFlightsPass(User user, List<Booking> bookings, List<List<Route>> routes,
+                                             List<Integer> pending, BookingResult[] results,
+                                             List<SortedSet<Flight>> held, long[] logged) {
+        List<Integer> retry = new ArrayList<>();
+        List<Integer> chosen = new ArrayList<>(pending.size());
+        List<SortedSet<Flight>> flightsByBooking = new ArrayList<>(pending.size());
+        SortedSet<Flight> allFlights = new TreeSet<>(FLIGHT_LOCK_ORDER);
+        for (int i : pending) {
+            Booking booking = bookings.get(i);
+            try {
+                SortedSet<Flight> flights = getFlights(findCandidateFlights(routes.get(i), booking.getStart(), booking.getEnd()));
+                if (flights == null) {
+                    // A day was cancelled meanwhile.
+                    retry.add(i);
+                    continue;
+                }
+                chosen.add(i);
+                flightsByBooking.add(flights);
+                allFlights.addAll(flights);
+            } catch (BookingFlightsNotPossibleException e) {
+                results[i] = BookingResult.failed(e.getMessage());
+                if (held != null)
+                    return List.of();
+            }
+        }
+
+        for (Flight flight : allFlights)
+            flight.lock();
         try {
-            flights = getConnectedFlights(cities, start, end);
-        } catch (BookingFlightsNotPossibleException e) {
-            throw new BookingFlightsNotPossibleException();
+            for (int b = 0; b < chosen.size(); b++) {
+                SortedSet<Flight> flights = flightsByBooking.get(b);
+                List<Flight> claimed = new ArrayList<>(flights.size());
+                for (Flight flight : flights) {
+                    if (flight.isCanceled() || !claimSeat(flight))
+                        break;
+                    claimed.add(flight);
+                }
+                if (claimed.size() < flights.size()) {
+                    // Some flight got full or was cancelled since it was chosen.
+                    claimed.forEach(this::releaseSeat);
+                    retry.add(chosen.get(b));
+                } else if (held != null) {
+                    held.set(chosen.get(b), flights);
+                } else {
+                    // The seats are claimed and the flights can't be cancelled while we hold their locks.
+                    Reservation reservation = new Reservation(user, flights);
+                    logged[0] = logChange(reserveRecord(reservation));
+                    addReservation(user, reservation);
+                    for (Flight flight : flights)
+                        flight.commitReservation(reservation);
+                    results[chosen.get(b)] = BookingResult.reserved(reservation.id);
+                }
+            }
+        } finally {
+            for (Flight flight : allFlights)
+                flight.unlock();
         }
-        Reservation reservation = new Reservation(user, flights);
+        Collections.sort(retry);
+        return retry;
+    }
+
+    private static int countHeld(List<SortedSet<Flight>> held) {
+        if (held == null)
+            return 0;
+        int count = 0;
+        for (SortedSet<Flight> flights : held) {
+            if (flights != null)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Commits every booking of an all-or-nothing batch, once all of them have their seats claimed,
+     * or gives back every seat if some flight was cancelled meanwhile.
+     *
+     * @param user    the client.
+     * @param held    the flights of each booking, with a seat claimed.
+     * @param results where the result of each booking is set, if committed.
+     * @param logged  where the position of the last reservation logged is set.
+     * @return null if committed, or why not.
+     */
+    private String commitHeld(User user, List<SortedSet<Flight>> held, BookingResult[] results, long[] logged) {
+        SortedSet<Flight> allFlights = new TreeSet<>(FLIGHT_LOCK_ORDER);
+        held.forEach(allFlights::addAll);
+        for (Flight flight : allFlights)
+            flight.lock();
+        try {
+            for (Flight flight : allFlights) {
+                if (flight.isCanceled()) {
+                    for (SortedSet<Flight> flights : held)
+                        flights.forEach(this::releaseSeat);
+                    return "Not reserved, since a day of the batch was cancelled";
+                }
+            }
+            for (int i = 0; i < held.size(); i++) {
+                Reservation reservation = new Reservation(user, held.get(i));
+                logged[0] = logChange(reserveRecord(reservation));
+                addReservation(user, reservation);
+                for (Flight flight : held.get(i))
+                    flight.commitReservation(reservation);
+                results[i] = BookingResult.reserved(reservation.id);
+            }
+            return null;
+        } finally {
+            for (Flight flight : allFlights)
+                flight.unlock();
+        }
+    }
+
+    /**
+     * Adds a reservation to the system and to its client.
+     *
+     * @param user        the client.
+     * @param reservation the reservation.
+     */
+    private void addReservation(User user, Reservation reservation) {
         try {
             lockReservations.lock();
             reservationsById.put(reservation.id, reservation);
@@ -358,21 +1026,120 @@ public class AirportSystem implements IAirportSystem {
             lockReservations.unlock();
         }
         user.addReservation(reservation.id);
+    }
+
+    /**
+     * Reserves the flights holding their locks, taken in the global lock order, until the reservation is committed.
+     * The reservation is logged before it is added, under the locks, so it is always logged before it is cancelled
+     * and before any cancel that gave back the seats it took.
+     *
+     * @param user   the client.
+     * @param routes the routes in order of passage.
+     * @param start  the start date of the interval.
+     * @param end    the end date of the interval.
+     * @return the reservation, with the position it was logged at.
+     */
+    private Reserved reserveFlightPessimistic(User user, List<Route> routes, LocalDate start, LocalDate end)
+            throws BookingFlightsNotPossibleException {
+        Set<Flight> flights = getConnectedFlights(routes, start, end);
+        Reservation reservation = new Reservation(user, flights);
+        long position = logChange(reserveRecord(reservation));
+        addReservation(user, reservation);
 
         try {
             for (Flight flight : flights) {
-                flight.addReservation(reservation);
+                // The seat was already claimed and the flight can't be cancelled while we hold its lock.
+                flight.commitReservation(reservation);
             }
-        } catch (FullFlightException e) {
-            // Should not happen
-            throw new BookingFlightsNotPossibleException();
         } finally {
             for (Flight flight : flights) {
                 flight.unlock();
             }
         }
 
-        return reservation.id;
+        return new Reserved(reservation, position);
+    }
+
+    /**
+     * Reserves the flights without holding their locks across the legs.
+     * The seats are claimed with CAS on each flight's seat counter, which only succeeds while the
+     * flight isn't full. The reservation is then committed on each flight, what fails if the flight
+     * was cancelled meanwhile, in which case everything is rolled back and the search is retried.
+     * The reservation is logged before it is added, so it is always logged before it is cancelled.
+     * One rolled back is logged too, but the cancel of its day drops it when the log is replayed.
+     *
+     * @param user   the client.
+     * @param routes the routes in order of passage.
+     * @param start  the start date of the interval.
+     * @param end    the end date of the interval.
+     * @return the reservation, with the position it was logged at, or null if it couldn't be committed
+     * in {@link #MAX_OPTIMISTIC_ATTEMPTS} attempts.
+     */
+    private Reserved reserveFlightOptimistic(User user, List<Route> routes, LocalDate start, LocalDate end)
+            throws BookingFlightsNotPossibleException {
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_ATTEMPTS; attempt++) {
+            SortedSet<Flight> flights = getFlights(findCandidateFlights(routes, start, end));
+            if (flights == null)
+                continue;
+
+            List<Flight> claimed = new ArrayList<>(flights.size());
+            for (Flight flight : flights) {
+                if (!claimSeat(flight))
+                    break;
+                claimed.add(flight);
+            }
+            if (claimed.size() < flights.size()) {
+                claimed.forEach(this::releaseSeat);
+                continue;
+            }
+
+            Reservation reservation = new Reservation(user, flights);
+            long position = logChange(reserveRecord(reservation));
+            addReservation(user, reservation);
+
+            List<Flight> committed = new ArrayList<>(flights.size());
+            for (Flight flight : flights) {
+                if (!flight.commitReservation(reservation))
+                    break;
+                committed.add(flight);
+            }
+            if (committed.size() == flights.size() && containsReservation(reservation.id))
+                return new Reserved(reservation, position);
+
+            // A flight was cancelled meanwhile.
+            for (Flight flight : flights) {
+                if (!flight.removeReservation(reservation) && !committed.contains(flight))
+                    flight.releaseSeat();
+                refreshAvailability(flight);
+            }
+            removeReservation(user, reservation);
+        }
+        return null;
+    }
+
+    /**
+     * A reservation committed, with the position of its record in the log, or 0 if it wasn't logged.
+     */
+    private record Reserved(Reservation reservation, long position) {
+    }
+
+    private boolean containsReservation(UUID reservationId) {
+        try {
+            lockReservations.lock();
+            return reservationsById.containsKey(reservationId);
+        } finally {
+            lockReservations.unlock();
+        }
+    }
+
+    private void removeReservation(User user, Reservation reservation) {
+        try {
+            lockReservations.lock();
+            reservationsById.remove(reservation.id);
+        } finally {
+            lockReservations.unlock();
+        }
+        user.removeReservation(reservation.id);
     }
 
     /**
@@ -422,8 +1189,23 @@ public class AirportSystem implements IAirportSystem {
             }
         }
 
-        reservation.cancelReservation();
+        // The cancel is logged before the seats are given back, under the locks of the flights taken
+        // in the same order as a reservation takes them, so a reservation that takes one of the seats
+        // is always logged after the cancel.
+        SortedSet<Flight> flights = new TreeSet<>(FLIGHT_LOCK_ORDER);
+        flights.addAll(reservation.getFlights());
+        long position;
+        flights.forEach(Flight::lock);
+        try {
+            position = logChange(new LogRecord.CancelReservation(userName, reservationId));
+            for (Flight flight : flights)
+                flight.removeReservation(reservation);
+        } finally {
+            flights.forEach(Flight::unlock);
+        }
+        flights.forEach(this::refreshAvailability);
         user.removeReservation(reservationId);
+        awaitDurable(position);
         return reservation;
     }
 
@@ -445,34 +1227,43 @@ public class AirportSystem implements IAirportSystem {
      * @return all canceled @see airport.Reservation .
      */
     public Set<Reservation> cancelDay(LocalDate day) throws DayAlreadyCanceledException {
-        if (invalidDate(day))
+        if (!this.canceledDays.add(day))
             throw new DayAlreadyCanceledException(day);
+        this.canceledDaysBitmap.set(day, true);
 
-        try {
-            this.writeLockCanceledDays.lock();
-            this.canceledDays.add(day);
-        } finally {
-            this.writeLockCanceledDays.unlock();
+        Set<Reservation> canceledReservations = cancelFlightsOfDay(day);
+        // The cancel is logged before the seats of the other flights of the reservations are given back,
+        // so a reservation that takes one of them is always logged after the cancel.
+        long position = logChange(new LogRecord.CancelDay(day));
+        // Given back out of the locks of the flights of the day, so they are never held while locking others.
+        for (Reservation reservation : canceledReservations) {
+            reservation.cancelReservation();
+            reservation.getFlights().forEach(this::refreshAvailability);
         }
+        addNotificationsToUsers(canceledReservations);
+        awaitDurable(position);
+        return canceledReservations;
+    }
 
+    /**
+     * Cancels the flights of a day already marked as cancelled, and removes their reservations from the system.
+     *
+     * @param day the day.
+     * @return the reservations with a flight on the day, still holding the seats of their other flights.
+     */
+    private Set<Reservation> cancelFlightsOfDay(LocalDate day) {
         Set<Reservation> canceledReservations = new HashSet<>();
-        LockObject<Map<Route, Flight>> flightsOneDayWithLock;
+        LockObject<Map<Route, Flight>> flightsOneDayWithLock = this.flightsByDate.remove(day);
+        if (flightsOneDayWithLock == null)
+            return new HashSet<>();
         try {
-            this.lockFlightsByDate.lock();
-            flightsOneDayWithLock = this.flightsByDate.remove(day);
-            if (flightsOneDayWithLock == null)
-                return new HashSet<>();
-
             flightsOneDayWithLock.writeLock();
-        } finally {
-            this.lockFlightsByDate.unlock();
-        }
-        try {
             Map<Route, Flight> flightsOneDay = flightsOneDayWithLock.elem();
             if (flightsOneDay == null || flightsOneDay.isEmpty())
                 return new HashSet<>();
 
             List<Flight> flights = new ArrayList<>(flightsOneDay.values());
+            flights.sort(FLIGHT_LOCK_ORDER);
             if (!flights.isEmpty()) {
                 flights.forEach(Flight::lock);
                 try {
@@ -485,7 +1276,6 @@ public class AirportSystem implements IAirportSystem {
                 }
             }
             cancelReservation(canceledReservations);
-            addNotificationsToUsers(canceledReservations);
             return canceledReservations;
         } finally {
             flightsOneDayWithLock.writeUnlock();
@@ -500,30 +1290,109 @@ public class AirportSystem implements IAirportSystem {
     }
 
     /**
-     * Gets the existent routes.
+     * Archives the days before a cutoff and evicts their flights and reservations from the live state.
+     * <p>
+     * A day is only archived once every reservation with a flight on it has all its flights before the cutoff,
+     * so a reservation is archived whole; the other days are left for a later run. Bookings aren't held,
+     * since they can't be made for departed days: only the day being archived is locked.
+     * The reservations are appended to the history before being evicted, and the archive is logged,
+     * so replaying the log evicts them again. Their records stay in the log until it is truncated at a snapshot
+     * taken after the archive, with {@link WriteAheadLog#truncateBefore}.
      *
-     * @return the list of the existent routes.
+     * @param cutoff  the first day kept, not after today.
+     * @param history where the reservations are archived, or null to only evict them, as when replaying.
+     * @return what this run archived.
+     * @throws IOException if the history couldn't be written, in which case the day is kept.
      */
-    public List<Route> getRoutes() {
+    public RetentionStats archiveBefore(LocalDate cutoff, HistoryArchive history) throws IOException {
+        if (!replaying && cutoff.isAfter(LocalDate.now()))
+            throw new IllegalArgumentException("Only departed days can be archived, got " + cutoff);
+        try {
+            lockRetention.lock();
+            List<LocalDate> days = flightsByDate.keySet().stream()
+                    .filter(day -> day.isBefore(cutoff))
+                    .sorted()
+                    .toList();
+            long archivedDays = 0, archivedFlights = 0, archivedReservations = 0, historyBytes = 0;
+            for (LocalDate day : days) {
+                LockObject<Map<Route, Flight>> flightsOfDayWithLock = flightsByDate.get(day);
+                if (flightsOfDayWithLock == null)
+                    continue;
+                try {
+                    flightsOfDayWithLock.writeLock();
+                    Collection<Flight> flightsOfDay = flightsOfDayWithLock.elem().values();
+                    Set<Reservation> reservations = new HashSet<>();
+                    for (Flight flight : flightsOfDay)
+                        reservations.addAll(flight.getReservations());
+                    if (reservations.stream().anyMatch(reservation -> departsAfter(reservation, cutoff)))
+                        continue;
+
+                    // Reservations with flights on days archived before are already gone.
+                    List<Reservation> archived = reservations.stream()
+                            .filter(reservation -> containsReservation(reservation.id))
+                            .toList();
+                    if (history != null && !archived.isEmpty())
+                        historyBytes += history.append(day, archived.stream()
+                                .map(AirportSystem::reserveRecord)
+                                .toList());
+
+                    flightsByDate.remove(day, flightsOfDayWithLock);
+                    cancelReservation(new HashSet<>(archived));
+                    for (Reservation reservation : archived)
+                        reservation.client.removeReservation(reservation.id);
+                    archivedDays++;
+                    archivedFlights += flightsOfDay.size();
+                    archivedReservations += archived.size();
+                } finally {
+                    flightsOfDayWithLock.writeUnlock();
+                }
+            }
+            if (archivedDays > 0)
+                awaitDurable(logChange(new LogRecord.Archive(cutoff)));
+
+            RetentionStats run = new RetentionStats(archivedDays, archivedFlights, archivedReservations, historyBytes,
+                    archivedFlights * ESTIMATED_FLIGHT_BYTES + archivedReservations * ESTIMATED_RESERVATION_BYTES);
+            retentionStats = retentionStats.plus(run);
+            return run;
+        } finally {
+            lockRetention.unlock();
+        }
+    }
+
+    private static boolean departsAfter(Reservation reservation, LocalDate cutoff) {
+        return reservation.getFlights().stream().anyMatch(flight -> !flight.date.isBefore(cutoff));
+    }
+
+    /**
+     * @return what the retention archived so far.
+     */
+    public RetentionStats getRetentionStats() {
         try {
-            this.readLockConnections.lock();
-            return this.connectionsByCityOrig.values()
-                    .stream()
-                    .flatMap(e -> {
-                        try {
-                            e.readLock();
-                            var elems = e.elem().values();
-                            return elems.stream();
-                        } finally {
-                            e.readUnlock();
-                        }
-                    })
-                    .collect(Collectors.toList());
+            lockRetention.lock();
+            return retentionStats;
         } finally {
-            this.readLockConnections.unlock();
+            lockRetention.unlock();
         }
     }
 
+    /**
+     * Gets the existent routes.
+     *
+     * @return the list of the existent routes.
+     */
+    public List<Route> getRoutes() {
+        return this.routeGraph.get().getRoutes();
+    }
+
+    /**
+     * Gets the version of the routes, that changes every time a route is added.
+     *
+     * @return the version of the routes.
+     */
+    public long getRoutesVersion() {
+        return this.routeGraph.get().version;
+    }
+
     /**
      * Registers a user into the system.
      *
@@ -552,13 +1421,16 @@ public class AirportSystem implements IAirportSystem {
      */
     public User registerClient(String username, String password) throws UsernameAlreadyExistsException {
         User user = new Client(username, password);
+        long position;
         try {
             this.writeLockUser.lock();
             register(user);
-            return user;
+            position = logChange(new LogRecord.RegisterUser(username, user.getPasswordHash(), false));
         } finally {
             this.writeLockUser.unlock();
         }
+        awaitDurable(position);
+        return user;
     }
 
     /**
@@ -571,13 +1443,40 @@ public class AirportSystem implements IAirportSystem {
      */
     public User registerAdmin(String username, String password) throws UsernameAlreadyExistsException {
         User user = new Admin(username, password);
+        long position;
         try {
             this.writeLockUser.lock();
             register(user);
-            return user;
+            position = logChange(new LogRecord.RegisterUser(username, user.getPasswordHash(), true));
+        } finally {
+            this.writeLockUser.unlock();
+        }
+        awaitDurable(position);
+        return user;
+    }
+
+    /**
+     * Changes the password of a user.
+     *
+     * @param username    the username.
+     * @param newPassword the new password.
+     * @throws UserNotFoundException if the user doesn't exist.
+     */
+    public void changePassword(String username, String newPassword) throws UserNotFoundException {
+        User user = getUserById(username);
+        if (user == null)
+            throw new UserNotFoundException("User not found: " + username + " [username]");
+        // Hashed out of the lock, that only keeps the changes in the log in the order they were made.
+        String passwordHash = BCrypt.hashpw(newPassword, BCrypt.gensalt());
+        long position;
+        try {
+            this.writeLockUser.lock();
+            user.setPasswordHash(passwordHash);
+            position = logChange(new LogRecord.ChangePassword(username, passwordHash));
         } finally {
             this.writeLockUser.unlock();
         }
+        awaitDurable(position);
     }
 
     /**
@@ -637,57 +1536,284 @@ public class AirportSystem implements IAirportSystem {
     //    return this.reservationsById.get(resID);
     //}
 
-    public PossiblePath getPathsBetween(String from, String dest) throws RouteDoesntExistException {
-        try {
-            this.readLockConnections.lock();
-            if (destinationCitiesFrom(from.toUpperCase()).size() == 0) throw new RouteDoesntExistException();
+    public PossiblePath getPathsBetween(String from, String dest, int maxHops) throws RouteDoesntExistException {
+        return getCachedPathsBetween(from, dest, maxHops).paths();
+    }
 
-            PossiblePath possiblePath = getPathsBetweenAux(from.toUpperCase(), dest.toUpperCase(), 4);
-            if (possiblePath == null)
-                throw new RouteDoesntExistException(from, dest);
+    public byte[] getSerializedPathsBetween(String from, String dest, int maxHops) throws RouteDoesntExistException {
+        return getCachedPathsBetween(from, dest, maxHops).serialized();
+    }
 
-            return possiblePath;
-        } finally {
-            this.readLockConnections.unlock();
-        }
+    private PathCache.Entry getCachedPathsBetween(String from, String dest, int maxHops) throws RouteDoesntExistException {
+        checkMaxHops(maxHops);
+        String fromKey = from.toUpperCase();
+        String destKey = dest.toUpperCase();
+        PathCache.Entry entry = pathCache.get(fromKey, destKey, maxHops);
+        if (entry != null)
+            return entry;
+
+        RouteGraph snapshot = this.routeGraph.get();
+        PossiblePath paths = searchPathsBetween(snapshot.compact(), from, dest, maxHops);
+        return pathCache.put(fromKey, destKey, maxHops, snapshot.version, paths);
     }
 
-    private Set<String> destinationCitiesFrom(String origin) {
-        LockObject<Map<String, Route>> thisCity;
-        try {
-            readLockConnections.lock();
-            thisCity = connectionsByCityOrig.get(origin);
-            if (thisCity == null) return new TreeSet<>();
-            thisCity.readLock();
-        } finally {
-            readLockConnections.unlock();
-        }
-        try {
-            return new HashSet<>(thisCity.elem().keySet());
-        } finally {
-            thisCity.readUnlock();
-        }
+    /**
+     * @return the counters of the cache of path searches.
+     */
+    public PathCacheStats getPathCacheStats() {
+        return pathCache.stats();
     }
 
-    private PossiblePath getPathsBetweenAux(String from, String dest, int depth) {
-        // No city was found from this city.
-        if (depth == 0)
-            return null;
+    private PossiblePath searchPathsBetween(RouteGraph.CompactGraph graph, String from, String dest, int maxHops)
+            throws RouteDoesntExistException {
+        // The whole search runs on the same snapshot, even if routes are added meanwhile.
+        int fromId = graph.cityId(from.toUpperCase());
+        if (fromId < 0 || graph.firstRoute(fromId) == graph.endRoute(fromId)) throw new RouteDoesntExistException();
+
+        int destId = graph.cityId(dest.toUpperCase());
+        if (destId < 0 || maxHops < 1)
+            throw new RouteDoesntExistException(from, dest);
+        // A path without repeated cities never has more routes than that, and the depth below can't overflow.
+        maxHops = Math.min(maxHops, graph.numberCities() - 1);
+
+        // Cities that can't reach the destination in the routes left are never visited.
+        int[] hops = graph.hopsTo(destId, maxHops);
+        if (hops[fromId] > maxHops)
+            throw new RouteDoesntExistException(from, dest);
+
+        int depth = maxHops + 1;
+        return getPathsBetweenAux(graph, hops, new PossiblePath[depth + 1][], fromId, destId, depth);
+    }
+
+    /**
+     * Builds the paths from a city that can reach the destination.
+     * The paths from a city with the same depth left are the same wherever the city is reached from,
+     * so they are built only once and shared, making the result a DAG instead of a tree.
+     *
+     * @param graph the routes.
+     * @param hops  the least number of routes from each city to the destination.
+     * @param paths the paths already built, by depth and city.
+     * @param from  the city, that can reach the destination with less than depth routes.
+     * @param dest  the destination city.
+     * @param depth the number of cities the path can still have.
+     * @return the paths from the city.
+     */
+    private PossiblePath getPathsBetweenAux(RouteGraph.CompactGraph graph, int[] hops, PossiblePath[][] paths,
+                                            int from, int dest, int depth) {
+        if (paths[depth] == null)
+            paths[depth] = new PossiblePath[graph.numberCities()];
+        PossiblePath here = paths[depth][from];
+        if (here != null)
+            return here;
+
         // A connection was possible.
-        if (from.equals(dest))
-            return new PossiblePath(true, from);
-        Set<String> connectedCitiesFromHere = destinationCitiesFrom(from);
-        PossiblePath here = new PossiblePath(false, from);
-        for (String city : connectedCitiesFromHere) {
-            PossiblePath res = getPathsBetweenAux(city, dest, depth - 1);
-            if (res != null) {
-                here.addPossiblePath(res);
+        if (from == dest) {
+            here = new PossiblePath(true, graph.cityName(from));
+        } else {
+            here = new PossiblePath(false, graph.cityName(from));
+            for (int route = graph.firstRoute(from), end = graph.endRoute(from); route < end; route++) {
+                int city = graph.target(route);
+                if (hops[city] <= depth - 2)
+                    here.addPossiblePath(getPathsBetweenAux(graph, hops, paths, city, dest, depth - 1));
             }
         }
-        if (here.numPossiblePaths() == 0)
-            return null;
+        paths[depth][from] = here;
         return here;
+    }
+
+    public List<Itinerary> getBestPaths(String from, String dest, int maxHops, int k, LocalDate start, LocalDate end)
+            throws RouteDoesntExistException, InvalidDateException {
+        checkMaxHops(maxHops);
+        if (k < 1)
+            throw new IllegalArgumentException("Invalid number of itineraries: " + k);
+        k = Math.min(k, MAX_ITINERARIES);
+        boolean rankByDate = start != null && end != null;
+        if (rankByDate)
+            checkInterval(start, end);
+
+        RouteGraph snapshot = this.routeGraph.get();
+        RouteGraph.CompactGraph graph = snapshot.compact();
+        int fromId = graph.cityId(from.toUpperCase());
+        int destId = graph.cityId(dest.toUpperCase());
+        if (fromId < 0 || destId < 0 || fromId == destId || maxHops < 1)
+            throw new RouteDoesntExistException(from, dest);
+        maxHops = boundHops(graph, maxHops);
+
+        int[] hops = graph.hopsTo(destId, maxHops);
+        List<Itinerary> best = new ArrayList<>(k);
+        int examined = 0;
+
+        // Itineraries are found by increasing number of routes, so the search stops
+        // as soon as k are found, without looking at longer ones.
+        for (int length = hops[fromId]; length <= maxHops && best.size() < k && examined < MAX_PATHS_EXAMINED; length++) {
+            // When ranking by date, every itinerary of this length is needed to know the best ones,
+            // up to the number of paths the search can still look at.
+            int limit = rankByDate ? MAX_PATHS_EXAMINED - examined : k - best.size();
+            List<int[]> paths = findPathsWithLength(graph, hops, fromId, destId, length, limit);
+            examined += paths.size();
+            List<Itinerary> itineraries = new ArrayList<>(paths.size());
+            for (int[] path : paths) {
+                List<String> cities = cityNames(graph, path);
+                List<LocalDate> dates = rankByDate ? earliestDates(snapshot, cities, start, end) : null;
+                itineraries.add(new Itinerary(cities, dates == null ? List.of() : dates));
+            }
+            if (rankByDate)
+                itineraries.sort(Comparator.comparing(Itinerary::getDeparture,
+                        Comparator.nullsLast(Comparator.naturalOrder())));
+            for (int i = 0; i < itineraries.size() && best.size() < k; i++)
+                best.add(itineraries.get(i));
+        }
+
+        if (best.isEmpty())
+            throw new RouteDoesntExistException(from, dest);
+        return best;
+    }
+
+    public List<Itinerary> getAvailableItineraries(String from, String dest, int maxHops, LocalDate start, LocalDate end)
+            throws RouteDoesntExistException, InvalidDateException {
+        checkMaxHops(maxHops);
+        checkInterval(start, end);
+        RouteGraph snapshot = this.routeGraph.get();
+        RouteGraph.CompactGraph graph = snapshot.compact();
+        int fromId = graph.cityId(from.toUpperCase());
+        int destId = graph.cityId(dest.toUpperCase());
+        if (fromId < 0 || destId < 0 || fromId == destId || maxHops < 1)
+            throw new RouteDoesntExistException(from, dest);
+        maxHops = boundHops(graph, maxHops);
+
+        int[] hops = graph.hopsTo(destId, maxHops);
+        if (hops[fromId] > maxHops)
+            throw new RouteDoesntExistException(from, dest);
+
+        // Shorter itineraries are looked at first, up to the number of paths a search can look at.
+        List<Itinerary> available = new ArrayList<>();
+        int examined = 0;
+        for (int length = hops[fromId]; length <= maxHops && examined < MAX_PATHS_EXAMINED; length++) {
+            List<int[]> paths = findPathsWithLength(graph, hops, fromId, destId, length, MAX_PATHS_EXAMINED - examined);
+            examined += paths.size();
+            for (int[] path : paths) {
+                List<String> cities = cityNames(graph, path);
+                List<LocalDate> dates = earliestDates(snapshot, cities, start, end);
+                if (dates != null)
+                    available.add(new Itinerary(cities, dates));
+            }
+        }
+        available.sort(Comparator.comparing(Itinerary::getArrival).thenComparingInt(Itinerary::hops));
+        return available.size() > MAX_ITINERARIES ? new ArrayList<>(available.subList(0, MAX_ITINERARIES)) : available;
+    }
+
+    /**
+     * Checks that a date interval can be booked: it doesn't start in the past nor end before it starts.
+     *
+     * @param start the start date of the interval.
+     * @param end   the end date of the interval.
+     * @throws InvalidDateException if the interval can't be booked.
+     */
+    private static void checkInterval(LocalDate start, LocalDate end) throws InvalidDateException {
+        if (start.isBefore(LocalDate.now()) || end.isBefore(start))
+            throw new InvalidDateException(start, end);
+    }
+
+    /**
+     * @param maxHops the maximum number of routes of a search, as asked for.
+     * @throws IllegalArgumentException if it is negative.
+     */
+    private static void checkMaxHops(int maxHops) {
+        if (maxHops < 0)
+            throw new IllegalArgumentException("Invalid maximum number of routes: " + maxHops);
+    }
+
+    /**
+     * Bounds the number of routes of a search of itineraries to {@link #MAX_HOPS},
+     * and to the most routes a path without repeated cities can have.
+     *
+     * @param graph   the routes.
+     * @param maxHops the maximum number of routes asked for, not negative.
+     * @return the maximum number of routes to search.
+     */
+    private static int boundHops(RouteGraph.CompactGraph graph, int maxHops) {
+        return Math.min(maxHops, Math.min(MAX_HOPS, graph.numberCities() - 1));
+    }
+
+    /**
+     * Finds the paths without repeated cities, with exactly the given number of routes, that reach the destination.
+     *
+     * @param graph  the routes.
+     * @param hops   the least number of routes from each city to the destination.
+     * @param from   the origin city.
+     * @param dest   the destination city.
+     * @param length the number of routes of the paths.
+     * @param limit  the maximum number of paths to find.
+     * @return the paths, as the ids of the cities in order of passage.
+     */
+    private List<int[]> findPathsWithLength(RouteGraph.CompactGraph graph, int[] hops, int from, int dest,
+                                            int length, int limit) {
+        List<int[]> paths = new ArrayList<>();
+        int[] path = new int[length + 1];
+        path[0] = from;
+        boolean[] visited = new boolean[graph.numberCities()];
+        visited[from] = true;
+        findPathsWithLengthAux(graph, hops, path, 0, visited, dest, paths, limit);
+        return paths;
+    }
+
+    /**
+     * Extends a path, without repeating cities, until it has path.length - 1 routes and reaches the destination.
+     *
+     * @param graph   the routes.
+     * @param hops    the least number of routes from each city to the destination.
+     * @param path    the cities of the path so far.
+     * @param last    the position of the last city of the path so far.
+     * @param visited the cities in the path so far.
+     * @param dest    the destination city.
+     * @param paths   where the paths found are added.
+     * @param limit   the maximum number of paths to find.
+     */
+    private void findPathsWithLengthAux(RouteGraph.CompactGraph graph, int[] hops, int[] path, int last,
+                                        boolean[] visited, int dest, List<int[]> paths, int limit) {
+        int from = path[last];
+        int left = path.length - 1 - last;
+        if (left == 0) {
+            if (from == dest)
+                paths.add(path.clone());
+            return;
+        }
+        for (int route = graph.firstRoute(from), end = graph.endRoute(from); route < end && paths.size() < limit; route++) {
+            int city = graph.target(route);
+            if (visited[city] || hops[city] > left - 1 || (city == dest && left > 1))
+                continue;
+            visited[city] = true;
+            path[last + 1] = city;
+            findPathsWithLengthAux(graph, hops, path, last + 1, visited, dest, paths, limit);
+            visited[city] = false;
+        }
+    }
+
+    private static List<String> cityNames(RouteGraph.CompactGraph graph, int[] path) {
+        List<String> cities = new ArrayList<>(path.length);
+        for (int city : path)
+            cities.add(graph.cityName(city));
+        return cities;
+    }
 
+    /**
+     * Finds, without creating flights, the earliest day of each flight of the itinerary with seats on every flight.
+     *
+     * @param graph  the routes.
+     * @param cities the cities in order of passage.
+     * @param start  the start date of the interval.
+     * @param end    the end date of the interval.
+     * @return the day of each flight, in order of passage, or null if there aren't seats in the interval.
+     */
+    private List<LocalDate> earliestDates(RouteGraph graph, List<String> cities, LocalDate start, LocalDate end) {
+        try {
+            List<Route> routes = new ArrayList<>(cities.size() - 1);
+            for (int i = 1; i < cities.size(); i++)
+                routes.add(graph.getRoute(cities.get(i - 1), cities.get(i)));
+            return findCandidateDates(routes, start, end);
+        } catch (RouteDoesntExistException | BookingFlightsNotPossibleException e) {
+            return null;
+        }
     }
 
     // public static void main(String[] args) throws RouteAlreadyExistsException, RouteDoesntExistException {
@@ -739,4 +1865,41 @@ public class AirportSystem implements IAirportSystem {
     public long numberClients() {
         return usersById.values().stream().filter(user -> user instanceof Client).count();
     }
+
+    /**
+     * Used in tests and to monitor the memory used by flights.
+     *
+     * @return number of flights in the system.
+     */
+    public long numberFlights() {
+        return countFlights(flight -> true);
+    }
+
+    /**
+     * Used in tests and to monitor the memory used by flights.
+     *
+     * @return number of flights in the system without any reservation.
+     */
+    public long numberEmptyFlights() {
+        return countFlights(flight -> flight.getReservations().isEmpty());
+    }
+
+    private long countFlights(Predicate<Flight> predicate) {
+        long count = 0;
+        for (LockObject<Map<Route, Flight>> day : flightsByDate.values()) {
+            try {
+                day.readLock();
+                count += day.elem().values().stream().filter(predicate).count();
+            } finally {
+                day.readUnlock();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The flight of a route in a given day, that may not have been created yet.
+     */
+    private record Leg(Route route, LocalDate date) {
+    }
 }
@@ -0,0 +1,106 @@
+package system;
+
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Set of days stored as a bitmap indexed by the epoch day, used to quickly find the next day not in the set.
+ * Days before the day this bitmap was created are never marked, since nothing can be booked in the past.
+ */
+class DayBitmap {
+
+    /**
+     * Epoch day of the first bit.
+     */
+    private final long firstEpochDay;
+
+    private final BitSet days;
+    private final Lock readLock;
+    private final Lock writeLock;
+
+    DayBitmap() {
+        this.firstEpochDay = LocalDate.now().toEpochDay();
+        this.days = new BitSet();
+        ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+        this.readLock = rw.readLock();
+        this.writeLock = rw.writeLock();
+    }
+
+    private int index(LocalDate day) {
+        long index = day.toEpochDay() - firstEpochDay;
+        if (index > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Day too far away: " + day);
+        return (int) index;
+    }
+
+    /**
+     * Marks or clears a day.
+     *
+     * @param day    the day.
+     * @param marked true to add the day to the set.
+     */
+    void set(LocalDate day, boolean marked) {
+        int index = index(day);
+        if (index < 0)
+            return;
+        try {
+            writeLock.lock();
+            days.set(index, marked);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Marks or clears a day, reading its state while holding this bitmap's lock.
+     * Since the state is read after any change that preceded the call, the last update
+     * of a day always leaves it consistent, whatever the order the updates were done in.
+     *
+     * @param day    the day.
+     * @param marked supplies whether the day should be marked.
+     */
+    void refresh(LocalDate day, BooleanSupplier marked) {
+        int index = index(day);
+        if (index < 0)
+            return;
+        try {
+            writeLock.lock();
+            days.set(index, marked.getAsBoolean());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    boolean contains(LocalDate day) {
+        int index = index(day);
+        if (index < 0)
+            return false;
+        try {
+            readLock.lock();
+            return days.get(index);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Days before the first day of this bitmap are never marked, so the searches must not start in the past.
+     *
+     * @param from the first day to consider.
+     * @return the first day, equal or after the given one, that isn't marked.
+     */
+    LocalDate nextClearDay(LocalDate from) {
+        int index = index(from);
+        if (index < 0)
+            return from;
+        try {
+            readLock.lock();
+            return from.plusDays(days.nextClearBit(index) - index);
+        } finally {
+            readLock.unlock();
+        }
+    }
+}
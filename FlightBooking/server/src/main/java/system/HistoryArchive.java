@@ -0,0 +1,141 @@
+package system;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file with the reservations of the days that have departed, evicted from the live state.
+ * <p>
+ * Each day archived is a block: its length, the CRC32 of its bytes, the day, the number of reservations
+ * and each reservation as a {@link LogRecord.Reserve}. A block cut short by a crash is dropped when the
+ * archive is opened. A day may be archived in more than one block, if some of its reservations had flights
+ * after the cutoff of a run, and a reservation may be archived twice if the server crashed after it was
+ * archived but before the archive was logged, so readers should tell reservations apart by their id.
+ */
+public class HistoryArchive implements Closeable {
+    private static final Logger logger = LogManager.getLogger(HistoryArchive.class);
+
+    private final FileChannel channel;
+
+    private HistoryArchive(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Opens an archive, creating the file if it doesn't exist.
+     *
+     * @param path the file.
+     * @return the archive, positioned after the last whole block.
+     * @throws IOException if the file couldn't be opened or read.
+     */
+    public static HistoryArchive open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long validEnd = 0;
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+            while (channel.read(header.clear(), validEnd) == header.capacity()) {
+                long end = validEnd + header.capacity() + header.getInt(0);
+                if (header.getInt(0) <= 0 || end > channel.size())
+                    break;
+                validEnd = end;
+            }
+            if (validEnd < channel.size()) {
+                logger.warn("Dropping {} bytes after the last whole block of the history", channel.size() - validEnd);
+                channel.truncate(validEnd);
+                channel.force(true);
+            }
+            channel.position(validEnd);
+            return new HistoryArchive(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the reservations of a day and syncs them.
+     *
+     * @param day          the day.
+     * @param reservations the reservations.
+     * @return the number of bytes appended.
+     * @throws IOException if they couldn't be written.
+     */
+    public long append(LocalDate day, List<LogRecord.Reserve> reservations) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(day.toEpochDay());
+        out.writeInt(reservations.size());
+        for (LogRecord.Reserve reservation : reservations)
+            reservation.write(out);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+
+        ByteBuffer block = ByteBuffer.allocate(2 * Integer.BYTES + bytes.size());
+        block.putInt(bytes.size()).putInt((int) crc.getValue()).put(bytes.toByteArray()).flip();
+        while (block.hasRemaining())
+            channel.write(block);
+        channel.force(false);
+        return block.capacity();
+    }
+
+    /**
+     * @return the size of the archive, in bytes.
+     * @throws IOException if the size couldn't be read.
+     */
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Reads the reservations archived, in the order they were archived.
+     *
+     * @param path the file.
+     * @return the reservations.
+     * @throws IOException if the file couldn't be read, or a block doesn't match its CRC.
+     */
+    public static List<LogRecord.Reserve> read(Path path) throws IOException {
+        List<LogRecord.Reserve> reservations = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return reservations;
+                }
+                int checksum = in.readInt();
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                crc.reset();
+                crc.update(bytes);
+                if ((int) crc.getValue() != checksum)
+                    throw new IOException("Corrupt block in the history: " + path);
+
+                DataInputStream block = new DataInputStream(new ByteArrayInputStream(bytes));
+                block.readLong();
+                int count = block.readInt();
+                for (int i = 0; i < count; i++)
+                    reservations.add((LogRecord.Reserve) LogRecord.read(block));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
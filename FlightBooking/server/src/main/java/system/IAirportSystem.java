@@ -1,5 +1,8 @@
 package system;
 
+import airport.Booking;
+import airport.BookingResult;
+import airport.Itinerary;
 import airport.PossiblePath;
 import airport.Reservation;
 import airport.Route;
@@ -15,6 +18,22 @@ import java.util.UUID;
 
 public interface IAirportSystem {
 
+    /**
+     * Maximum number of routes of the paths returned by {@link #getPathsBetween(String, String)}.
+     */
+    int DEFAULT_MAX_HOPS = 3;
+
+    /**
+     * Maximum number of routes of the itineraries searched, whatever the number asked for.
+     * The itineraries are all the paths without repeated cities, so their number grows exponentially with it.
+     */
+    int MAX_HOPS = 8;
+
+    /**
+     * Maximum number of itineraries returned by a search, whatever the number asked for.
+     */
+    int MAX_ITINERARIES = 100;
+
     /**
      * Adds a new route into the system.
      *
@@ -50,6 +69,29 @@ public interface IAirportSystem {
     UUID reserveFlight(String userName, List<String> cities, LocalDate start, LocalDate end)
             throws BookingFlightsNotPossibleException, RouteDoesntExistException, UserNotFoundException, InvalidDateException;
 
+    /**
+     * Reserves many bookings at once, each one like {@link #reserveFlight}.
+     * Each booking is reserved whole or not at all. If all-or-nothing, either every booking is reserved
+     * or none is.
+     *
+     * @param userName     the user's name.
+     * @param bookings     the bookings.
+     * @param allOrNothing true to reserve no booking if some booking can't be reserved.
+     * @return the result of each booking, in the same order.
+     * @throws UserNotFoundException if the user doesn't exist.
+     */
+    List<BookingResult> reserveFlights(String userName, List<Booking> bookings, boolean allOrNothing)
+            throws UserNotFoundException;
+
+    /**
+     * Changes the password of a user.
+     *
+     * @param username    the username.
+     * @param newPassword the new password.
+     * @throws UserNotFoundException if the user doesn't exist.
+     */
+    void changePassword(String username, String newPassword) throws UserNotFoundException;
+
     /**
      * Cancels a flight.
      *
@@ -70,7 +112,88 @@ public interface IAirportSystem {
      */
     List<Route> getRoutes();
 
-    PossiblePath getPathsBetween(String from, String dest) throws RouteDoesntExistException;
+    /**
+     * Gets the version of the routes, that changes every time a route is added.
+     * Clients can compare it with the version of their cached routes to know if they are stale.
+     *
+     * @return the version of the routes.
+     */
+    long getRoutesVersion();
+
+    /**
+     * Gets every path between two cities, with up to {@link #DEFAULT_MAX_HOPS} routes.
+     *
+     * @param from the origin city.
+     * @param dest the destination city.
+     * @return the paths.
+     * @throws RouteDoesntExistException if there is no path.
+     */
+    default PossiblePath getPathsBetween(String from, String dest) throws RouteDoesntExistException {
+        return getPathsBetween(from, dest, DEFAULT_MAX_HOPS);
+    }
+
+    /**
+     * Gets every path between two cities, with up to the given number of routes.
+     *
+     * @param from    the origin city.
+     * @param dest    the destination city.
+     * @param maxHops the maximum number of routes of a path.
+     * @return the paths.
+     * @throws RouteDoesntExistException if there is no path.
+     * @throws IllegalArgumentException  if maxHops is negative.
+     */
+    PossiblePath getPathsBetween(String from, String dest, int maxHops) throws RouteDoesntExistException;
+
+    /**
+     * Gets every path between two cities, with up to the given number of routes, already serialized.
+     *
+     * @param from    the origin city.
+     * @param dest    the destination city.
+     * @param maxHops the maximum number of routes of a path.
+     * @return the serialized paths.
+     * @throws RouteDoesntExistException if there is no path.
+     * @throws IllegalArgumentException  if maxHops is negative.
+     */
+    default byte[] getSerializedPathsBetween(String from, String dest, int maxHops) throws RouteDoesntExistException {
+        return getPathsBetween(from, dest, maxHops).serialize();
+    }
+
+    /**
+     * Gets the k best itineraries between two cities, without repeated cities.
+     * They are ranked by number of routes and, if a date interval is given, by the earliest day
+     * in the interval with seats on every flight. Itineraries without seats in the interval come last.
+     *
+     * @param from    the origin city.
+     * @param dest    the destination city.
+     * @param maxHops the maximum number of routes of an itinerary, up to {@link #MAX_HOPS}.
+     * @param k       the maximum number of itineraries, up to {@link #MAX_ITINERARIES}.
+     * @param start   the start date of the interval, or null to rank only by number of routes.
+     * @param end     the end date of the interval, or null to rank only by number of routes.
+     * @return the itineraries, best first.
+     * @throws RouteDoesntExistException if there is no itinerary.
+     * @throws InvalidDateException      if the interval starts in the past or ends before it starts.
+     * @throws IllegalArgumentException  if maxHops is negative or k isn't positive.
+     */
+    List<Itinerary> getBestPaths(String from, String dest, int maxHops, int k, LocalDate start, LocalDate end)
+            throws RouteDoesntExistException, InvalidDateException;
+
+    /**
+     * Gets the itineraries between two cities, without repeated cities, that have seats on every flight
+     * in a date interval, with the earliest day of each flight.
+     * Each flight is on the same day as the one before or later.
+     *
+     * @param from    the origin city.
+     * @param dest    the destination city.
+     * @param maxHops the maximum number of routes of an itinerary, up to {@link #MAX_HOPS}.
+     * @param start   the start date of the interval.
+     * @param end     the end date of the interval.
+     * @return up to {@link #MAX_ITINERARIES} itineraries with seats, by earliest arrival and then by number of routes.
+     * @throws RouteDoesntExistException if there is no itinerary, with or without seats.
+     * @throws InvalidDateException      if the interval starts in the past or ends before it starts.
+     * @throws IllegalArgumentException  if maxHops is negative.
+     */
+    List<Itinerary> getAvailableItineraries(String from, String dest, int maxHops, LocalDate start, LocalDate end)
+            throws RouteDoesntExistException, InvalidDateException;
 
     /**
      * @param username the name of the user
@@ -0,0 +1,146 @@
+package system;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A change to the state of the {@link AirportSystem}, as written to the {@link WriteAheadLog}.
+ * <p>
+ * Records hold the outcome of each change, not the request that made it: a reservation has the flights
+ * it got, so replaying the log gives back the same state whatever else was happening when it was made.
+ */
+public sealed interface LogRecord {
+
+    byte REGISTER_USER = 1;
+    byte ADD_ROUTE = 2;
+    byte RESERVE = 3;
+    byte CANCEL_RESERVATION = 4;
+    byte CANCEL_DAY = 5;
+    byte CHANGE_PASSWORD = 6;
+    byte ARCHIVE = 7;
+
+    /**
+     * A user registered.
+     *
+     * @param passwordHash the hash of the password, never the password itself.
+     */
+    record RegisterUser(String username, String passwordHash, boolean admin) implements LogRecord {
+    }
+
+    record AddRoute(String origin, String destination, int capacity) implements LogRecord {
+    }
+
+    /**
+     * A reservation made, with the flight of each route.
+     * The capacity of each route is kept so the reservation can be replayed before the route itself,
+     * since a route is used as soon as it is added, possibly before it is logged.
+     */
+    record Reserve(UUID reservationId, String username, List<Leg> legs) implements LogRecord {
+    }
+
+    record Leg(String origin, String destination, int capacity, LocalDate date) {
+    }
+
+    record CancelReservation(String username, UUID reservationId) implements LogRecord {
+    }
+
+    record CancelDay(LocalDate day) implements LogRecord {
+    }
+
+    record ChangePassword(String username, String passwordHash) implements LogRecord {
+    }
+
+    /**
+     * The days before a cutoff archived, and their reservations evicted from the live state.
+     */
+    record Archive(LocalDate before) implements LogRecord {
+    }
+
+    /**
+     * Writes the record, starting with its type.
+     *
+     * @param out where the record is written.
+     * @throws IOException if it couldn't be written.
+     */
+    default void write(DataOutputStream out) throws IOException {
+        if (this instanceof RegisterUser r) {
+            out.writeByte(REGISTER_USER);
+            out.writeUTF(r.username());
+            out.writeUTF(r.passwordHash());
+            out.writeBoolean(r.admin());
+        } else if (this instanceof AddRoute r) {
+            out.writeByte(ADD_ROUTE);
+            out.writeUTF(r.origin());
+            out.writeUTF(r.destination());
+            out.writeInt(r.capacity());
+        } else if (this instanceof Reserve r) {
+            out.writeByte(RESERVE);
+            out.writeLong(r.reservationId().getMostSignificantBits());
+            out.writeLong(r.reservationId().getLeastSignificantBits());
+            out.writeUTF(r.username());
+            out.writeInt(r.legs().size());
+            for (Leg leg : r.legs()) {
+                out.writeUTF(leg.origin());
+                out.writeUTF(leg.destination());
+                out.writeInt(leg.capacity());
+                out.writeLong(leg.date().toEpochDay());
+            }
+        } else if (this instanceof CancelReservation r) {
+            out.writeByte(CANCEL_RESERVATION);
+            out.writeUTF(r.username());
+            out.writeLong(r.reservationId().getMostSignificantBits());
+            out.writeLong(r.reservationId().getLeastSignificantBits());
+        } else if (this instanceof CancelDay r) {
+            out.writeByte(CANCEL_DAY);
+            out.writeLong(r.day().toEpochDay());
+        } else if (this instanceof ChangePassword r) {
+            out.writeByte(CHANGE_PASSWORD);
+            out.writeUTF(r.username());
+            out.writeUTF(r.passwordHash());
+        } else if (this instanceof Archive r) {
+            out.writeByte(ARCHIVE);
+            out.writeLong(r.before().toEpochDay());
+        }
+    }
+
+    /**
+     * Reads a record written by {@link #write}.
+     *
+     * @param in where the record is read from.
+     * @return the record.
+     * @throws IOException if it couldn't be read, or has an unknown type.
+     */
+    static LogRecord read(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case REGISTER_USER:
+                return new RegisterUser(in.readUTF(), in.readUTF(), in.readBoolean());
+            case ADD_ROUTE:
+                return new AddRoute(in.readUTF(), in.readUTF(), in.readInt());
+            case RESERVE: {
+                UUID id = new UUID(in.readLong(), in.readLong());
+                String username = in.readUTF();
+                int size = in.readInt();
+                List<Leg> legs = new ArrayList<>(Math.min(size, 64));
+                for (int i = 0; i < size; i++)
+                    legs.add(new Leg(in.readUTF(), in.readUTF(), in.readInt(), LocalDate.ofEpochDay(in.readLong())));
+                return new Reserve(id, username, legs);
+            }
+            case CANCEL_RESERVATION:
+                return new CancelReservation(in.readUTF(), new UUID(in.readLong(), in.readLong()));
+            case CANCEL_DAY:
+                return new CancelDay(LocalDate.ofEpochDay(in.readLong()));
+            case CHANGE_PASSWORD:
+                return new ChangePassword(in.readUTF(), in.readUTF());
+            case ARCHIVE:
+                return new Archive(LocalDate.ofEpochDay(in.readLong()));
+            default:
+                throw new IOException("Unknown log record type: " + type);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package system;
+
+import airport.PossiblePath;
+import airport.Route;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Least recently used cache of the paths between two cities, keyed by origin, destination and maximum number of routes.
+ * <p>
+ * Adding a route only records it. An entry found on an older snapshot is checked against the routes added since,
+ * the next time it is read, and only removed if it could have a new path through one of them.
+ * That check runs out of the lock of the cache, so adding many routes doesn't hold the readers of the cache.
+ */
+class PathCache {
+
+    /**
+     * Maximum number of routes added that are kept to check the entries against.
+     * Entries older than the routes kept are removed the next time they are read.
+     */
+    static final int MAX_ROUTES_ADDED = 32;
+
+    private final int capacity;
+    private final LinkedHashMap<Key, Entry> entries;
+    private final Lock lock;
+
+    /**
+     * Routes added, by the version of the snapshot they were added in.
+     */
+    private final TreeMap<Long, RouteAdded> routesAdded;
+
+    /**
+     * Version up to which the routes added are no longer kept.
+     */
+    private long forgottenVersion;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param capacity the maximum number of entries. If zero, nothing is cached.
+     */
+    PathCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() <= PathCache.this.capacity)
+                    return false;
+                evictions++;
+                return true;
+            }
+        };
+        this.lock = new ReentrantLock();
+        this.routesAdded = new TreeMap<>();
+        this.forgottenVersion = 0;
+    }
+
+    /**
+     * Gets the cached paths, checking them first against the routes added since they were found.
+     *
+     * @param from    the upper-cased origin city.
+     * @param dest    the upper-cased destination city.
+     * @param maxHops the maximum number of routes of a path.
+     * @return the cached paths, or null if they aren't cached or may be stale.
+     */
+    Entry get(String from, String dest, int maxHops) {
+        Key key = new Key(from, dest, maxHops);
+        Entry entry;
+        List<RouteAdded> added;
+        try {
+            lock.lock();
+            entry = entries.get(key);
+            added = entry == null ? null : routesAddedSince(entry.version);
+            if (entry == null || (added != null && added.isEmpty())) {
+                if (entry != null) hits++;
+                else misses++;
+                return entry;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        boolean stale = added == null || added.stream().anyMatch(route -> route.mayAddPath(key));
+
+        try {
+            lock.lock();
+            Entry checked = null;
+            if (entries.get(key) == entry) {
+                if (stale) {
+                    entries.remove(key);
+                    invalidations++;
+                } else {
+                    checked = new Entry(entry.paths, entry.serialized, added.get(added.size() - 1).version);
+                    entries.put(key, checked);
+                }
+            } else if (!stale) {
+                checked = entry;
+            }
+            if (checked != null) hits++;
+            else misses++;
+            return checked;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param version the version of the snapshot an entry was found on.
+     * @return the routes added in the versions after it, in order and with no version missing,
+     * or null if some of them are no longer kept.
+     */
+    private List<RouteAdded> routesAddedSince(long version) {
+        if (version < forgottenVersion)
+            return null;
+        List<RouteAdded> added = new ArrayList<>();
+        // A route may be recorded a bit after a later one, so the ones after a missing version are checked later.
+        for (long next = version + 1; routesAdded.containsKey(next); next++)
+            added.add(routesAdded.get(next));
+        return added;
+    }
+
+    /**
+     * Caches the paths found on a route graph snapshot.
+     *
+     * @param from    the upper-cased origin city.
+     * @param dest    the upper-cased destination city.
+     * @param maxHops the maximum number of routes of a path.
+     * @param version the version of the snapshot the paths were found on.
+     * @param paths   the paths.
+     * @return the entry, that is returned even if the paths are too old to be cached.
+     */
+    Entry put(String from, String dest, int maxHops, long version, PossiblePath paths) {
+        Entry entry = new Entry(paths, paths.serialize(), version);
+        try {
+            lock.lock();
+            if (version >= forgottenVersion && capacity > 0)
+                entries.put(new Key(from, dest, maxHops), entry);
+        } finally {
+            lock.unlock();
+        }
+        return entry;
+    }
+
+    /**
+     * Records a route just added, to check the entries against it when they are read.
+     *
+     * @param graph the snapshot with the route.
+     * @param route the route added.
+     */
+    void invalidate(RouteGraph graph, Route route) {
+        try {
+            lock.lock();
+            if (entries.isEmpty() && routesAdded.isEmpty()) {
+                // Nothing cached can be older than this snapshot.
+                forgottenVersion = Math.max(forgottenVersion, graph.version);
+                return;
+            }
+            routesAdded.put(graph.version, new RouteAdded(graph, route));
+            while (routesAdded.size() > MAX_ROUTES_ADDED)
+                forgottenVersion = Math.max(forgottenVersion, routesAdded.pollFirstEntry().getKey());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    PathCacheStats stats() {
+        try {
+            lock.lock();
+            return new PathCacheStats(hits, misses, evictions, invalidations, entries.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cached paths, along with their serialized form so they don't need to be serialized for every client.
+     *
+     * @param version the version of the last snapshot the paths are known to be up to date with.
+     */
+    record Entry(PossiblePath paths, byte[] serialized, long version) {
+    }
+
+    private record Key(String from, String dest, int maxHops) {
+    }
+
+    /**
+     * A route added, with the snapshot it was added in.
+     * The number of routes to and from it are only computed when an entry is first checked against it.
+     */
+    private static final class RouteAdded {
+
+        final long version;
+        private final RouteGraph graph;
+        private final Route route;
+
+        /**
+         * Least number of routes from each city to the origin of the route and from its destination to each city,
+         * up to {@link Hops#maxHops}.
+         */
+        private volatile Hops hops;
+
+        RouteAdded(RouteGraph graph, Route route) {
+            this.version = graph.version;
+            this.graph = graph;
+            this.route = route;
+            this.hops = null;
+        }
+
+        /**
+         * A new path from o to d with at most h routes exists only if
+         * hops(o, origin of the route) + 1 + hops(destination of the route, d) <= h.
+         *
+         * @param key the entry.
+         * @return true if the entry may have a new path through this route.
+         */
+        boolean mayAddPath(Key key) {
+            RouteGraph.CompactGraph compact = graph.compact();
+            int from = compact.cityId(key.from);
+            int dest = compact.cityId(key.dest);
+            if (from < 0 || dest < 0)
+                return false;
+
+            Hops known = hops;
+            if (known == null || known.maxHops < key.maxHops - 1) {
+                int maxHops = Math.max(key.maxHops - 1, known == null ? 0 : known.maxHops);
+                known = new Hops(maxHops,
+                        compact.hopsTo(compact.cityId(route.origin.toUpperCase()), maxHops),
+                        compact.hopsFrom(compact.cityId(route.destination.toUpperCase()), maxHops));
+                hops = known;
+            }
+            int before = known.toOrigin[from];
+            int after = known.fromDestination[dest];
+            return before != RouteGraph.CompactGraph.UNREACHABLE && after != RouteGraph.CompactGraph.UNREACHABLE
+                    && (long) before + 1 + after <= key.maxHops;
+        }
+    }
+
+    private record Hops(int maxHops, int[] toOrigin, int[] fromDestination) {
+    }
+}
@@ -0,0 +1,13 @@
+package system;
+
+/**
+ * Counters of the cache of paths between cities.
+ *
+ * @param hits          number of searches answered by the cache.
+ * @param misses        number of searches that had to be computed.
+ * @param evictions     number of entries removed to make room for new ones.
+ * @param invalidations number of entries removed because a route was added.
+ * @param size          number of entries in the cache.
+ */
+public record PathCacheStats(long hits, long misses, long evictions, long invalidations, int size) {
+}
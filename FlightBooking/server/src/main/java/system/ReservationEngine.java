@@ -0,0 +1,17 @@
+package system;
+
+/**
+ * Strategy used by {@link AirportSystem} to commit a reservation on its flights.
+ */
+public enum ReservationEngine {
+    /**
+     * Locks every flight of the reservation, in the global lock order, while the seats are claimed and committed.
+     */
+    PESSIMISTIC,
+
+    /**
+     * Claims the seats with CAS without holding the flights' locks, validates that no flight was cancelled
+     * meanwhile and retries a bounded number of times before falling back to {@link #PESSIMISTIC}.
+     */
+    OPTIMISTIC,
+}
@@ -0,0 +1,21 @@
+package system;
+
+/**
+ * Counters of the days archived by the retention of the system.
+ *
+ * @param days               number of days archived and evicted from the live state.
+ * @param flights            number of flights evicted.
+ * @param reservations       number of reservations archived and evicted.
+ * @param historyBytes       number of bytes appended to the history.
+ * @param estimatedHeapBytes estimate of the heap reclaimed by evicting the flights and reservations, from a fixed
+ *                           size for each flight and reservation. It isn't measured.
+ */
+public record RetentionStats(long days, long flights, long reservations, long historyBytes, long estimatedHeapBytes) {
+
+    static final RetentionStats EMPTY = new RetentionStats(0, 0, 0, 0, 0);
+
+    RetentionStats plus(RetentionStats other) {
+        return new RetentionStats(days + other.days, flights + other.flights, reservations + other.reservations,
+                historyBytes + other.historyBytes, estimatedHeapBytes + other.estimatedHeapBytes);
+    }
+}
@@ -0,0 +1,368 @@
+package system;
+
+import airport.Route;
+import exceptions.RouteAlreadyExistsException;
+import exceptions.RouteDoesntExistException;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable snapshot of the routes of the system.
+ * <p>
+ * A new snapshot, with the next version, is built every time a route is added,
+ * so a path search can run on one consistent snapshot without locking.
+ * Cities are indexed by their upper-cased name.
+ */
+final class RouteGraph {
+
+    static final RouteGraph EMPTY = new RouteGraph(0, CityTrie.EMPTY);
+
+    /**
+     * Version of this snapshot. Increases by one with each route added.
+     */
+    final long version;
+
+    /**
+     * Associates each city, by name, with the routes that leave that city, by destination name.
+     */
+    private final CityTrie routesByCityOrig;
+
+    /**
+     * Compact form of this snapshot used by the path search, built the first time it is needed.
+     */
+    private volatile CompactGraph compactGraph;
+
+    private RouteGraph(long version, CityTrie routesByCityOrig) {
+        this.version = version;
+        this.routesByCityOrig = routesByCityOrig;
+        this.compactGraph = null;
+    }
+
+    /**
+     * Builds the next snapshot, with the given route added.
+     * Only the routes leaving the origin city are copied, the other cities are shared with this snapshot.
+     *
+     * @param route the new route.
+     * @return the new snapshot.
+     * @throws RouteAlreadyExistsException is launched if this route already exists.
+     */
+    RouteGraph withRoute(Route route) throws RouteAlreadyExistsException {
+        String origUpperCase = route.origin.toUpperCase();
+        String destUpperCase = route.destination.toUpperCase();
+        Map<String, Route> routesByCityDest = routesByCityOrig.get(origUpperCase);
+        if (routesByCityDest.containsKey(destUpperCase))
+            throw new RouteAlreadyExistsException(route.origin, route.destination);
+
+        Map<String, Route> newRoutesByCityDest = new HashMap<>(routesByCityDest);
+        newRoutesByCityDest.put(destUpperCase, route);
+
+        return new RouteGraph(version + 1,
+                routesByCityOrig.with(origUpperCase, Collections.unmodifiableMap(newRoutesByCityDest)));
+    }
+
+    /**
+     * @param orig the origin city.
+     * @param dest the destiny city.
+     * @return the route between the two cities.
+     * @throws RouteDoesntExistException is launched if this route doesn't exist.
+     */
+    Route getRoute(String orig, String dest) throws RouteDoesntExistException {
+        Route route = routesByCityOrig.get(orig.toUpperCase()).get(dest.toUpperCase());
+        if (route == null)
+            throw new RouteDoesntExistException(orig, dest);
+        return route;
+    }
+
+    /**
+     * @return all routes.
+     */
+    List<Route> getRoutes() {
+        List<Route> routes = new ArrayList<>();
+        routesByCityOrig.forEach((orig, routesByCityDest) -> routes.addAll(routesByCityDest.values()));
+        return routes;
+    }
+
+    /**
+     * Gets the compact form of this snapshot.
+     * It is built only once per snapshot, on the first search, and not on every route added.
+     * If two threads build it at the same time, both get equal graphs.
+     *
+     * @return the compact graph.
+     */
+    CompactGraph compact() {
+        CompactGraph graph = compactGraph;
+        if (graph == null) {
+            graph = new CompactGraph(routesByCityOrig);
+            compactGraph = graph;
+        }
+        return graph;
+    }
+
+    /**
+     * Routes stored in compressed sparse row form: cities are numbered with dense ids
+     * and the routes leaving city {@code c} are at positions {@code offsets[c]} up to
+     * {@code offsets[c + 1]} of {@link #targets}.
+     * This lets the path search run on primitives, without hashing nor upper-casing city names.
+     */
+    static final class CompactGraph {
+
+        static final int UNREACHABLE = Integer.MAX_VALUE;
+
+        /**
+         * Upper-cased name of each city, by id.
+         */
+        private final String[] cities;
+
+        private final Map<String, Integer> idsByCity;
+
+        private final int[] offsets;
+
+        /**
+         * Destination city id of each route.
+         */
+        private final int[] targets;
+
+        /**
+         * Same as {@link #offsets} but for the routes arriving at each city, used to search backwards.
+         */
+        private final int[] reverseOffsets;
+
+        /**
+         * Origin city id of each route, grouped by destination.
+         */
+        private final int[] sources;
+
+        private CompactGraph(CityTrie routesByCityOrig) {
+            this.idsByCity = new HashMap<>();
+            List<String> names = new ArrayList<>();
+            int[] numberRoutes = {0};
+            routesByCityOrig.forEach((orig, routesByCityDest) -> {
+                intern(orig, names);
+                for (String dest : routesByCityDest.keySet())
+                    intern(dest, names);
+                numberRoutes[0] += routesByCityDest.size();
+            });
+            this.cities = names.toArray(new String[0]);
+
+            this.offsets = new int[cities.length + 1];
+            this.targets = new int[numberRoutes[0]];
+            int position = 0;
+            for (int city = 0; city < cities.length; city++) {
+                offsets[city] = position;
+                for (String dest : routesByCityOrig.get(cities[city]).keySet())
+                    targets[position++] = idsByCity.get(dest);
+            }
+            offsets[cities.length] = position;
+
+            this.reverseOffsets = new int[cities.length + 1];
+            this.sources = new int[numberRoutes[0]];
+            for (int target : targets)
+                reverseOffsets[target + 1]++;
+            for (int city = 0; city < cities.length; city++)
+                reverseOffsets[city + 1] += reverseOffsets[city];
+            int[] next = Arrays.copyOf(reverseOffsets, cities.length);
+            for (int city = 0; city < cities.length; city++)
+                for (int route = offsets[city]; route < offsets[city + 1]; route++)
+                    sources[next[targets[route]]++] = city;
+        }
+
+        private void intern(String city, List<String> names) {
+            if (idsByCity.putIfAbsent(city, names.size()) == null)
+                names.add(city);
+        }
+
+        /**
+         * @param city the upper-cased name of the city.
+         * @return the id of the city, or -1 if it isn't in any route.
+         */
+        int cityId(String city) {
+            return idsByCity.getOrDefault(city, -1);
+        }
+
+        /**
+         * @param id the id of the city.
+         * @return the upper-cased name of the city.
+         */
+        String cityName(int id) {
+            return cities[id];
+        }
+
+        /**
+         * Computes, with a breadth-first search backwards from the destination,
+         * the least number of routes needed to go from each city to the destination.
+         *
+         * @param dest    the id of the destination city.
+         * @param maxHops the maximum number of routes to consider.
+         * @return the number of routes by city id, or {@link #UNREACHABLE} if it takes more than maxHops.
+         */
+        int[] hopsTo(int dest, int maxHops) {
+            return breadthFirst(dest, maxHops, reverseOffsets, sources);
+        }
+
+        /**
+         * Computes, with a breadth-first search from the origin,
+         * the least number of routes needed to go from the origin to each city.
+         *
+         * @param orig    the id of the origin city.
+         * @param maxHops the maximum number of routes to consider.
+         * @return the number of routes by city id, or {@link #UNREACHABLE} if it takes more than maxHops.
+         */
+        int[] hopsFrom(int orig, int maxHops) {
+            return breadthFirst(orig, maxHops, offsets, targets);
+        }
+
+        private int[] breadthFirst(int start, int maxHops, int[] offsets, int[] neighbours) {
+            int[] hops = new int[cities.length];
+            Arrays.fill(hops, UNREACHABLE);
+            int[] queue = new int[cities.length];
+            int head = 0, tail = 0;
+            hops[start] = 0;
+            queue[tail++] = start;
+            while (head < tail) {
+                int city = queue[head++];
+                if (hops[city] == maxHops)
+                    continue;
+                for (int route = offsets[city]; route < offsets[city + 1]; route++) {
+                    int next = neighbours[route];
+                    if (hops[next] == UNREACHABLE) {
+                        hops[next] = hops[city] + 1;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+            return hops;
+        }
+
+        int numberCities() {
+            return cities.length;
+        }
+
+        /**
+         * @param city the id of the city.
+         * @return the position of the first route leaving the city.
+         */
+        int firstRoute(int city) {
+            return offsets[city];
+        }
+
+        /**
+         * @param city the id of the city.
+         * @return the position after the last route leaving the city.
+         */
+        int endRoute(int city) {
+            return offsets[city + 1];
+        }
+
+        /**
+         * @param route the position of the route.
+         * @return the id of the destination city.
+         */
+        int target(int route) {
+            return targets[route];
+        }
+    }
+
+    /**
+     * Persistent map from the upper-cased name of each city to the routes that leave it, by destination name.
+     * <p>
+     * It is a trie over the hash of the city name, 5 bits per level. Adding a city copies only
+     * the nodes on its path, so the cost doesn't grow with the number of cities and the older
+     * snapshots keep sharing every other node. Cities with the same hash are chained at the same slot.
+     */
+    private static final class CityTrie {
+
+        private static final int BITS = 5;
+
+        private static final int WIDTH = 1 << BITS;
+
+        static final CityTrie EMPTY = new CityTrie(new Object[WIDTH]);
+
+        /**
+         * Each slot is empty, a child node or a chain of entries.
+         */
+        private final Object[] root;
+
+        private CityTrie(Object[] root) {
+            this.root = root;
+        }
+
+        /**
+         * A city in the trie, followed by the other cities with the same hash.
+         */
+        private record Entry(String city, int hash, Map<String, Route> routes, Entry next) {
+        }
+
+        /**
+         * @param city the upper-cased name of the city.
+         * @return the routes that leave the city, empty if there aren't any.
+         */
+        Map<String, Route> get(String city) {
+            int hash = city.hashCode();
+            Object[] node = root;
+            for (int shift = 0; ; shift += BITS) {
+                Object slot = node[(hash >>> shift) & (WIDTH - 1)];
+                if (slot instanceof Object[] child) {
+                    node = child;
+                    continue;
+                }
+                for (Entry entry = (Entry) slot; entry != null; entry = entry.next)
+                    if (entry.city.equals(city))
+                        return entry.routes;
+                return Map.of();
+            }
+        }
+
+        /**
+         * @param city   the upper-cased name of the city.
+         * @param routes the new routes that leave the city.
+         * @return a trie with the routes of the city replaced.
+         */
+        CityTrie with(String city, Map<String, Route> routes) {
+            return new CityTrie(with(root, 0, new Entry(city, city.hashCode(), routes, null)));
+        }
+
+        private static Object[] with(Object[] node, int shift, Entry added) {
+            Object[] copy = node.clone();
+            int index = (added.hash >>> shift) & (WIDTH - 1);
+            Object slot = node[index];
+            if (slot instanceof Object[] child) {
+                copy[index] = with(child, shift + BITS, added);
+            } else if (slot == null || ((Entry) slot).hash == added.hash) {
+                copy[index] = new Entry(added.city, added.hash, added.routes, without((Entry) slot, added.city));
+            } else {
+                // Another hash is here, so both go one level down, where their next bits tell them apart.
+                Entry present = (Entry) slot;
+                Object[] child = new Object[WIDTH];
+                child[(present.hash >>> (shift + BITS)) & (WIDTH - 1)] = present;
+                copy[index] = with(child, shift + BITS, added);
+            }
+            return copy;
+        }
+
+        private static Entry without(Entry chain, String city) {
+            if (chain == null)
+                return null;
+            if (chain.city.equals(city))
+                return chain.next;
+            return new Entry(chain.city, chain.hash, chain.routes, without(chain.next, city));
+        }
+
+        /**
+         * @param action what to do with each city and the routes that leave it.
+         */
+        void forEach(BiConsumer<String, Map<String, Route>> action) {
+            forEach(root, action);
+        }
+
+        private static void forEach(Object[] node, BiConsumer<String, Map<String, Route>> action) {
+            for (Object slot : node) {
+                if (slot instanceof Object[] child)
+                    forEach(child, action);
+                else
+                    for (Entry entry = (Entry) slot; entry != null; entry = entry.next)
+                        action.accept(entry.city, entry.routes);
+            }
+        }
+    }
+}
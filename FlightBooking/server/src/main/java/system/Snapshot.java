@@ -0,0 +1,268 @@
+package system;
+
+import airport.Route;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Point-in-time copy of the state of the {@link AirportSystem}, with the position of the log it was taken at.
+ * <p>
+ * The users, routes and cancelled days come first. The reservations follow, split in partitions by the day
+ * of their first flight, each one a separate block of bytes listed in an index, so the partitions can be
+ * decoded in parallel. Reservations refer to their client and routes by their index in those lists.
+ * <p>
+ * A snapshot is written to a temporary file and renamed over the previous one once synced,
+ * so there is always a whole snapshot to recover from.
+ */
+public class Snapshot {
+
+    private static final int MAGIC = 0x46425353;
+
+    /**
+     * Version of the snapshots written. Version 1 wrote the number of flights of a reservation in a single byte,
+     * and is still read.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * A user, with the notifications not read yet.
+     */
+    public record UserEntry(String username, String passwordHash, boolean admin, List<byte[]> notifications) {
+    }
+
+    /**
+     * A reservation, with the index of its client and of the route of each flight, and the day of each flight.
+     */
+    public record ReservationEntry(UUID id, int user, int[] routes, LocalDate[] days) {
+    }
+
+    private final int version;
+    private final long logPosition;
+    private final List<UserEntry> users;
+    private final List<Route> routes;
+    private final List<LocalDate> canceledDays;
+    private final List<ByteBuffer> partitions;
+
+    private Snapshot(int version, long logPosition, List<UserEntry> users, List<Route> routes,
+                     List<LocalDate> canceledDays, List<ByteBuffer> partitions) {
+        this.version = version;
+        this.logPosition = logPosition;
+        this.users = users;
+        this.routes = routes;
+        this.canceledDays = canceledDays;
+        this.partitions = partitions;
+    }
+
+    /**
+     * @return the position of the log the snapshot was taken at. The records after it must be replayed.
+     */
+    public long getLogPosition() {
+        return logPosition;
+    }
+
+    public List<UserEntry> getUsers() {
+        return users;
+    }
+
+    public List<Route> getRoutes() {
+        return routes;
+    }
+
+    public List<LocalDate> getCanceledDays() {
+        return canceledDays;
+    }
+
+    /**
+     * @return the number of partitions of reservations.
+     */
+    public int partitionCount() {
+        return partitions.size();
+    }
+
+    /**
+     * Decodes the reservations of a partition. Partitions can be decoded at the same time by different threads.
+     *
+     * @param partition the index of the partition.
+     * @param consumer  takes each reservation.
+     */
+    public void forEachReservation(int partition, Consumer<ReservationEntry> consumer) {
+        ByteBuffer bb = partitions.get(partition).duplicate();
+        int count = bb.getInt();
+        for (int i = 0; i < count; i++) {
+            UUID id = new UUID(bb.getLong(), bb.getLong());
+            int user = bb.getInt();
+            int legs = version == 1 ? Byte.toUnsignedInt(bb.get()) : bb.getInt();
+            int[] routes = new int[legs];
+            LocalDate[] days = new LocalDate[legs];
+            for (int l = 0; l < legs; l++) {
+                routes[l] = bb.getInt();
+                days[l] = LocalDate.ofEpochDay(bb.getInt());
+            }
+            consumer.accept(new ReservationEntry(id, user, routes, days));
+        }
+    }
+
+    /**
+     * Reads a snapshot. The partitions are only decoded by {@link #forEachReservation}.
+     *
+     * @param path the file.
+     * @return the snapshot, or null if there is no file.
+     * @throws IOException if the file couldn't be read, or isn't a snapshot.
+     */
+    public static Snapshot read(Path path) throws IOException {
+        if (!Files.exists(path))
+            return null;
+        MappedByteBuffer bb;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            bb = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (bb.remaining() < 2 * Integer.BYTES || bb.getInt() != MAGIC)
+            throw new IOException("Not a snapshot: " + path);
+        int version = bb.getInt();
+        if (version < 1 || version > VERSION)
+            throw new IOException("Unknown version " + version + " of the snapshot: " + path);
+        long logPosition = bb.getLong();
+
+        int nUsers = bb.getInt();
+        List<UserEntry> users = new ArrayList<>(nUsers);
+        for (int i = 0; i < nUsers; i++) {
+            String username = getString(bb);
+            String passwordHash = getString(bb);
+            boolean admin = bb.get() != 0;
+            int nNotifications = bb.getInt();
+            List<byte[]> notifications = new ArrayList<>(nNotifications);
+            for (int n = 0; n < nNotifications; n++) {
+                byte[] notification = new byte[bb.getInt()];
+                bb.get(notification);
+                notifications.add(notification);
+            }
+            users.add(new UserEntry(username, passwordHash, admin, notifications));
+        }
+
+        int nRoutes = bb.getInt();
+        List<Route> routes = new ArrayList<>(nRoutes);
+        for (int i = 0; i < nRoutes; i++)
+            routes.add(new Route(getString(bb), getString(bb), bb.getInt()));
+
+        int nCanceled = bb.getInt();
+        List<LocalDate> canceledDays = new ArrayList<>(nCanceled);
+        for (int i = 0; i < nCanceled; i++)
+            canceledDays.add(LocalDate.ofEpochDay(bb.getLong()));
+
+        int nPartitions = bb.getInt();
+        int[] lengths = new int[nPartitions];
+        for (int i = 0; i < nPartitions; i++)
+            lengths[i] = bb.getInt();
+        List<ByteBuffer> partitions = new ArrayList<>(nPartitions);
+        for (int length : lengths) {
+            partitions.add(bb.slice(bb.position(), length));
+            bb.position(bb.position() + length);
+        }
+        return new Snapshot(version, logPosition, users, routes, canceledDays, partitions);
+    }
+
+    /**
+     * Writes a snapshot, replacing the previous one only once the new one is whole and synced.
+     * The partitions are encoded in parallel.
+     *
+     * @param path         the file.
+     * @param logPosition  the position of the log the snapshot was taken at.
+     * @param users        the users.
+     * @param routes       the routes.
+     * @param canceledDays the cancelled days.
+     * @param partitions   the reservations, by partition.
+     * @throws IOException if the file couldn't be written.
+     */
+    public static void write(Path path, long logPosition, List<UserEntry> users, List<Route> routes,
+                             List<LocalDate> canceledDays, Map<LocalDate, List<ReservationEntry>> partitions)
+            throws IOException {
+        List<byte[]> encoded = partitions.values().parallelStream().map(Snapshot::encodePartition).toList();
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(logPosition);
+
+            out.writeInt(users.size());
+            for (UserEntry user : users) {
+                putString(out, user.username());
+                putString(out, user.passwordHash());
+                out.writeByte(user.admin() ? 1 : 0);
+                out.writeInt(user.notifications().size());
+                for (byte[] notification : user.notifications()) {
+                    out.writeInt(notification.length);
+                    out.write(notification);
+                }
+            }
+
+            out.writeInt(routes.size());
+            for (Route route : routes) {
+                putString(out, route.origin);
+                putString(out, route.destination);
+                out.writeInt(route.capacity);
+            }
+
+            out.writeInt(canceledDays.size());
+            for (LocalDate day : canceledDays)
+                out.writeLong(day.toEpochDay());
+
+            out.writeInt(encoded.size());
+            for (byte[] partition : encoded)
+                out.writeInt(partition.length);
+            for (byte[] partition : encoded)
+                out.write(partition);
+
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static byte[] encodePartition(List<ReservationEntry> reservations) {
+        int size = Integer.BYTES;
+        for (ReservationEntry reservation : reservations)
+            size += 2 * Long.BYTES + 2 * Integer.BYTES + reservation.routes().length * 2 * Integer.BYTES;
+
+        ByteBuffer bb = ByteBuffer.allocate(size);
+        bb.putInt(reservations.size());
+        for (ReservationEntry reservation : reservations) {
+            bb.putLong(reservation.id().getMostSignificantBits());
+            bb.putLong(reservation.id().getLeastSignificantBits());
+            bb.putInt(reservation.user());
+            bb.putInt(reservation.routes().length);
+            for (int l = 0; l < reservation.routes().length; l++) {
+                bb.putInt(reservation.routes()[l]);
+                bb.putInt((int) reservation.days()[l].toEpochDay());
+            }
+        }
+        return bb.array();
+    }
+
+    private static void putString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String getString(ByteBuffer bb) {
+        byte[] bytes = new byte[bb.getInt()];
+        bb.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,460 @@
+package system;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the changes to the {@link AirportSystem}, made durable with group commit.
+ * <p>
+ * Records are appended to a buffer in memory, and a single flusher thread writes them to the file and syncs it.
+ * Once a record is appended, the flusher waits for the group commit window before writing, so the records
+ * appended meanwhile by other requests share the same sync. Whoever appended a record waits for it to be
+ * durable with {@link #awaitDurable}, so a request is only answered once its change can't be lost.
+ * <p>
+ * Each record in the file is its length, the CRC32 of its bytes, and its bytes. A record cut short by a crash,
+ * or that doesn't match its CRC, ends the log: it and anything after it are dropped when the log is opened.
+ * Records are identified by their position, where they end counting from the start of the log, that stays the same
+ * across restarts, so a snapshot can tell from which position the log must be replayed.
+ * <p>
+ * Once a snapshot is taken, the records before it can be dropped with {@link #truncateBefore}. The file then starts
+ * with a header holding the position of its first record, so the positions of the records kept don't change.
+ */
+public class WriteAheadLog implements Closeable {
+    private static final Logger logger = LogManager.getLogger(WriteAheadLog.class);
+
+    /**
+     * Largest record accepted when reading, so a corrupt length isn't taken as a huge record.
+     */
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+    /**
+     * First int of a file with a header. Negative, so a file of records without a header never starts with it.
+     */
+    private static final int MAGIC = 0xFB_10_6A_01;
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+    private final Path path;
+
+    /**
+     * The file, replaced when the log is truncated. Guarded by the file lock.
+     */
+    private FileChannel channel;
+
+    /**
+     * Position of the first record in the file, and the offset in the file where it starts.
+     * Guarded by the file lock.
+     */
+    private long base;
+    private long headerSize;
+
+    /**
+     * Held while the file is written, so it isn't replaced meanwhile.
+     */
+    private final Lock fileLock = new ReentrantLock();
+
+    private final long groupCommitWindowNanos;
+
+    /**
+     * Records found in the file when it was opened, in order.
+     */
+    private final List<LogRecord> recovered;
+
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * Signalled when a record is appended, or the log is closed.
+     */
+    private final Condition appended = lock.newCondition();
+
+    /**
+     * Signalled when the log is closed, to cut the group commit window short.
+     */
+    private final Condition closing = lock.newCondition();
+
+    /**
+     * Signalled when a batch is durable, or the log failed.
+     */
+    private final Condition synced = lock.newCondition();
+
+    /**
+     * Records appended and not taken by the flusher yet. Guarded by the lock.
+     */
+    private ByteArrayOutputStream pending;
+
+    /**
+     * Records being written by the flusher, reused for the next batch. Only used by the flusher.
+     */
+    private ByteArrayOutputStream writing;
+
+    /**
+     * Position of the end of the last record appended, and of the last record durable.
+     */
+    private long appendedEnd;
+    private long durableEnd;
+    private long syncCount;
+    private IOException failure;
+    private boolean closed;
+
+    private final Thread flusher;
+
+    private WriteAheadLog(Path path, FileChannel channel, long groupCommitWindowNanos, long fromPosition)
+            throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.groupCommitWindowNanos = groupCommitWindowNanos;
+        readHeader();
+        this.recovered = recover(fromPosition);
+        this.appendedEnd = base + channel.position() - headerSize;
+        this.durableEnd = appendedEnd;
+        this.pending = new ByteArrayOutputStream();
+        this.writing = new ByteArrayOutputStream();
+        this.flusher = new Thread(this::flush, "wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Opens a log, creating the file if it doesn't exist.
+     *
+     * @param path                   the file.
+     * @param groupCommitWindowNanos how long the records appended are gathered before being synced.
+     *                               With 0, the records are synced as soon as the previous sync is done.
+     * @return the log, positioned after the last valid record.
+     * @throws IOException if the file couldn't be opened or read.
+     */
+    public static WriteAheadLog open(Path path, long groupCommitWindowNanos) throws IOException {
+        return open(path, groupCommitWindowNanos, 0);
+    }
+
+    /**
+     * Opens a log, creating the file if it doesn't exist, and only reads the records after a position.
+     *
+     * @param path                   the file.
+     * @param groupCommitWindowNanos how long the records appended are gathered before being synced.
+     * @param fromPosition           the position of the first record to read, as given by {@link #lastAppended}
+     *                               when a snapshot was taken.
+     * @return the log, positioned after the last valid record.
+     * @throws IOException if the file couldn't be opened or read, or doesn't hold the position because it
+     *                     is shorter or was truncated after it.
+     */
+    public static WriteAheadLog open(Path path, long groupCommitWindowNanos, long fromPosition) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            return new WriteAheadLog(path, channel, groupCommitWindowNanos, fromPosition);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the position of the first record in the file. A new file gets a header, and a file without one,
+     * written before logs could be truncated, starts at position 0.
+     */
+    private void readHeader() throws IOException {
+        if (channel.size() == 0) {
+            writeHeader(channel, 0);
+            channel.force(true);
+        }
+        ByteBuffer bb = ByteBuffer.allocate((int) Math.min(channel.size(), HEADER_SIZE));
+        while (bb.hasRemaining())
+            channel.read(bb, bb.position());
+        if (bb.capacity() >= Integer.BYTES && bb.getInt(0) == MAGIC) {
+            if (bb.capacity() < HEADER_SIZE)
+                throw new IOException("The header of the log is cut short");
+            base = bb.getLong(Integer.BYTES);
+            headerSize = HEADER_SIZE;
+        } else {
+            base = 0;
+            headerSize = 0;
+        }
+    }
+
+    private static void writeHeader(FileChannel channel, long base) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putLong(base).flip();
+        while (bb.hasRemaining())
+            channel.write(bb, bb.position());
+    }
+
+    /**
+     * Reads the records in the file after a position, and drops what comes after the last valid one.
+     */
+    private List<LogRecord> recover(long fromPosition) throws IOException {
+        long end = base + channel.size() - headerSize;
+        if (fromPosition < base)
+            throw new IOException("The log starts at " + base + ", after position " + fromPosition);
+        if (fromPosition > end)
+            throw new IOException("The log ends at " + end + ", before position " + fromPosition);
+        List<LogRecord> records = new ArrayList<>();
+        long validEnd = fromPosition;
+        channel.position(offset(fromPosition));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        CRC32 crc = new CRC32();
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE)
+                    break;
+                int checksum = in.readInt();
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                crc.reset();
+                crc.update(bytes);
+                if ((int) crc.getValue() != checksum)
+                    break;
+                records.add(LogRecord.read(new DataInputStream(new ByteArrayInputStream(bytes))));
+                validEnd += 2 * Integer.BYTES + length;
+            }
+        } catch (EOFException ignored) {
+            // The last record was cut short.
+        }
+
+        if (validEnd < end) {
+            logger.warn("Dropping {} bytes after the last valid record of the log", end - validEnd);
+            channel.truncate(offset(validEnd));
+            channel.force(true);
+        }
+        channel.position(offset(validEnd));
+        logger.info("Recovered {} records from the log", records.size());
+        return records;
+    }
+
+    /**
+     * @param position a position of the log.
+     * @return the offset of the position in the file.
+     */
+    private long offset(long position) {
+        return position - base + headerSize;
+    }
+
+    /**
+     * @return the records found in the file when it was opened, in order, to be replayed.
+     */
+    public List<LogRecord> getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * Appends a record. It is only durable once {@link #awaitDurable} returns for it.
+     *
+     * @param record the record.
+     * @return the position of the record, to wait for it.
+     */
+    public long append(LogRecord record) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            record.write(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+
+        lock.lock();
+        try {
+            if (closed)
+                throw new IllegalStateException("The log is closed");
+            DataOutputStream out = new DataOutputStream(pending);
+            out.writeInt(bytes.size());
+            out.writeInt((int) crc.getValue());
+            bytes.writeTo(out);
+            appendedEnd += 2 * Integer.BYTES + bytes.size();
+            appended.signal();
+            return appendedEnd;
+        } catch (IOException e) {
+            // Writes to a ByteArrayOutputStream don't fail.
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a record, and all the ones before it, are synced to the file.
+     *
+     * @param position the position of the record, as given by {@link #append}.
+     * @throws IOException if the log failed to write or sync.
+     */
+    public void awaitDurable(long position) throws IOException {
+        lock.lock();
+        try {
+            while (durableEnd < position && failure == null)
+                synced.await();
+            if (durableEnd < position)
+                throw new IOException("The log failed", failure);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the log");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the position of the last record appended, to wait for every record appended so far.
+     */
+    public long lastAppended() {
+        lock.lock();
+        try {
+            return appendedEnd;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of times the file was synced, each one making a batch of records durable.
+     */
+    public long getSyncCount() {
+        lock.lock();
+        try {
+            return syncCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the records before a position, once a snapshot taken at it is saved, so they aren't kept
+     * or replayed any more. The records after it are copied to a new file that replaces the log, with the
+     * same positions. Appends go on meanwhile, and are only made durable once the file is replaced.
+     *
+     * @param position the position of the snapshot, as given by {@link #lastAppended} when it was taken.
+     * @return the number of bytes of records dropped.
+     * @throws IOException if the new file couldn't be written, in which case the log is kept whole.
+     */
+    public long truncateBefore(long position) throws IOException {
+        awaitDurable(position);
+        try {
+            fileLock.lock();
+            if (position <= base)
+                return 0;
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                writeHeader(out, position);
+                out.position(HEADER_SIZE);
+                long from = offset(position);
+                long size = channel.size();
+                while (from < size)
+                    from += channel.transferTo(from, size - from, out);
+                out.force(true);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            FileChannel old = channel;
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            old.close();
+            long dropped = position - base;
+            base = position;
+            headerSize = HEADER_SIZE;
+            logger.info("Truncated the log before position {}, dropping {} bytes", position, dropped);
+            return dropped;
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    /**
+     * Runs on the flusher thread, writing and syncing the records appended, a batch at a time.
+     */
+    private void flush() {
+        while (true) {
+            long batchEnd;
+            lock.lock();
+            try {
+                while (appendedEnd == durableEnd && !closed)
+                    appended.await();
+                if (appendedEnd == durableEnd)
+                    return;
+
+                // Gives the requests running at the same time the chance to join this batch.
+                long remaining = groupCommitWindowNanos;
+                while (remaining > 0 && !closed)
+                    remaining = closing.awaitNanos(remaining);
+
+                ByteArrayOutputStream batch = pending;
+                pending = writing;
+                writing = batch;
+                batchEnd = appendedEnd;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                fileLock.lock();
+                ByteBuffer bb = ByteBuffer.wrap(writing.toByteArray());
+                while (bb.hasRemaining())
+                    channel.write(bb);
+                channel.force(false);
+                writing.reset();
+            } catch (IOException e) {
+                logger.error("The log failed: " + e.getMessage());
+                lock.lock();
+                try {
+                    failure = e;
+                    synced.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            } finally {
+                fileLock.unlock();
+            }
+
+            lock.lock();
+            try {
+                durableEnd = batchEnd;
+                syncCount++;
+                synced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Makes every record appended durable and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            appended.signalAll();
+            closing.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            fileLock.lock();
+            channel.close();
+        } finally {
+            fileLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package server;
+
+import connection.FrameCodec;
+import connection.TaggedConnection;
+import system.AirportSystem;
+
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static request.RequestType.RESERVE;
+import static request.RequestType.GET_ROUTES_VERSION;
+
+/**
+ * Measures the bytes allocated by each operation of the frame codecs, as counted by the JVM for each thread.
+ * <p>
+ * The send and receive of a {@link TaggedConnection} are measured on the thread that does them, over a local socket.
+ * The decoding by {@link FrameCodec} is measured on frames arriving in chunks of a few frames each.
+ * The round trip measures every thread of the process, client and {@link NioServer} alike, for a request
+ * that hardly allocates anything in the system itself.
+ * Run with {@code java -cp ... server.CodecAllocationBenchmark [operations]}.
+ */
+public class CodecAllocationBenchmark {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final List<byte[]> REQUEST = List.of(
+            "Porto".getBytes(StandardCharsets.UTF_8),
+            "Lisbon".getBytes(StandardCharsets.UTF_8),
+            "London".getBytes(StandardCharsets.UTF_8),
+            "2030-01-01".getBytes(StandardCharsets.UTF_8),
+            "2030-01-31".getBytes(StandardCharsets.UTF_8));
+
+    public static void main(String[] args) throws Exception {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        // Warm up, so the JIT can remove the allocations it is able to.
+        measure(operations);
+        measure(operations);
+        System.exit(0);
+    }
+
+    private static void measure(int operations) throws Exception {
+        double send, receive;
+        try (ServerSocket serverSocket = new ServerSocket(0);
+             TaggedConnection sender = new TaggedConnection(new Socket("localhost", serverSocket.getLocalPort()));
+             TaggedConnection receiver = new TaggedConnection(serverSocket.accept())) {
+            double[] received = new double[1];
+            Thread reader = new Thread(() -> {
+                try {
+                    long before = THREADS.getCurrentThreadAllocatedBytes();
+                    for (int i = 0; i < operations; i++)
+                        receiver.receive();
+                    received[0] = (double) (THREADS.getCurrentThreadAllocatedBytes() - before) / operations;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            reader.start();
+
+            long before = THREADS.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < operations; i++)
+                sender.send(RESERVE.ordinal(), REQUEST);
+            send = (double) (THREADS.getCurrentThreadAllocatedBytes() - before) / operations;
+            reader.join();
+            receive = received[0];
+        }
+
+        double decode = measureDecode(operations);
+        double roundTrip = measureRoundTrip(operations / 10);
+        System.out.printf("send: %7.1f B/op | receive: %7.1f B/op | decode: %7.1f B/op | round trip: %8.1f B/op%n",
+                send, receive, decode, roundTrip);
+    }
+
+    private static double measureDecode(int operations) throws Exception {
+        int framesByChunk = 3;
+        ByteBuffer frame = FrameCodec.encode(RESERVE.ordinal(), REQUEST);
+        ByteBuffer chunk = ByteBuffer.allocate(frame.remaining() * framesByChunk);
+        while (chunk.hasRemaining())
+            chunk.put(frame.duplicate().limit(Math.min(frame.limit(), chunk.remaining())));
+        chunk.flip();
+
+        FrameCodec codec = new FrameCodec();
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        int decoded = 0;
+        while (decoded < operations) {
+            // Split each chunk in two reads, so frames are left partial between reads.
+            int half = chunk.limit() / 2 + 1;
+            decoded += codec.decode(chunk.duplicate().limit(half)).size();
+            decoded += codec.decode(chunk.duplicate().position(half)).size();
+        }
+        return (double) (THREADS.getCurrentThreadAllocatedBytes() - before) / decoded;
+    }
+
+    private static double measureRoundTrip(int operations) throws Exception {
+        AirportSystem airportSystem = new AirportSystem();
+        try (NioServer server = new NioServer(0, airportSystem, 4);
+             TaggedConnection connection = new TaggedConnection(new Socket("localhost", server.getPort()))) {
+            Thread serverThread = new Thread(server);
+            serverThread.setDaemon(true);
+            serverThread.start();
+            List<byte[]> empty = new ArrayList<>();
+
+            long before = allocatedByAllThreads();
+            for (int i = 0; i < operations; i++) {
+                connection.send(GET_ROUTES_VERSION.ordinal(), empty);
+                connection.receive();
+            }
+            return (double) (allocatedByAllThreads() - before) / operations;
+        }
+    }
+
+    private static long allocatedByAllThreads() {
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds()))
+            total += Math.max(0, bytes);
+        return total;
+    }
+}
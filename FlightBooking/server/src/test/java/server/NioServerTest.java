@@ -0,0 +1,305 @@
+package server;
+
+import airport.CompactEncoding;
+import airport.Reservation;
+import connection.TaggedConnection;
+import org.junit.jupiter.api.Assertions;
+import system.AirportSystem;
+import system.IAirportSystem;
+
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static request.RequestType.*;
+
+class NioServerTest {
+
+    private static List<byte[]> args(String... args) {
+        List<byte[]> list = new ArrayList<>();
+        for (String arg : args)
+            list.add(arg.getBytes(StandardCharsets.UTF_8));
+        return list;
+    }
+
+    /**
+     * Test to check that a client using the blocking TaggedConnection can talk with the selector front end,
+     * including requests without data and many connections at the same time.
+     */
+    @org.junit.jupiter.api.Test
+    void requestsAndReplies() throws Exception {
+        AirportSystem airportSystem = new AirportSystem();
+        airportSystem.registerClient("user", "pass");
+        airportSystem.addRoute("Porto", "Lisbon", 10);
+
+        try (NioServer server = new NioServer(0, airportSystem, 4)) {
+            new Thread(server).start();
+
+            List<TaggedConnection> connections = new ArrayList<>();
+            for (int i = 0; i < 100; i++)
+                connections.add(new TaggedConnection(new Socket("localhost", server.getPort())));
+
+            for (TaggedConnection connection : connections) {
+                connection.send(LOGIN.ordinal(), args("user", "pass"));
+                Assertions.assertEquals(LOGIN.ordinal(), connection.receive().tag());
+
+                connection.send(GET_ROUTES.ordinal(), null);
+                TaggedConnection.Frame frame = connection.receive();
+                Assertions.assertEquals(GET_ROUTES.ordinal(), frame.tag());
+                Assertions.assertEquals(1, frame.data().size());
+
+                connection.send(LOGIN.ordinal(), args("user", "wrong"));
+                frame = connection.receive();
+                Assertions.assertEquals("ERROR", new String(frame.data().get(0), StandardCharsets.UTF_8));
+            }
+
+            for (TaggedConnection connection : connections) {
+                connection.send(EXIT.ordinal(), null);
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Test to check that requests with correlation ids can be pipelined on one connection,
+     * and that each reply has the tag of its request, whatever the order they come in.
+     */
+    @org.junit.jupiter.api.Test
+    void pipelinedRequests() throws Exception {
+        AirportSystem airportSystem = new AirportSystem();
+        airportSystem.registerClient("user", "pass");
+        airportSystem.addRoute("Porto", "Lisbon", 1000);
+
+        try (NioServer server = new NioServer(0, airportSystem, 4);
+             TaggedConnection connection = new TaggedConnection(new Socket("localhost", server.getPort()))) {
+            new Thread(server).start();
+
+            connection.send(TaggedConnection.tag(LOGIN.ordinal(), 1), args("user", "pass"));
+            Set<Integer> expected = new HashSet<>();
+            expected.add(TaggedConnection.tag(LOGIN.ordinal(), 1));
+            String today = LocalDate.now().toString();
+            for (int id = 2; id < 200; id++) {
+                int tag = id % 2 == 0
+                        ? TaggedConnection.tag(RESERVE.ordinal(), id)
+                        : TaggedConnection.tag(GET_ROUTES.ordinal(), id);
+                connection.send(tag, id % 2 == 0 ? args("Porto", "Lisbon", today, today) : args());
+                expected.add(tag);
+            }
+
+            Set<Integer> received = new HashSet<>();
+            for (int i = 0; i < expected.size(); i++) {
+                TaggedConnection.Frame frame = connection.receive();
+                Assertions.assertTrue(received.add(frame.tag()));
+                Assertions.assertNotEquals("ERROR", new String(frame.data().get(0), StandardCharsets.UTF_8));
+            }
+            Assertions.assertEquals(expected, received);
+            Assertions.assertEquals(99, airportSystem.getReservationsFromClient("user").size());
+        }
+    }
+
+    /**
+     * Test to check that a connection pipelining many independent requests can't fill the queue of the workers,
+     * so the request of another connection is handled after a few of them, not after all.
+     */
+    @org.junit.jupiter.api.Test
+    void boundsIndependentRequestsInFlight() throws Exception {
+        AirportSystem airportSystem = new AirportSystem();
+        airportSystem.addRoute("Porto", "Lisbon", 10);
+        java.util.concurrent.atomic.AtomicInteger handled = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.concurrent.atomic.AtomicInteger handledBefore = new java.util.concurrent.atomic.AtomicInteger(-1);
+        // Every search of routes is slow, and the request of the other connection notes how many were done before it.
+        IAirportSystem slow = (IAirportSystem) java.lang.reflect.Proxy.newProxyInstance(
+                IAirportSystem.class.getClassLoader(), new Class<?>[]{IAirportSystem.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("getRoutesVersion"))
+                        handledBefore.set(handled.get());
+                    try {
+                        return method.invoke(airportSystem, args);
+                    } catch (java.lang.reflect.InvocationTargetException e) {
+                        throw e.getCause();
+                    } finally {
+                        if (method.getName().equals("getRoutes")) {
+                            Thread.sleep(20);
+                            handled.incrementAndGet();
+                        }
+                    }
+                });
+        int requests = 60;
+
+        try (NioServer server = new NioServer(0, slow, 4);
+             TaggedConnection batch = new TaggedConnection(new Socket("localhost", server.getPort()));
+             TaggedConnection other = new TaggedConnection(new Socket("localhost", server.getPort()))) {
+            new Thread(server).start();
+            for (int id = 1; id <= requests; id++)
+                batch.send(TaggedConnection.tag(GET_ROUTES.ordinal(), id), null);
+            Thread.sleep(50);
+
+            other.send(GET_ROUTES_VERSION.ordinal(), null);
+            Assertions.assertEquals(GET_ROUTES_VERSION.ordinal(), other.receive().tag());
+            Assertions.assertTrue(handledBefore.get() < requests / 2,
+                    "Expected the other connection to be served early, after " + handledBefore.get() + " requests");
+
+            for (int i = 0; i < requests; i++)
+                batch.receive();
+        }
+    }
+
+    /**
+     * Test to check that a client sending requests without reading the replies stops being read,
+     * so its requests wait in the socket instead of the server's memory, and that it is read again
+     * once it reads the replies.
+     */
+    @org.junit.jupiter.api.Test
+    void stopsReadingClientThatDoesntReadReplies() throws Exception {
+        AirportSystem airportSystem = new AirportSystem();
+        for (int i = 0; i < 100; i++)
+            airportSystem.addRoute("Porto", "City" + i, 10);
+        // Far more than the buffers of both sockets can hold.
+        int requests = 16 * 1024;
+        List<byte[]> padding = List.of(new byte[4096]);
+
+        try (NioServer server = new NioServer(0, airportSystem, 4);
+             TaggedConnection connection = new TaggedConnection(new Socket("localhost", server.getPort()))) {
+            new Thread(server).start();
+            Thread sender = new Thread(() -> {
+                try {
+                    for (int i = 0; i < requests; i++)
+                        connection.send(GET_ROUTES.ordinal(), padding);
+                } catch (java.io.IOException e) {
+                    Assertions.fail(e.getMessage());
+                }
+            });
+            sender.start();
+            sender.join(2000);
+            Assertions.assertTrue(sender.isAlive(), "Expected the server to stop reading the requests");
+
+            for (int i = 0; i < requests; i++)
+                Assertions.assertEquals(GET_ROUTES.ordinal(), connection.receive().tag());
+            sender.join();
+        }
+    }
+
+    /**
+     * Test to check that a request longer than the maximum frame size closes its connection,
+     * without reading it, while the other connections are still served.
+     */
+    @org.junit.jupiter.api.Test
+    void oversizedFrameClosesConnection() throws Exception {
+        AirportSystem airportSystem = new AirportSystem();
+        airportSystem.addRoute("Porto", "Lisbon", 10);
+
+        try (NioServer server = new NioServer(0, airportSystem, 4, 1024);
+             TaggedConnection large = new TaggedConnection(new Socket("localhost", server.getPort()));
+             TaggedConnection small = new TaggedConnection(new Socket("localhost", server.getPort()))) {
+            new Thread(server).start();
+
+            large.send(GET_ROUTES.ordinal(), List.of(new byte[2048]));
+            // Closed at end of stream, or reset since the frame was left unread.
+            Assertions.assertThrows(java.io.IOException.class, large::receive);
+
+            small.send(GET_ROUTES.ordinal(), null);
+            Assertions.assertEquals(1, small.receive().data().size());
+        }
+    }
+
+    /**
+     * Test to check that a reply longer than the maximum frame size is answered with an error,
+     * the same way by both servers, and that the connection can still be used.
+     */
+    @org.junit.jupiter.api.Test
+    void oversizedReplyIsAnError() throws Exception {
+        AirportSystem airportSystem = new AirportSystem();
+        for (int i = 0; i < 100; i++)
+            airportSystem.addRoute("Porto", "City" + i, 10);
+
+        try (NioServer nioServer = new NioServer(0, airportSystem, 4, 1024);
+             ThreadPerConnectionServer threadServer = new ThreadPerConnectionServer(0, airportSystem,
+                     task -> new Thread(task).start(), 1024)) {
+            new Thread(nioServer).start();
+            new Thread(threadServer).start();
+
+            for (int port : List.of(nioServer.getPort(), threadServer.getPort())) {
+                try (TaggedConnection connection = new TaggedConnection(new Socket("localhost", port))) {
+                    connection.send(GET_ROUTES.ordinal(), null);
+                    TaggedConnection.Frame frame = connection.receive();
+                    Assertions.assertEquals(GET_ROUTES.ordinal(), frame.tag());
+                    Assertions.assertEquals("ERROR", new String(frame.data().get(0), StandardCharsets.UTF_8));
+
+                    connection.send(GET_ROUTES_VERSION.ordinal(), null);
+                    Assertions.assertEquals(Long.BYTES, connection.receive().data().get(0).length);
+                    connection.send(EXIT.ordinal(), null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test to check that a search of itineraries in the past is answered with an error.
+     */
+    @org.junit.jupiter.api.Test
+    void pastIntervalIsAnError() throws Exception {
+        AirportSystem airportSystem = new AirportSystem();
+        airportSystem.addRoute("Porto", "Lisbon", 10);
+        LocalDate date = LocalDate.now();
+
+        try (NioServer server = new NioServer(0, airportSystem, 4);
+             TaggedConnection connection = new TaggedConnection(new Socket("localhost", server.getPort()))) {
+            new Thread(server).start();
+            List<byte[]> request = args("Porto", "Lisbon");
+            request.add(java.nio.ByteBuffer.allocate(Integer.BYTES).putInt(3).array());
+            request.addAll(args(date.minusDays(30).toString(), date.minusDays(28).toString()));
+            connection.send(GET_AVAILABLE_ITINERARIES.ordinal(), request);
+            Assertions.assertEquals("ERROR", new String(connection.receive().data().get(0), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Test to check that a connection gets the legacy encoding until it negotiates the compact one,
+     * and that both encodings carry the same reservations.
+     */
+    @org.junit.jupiter.api.Test
+    void negotiatesEncoding() throws Exception {
+        AirportSystem airportSystem = new AirportSystem();
+        airportSystem.registerClient("user", "pass");
+        airportSystem.addRoute("Porto", "Lisbon", 10);
+        airportSystem.addRoute("Lisbon", "London", 10);
+        LocalDate date = LocalDate.now();
+        for (int i = 0; i < 5; i++)
+            airportSystem.reserveFlight("user", List.of("Porto", "Lisbon", "London"), date, date.plusDays(3));
+
+        try (NioServer server = new NioServer(0, airportSystem, 4);
+             TaggedConnection connection = new TaggedConnection(new Socket("localhost", server.getPort()))) {
+            new Thread(server).start();
+            connection.send(LOGIN.ordinal(), args("user", "pass"));
+            connection.receive();
+
+            connection.send(GET_RESERVATIONS.ordinal(), null);
+            List<byte[]> legacy = connection.receive().data();
+            Assertions.assertEquals(5, legacy.size());
+
+            connection.send(SET_ENCODING.ordinal(), List.of(new byte[]{100}));
+            Assertions.assertArrayEquals(new byte[]{CompactEncoding.LATEST}, connection.receive().data().get(0));
+
+            connection.send(GET_RESERVATIONS.ordinal(), null);
+            List<byte[]> compact = connection.receive().data();
+            Assertions.assertEquals(1, compact.size());
+            Assertions.assertEquals(
+                    legacy.stream().map(Reservation::deserialize).map(r -> r.id).collect(Collectors.toSet()),
+                    CompactEncoding.decodeReservations(compact.get(0)).stream().map(r -> r.id).collect(Collectors.toSet()));
+            Assertions.assertTrue(compact.get(0).length < legacy.stream().mapToInt(b -> b.length).sum() / 4);
+
+            connection.send(GET_ROUTES.ordinal(), null);
+            Assertions.assertEquals(Set.copyOf(airportSystem.getRoutes()),
+                    Set.copyOf(CompactEncoding.decodeRoutes(connection.receive().data().get(0))));
+
+            connection.send(SET_ENCODING.ordinal(), List.of(new byte[]{CompactEncoding.LEGACY}));
+            connection.receive();
+            connection.send(GET_RESERVATIONS.ordinal(), null);
+            Assertions.assertEquals(5, connection.receive().data().size());
+        }
+    }
+}
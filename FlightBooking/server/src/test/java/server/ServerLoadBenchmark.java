@@ -0,0 +1,168 @@
+package server;
+
+import connection.TaggedConnection;
+import system.AirportSystem;
+import system.IAirportSystem;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static request.RequestType.GET_ROUTES;
+
+/**
+ * Holds many simulated clients connected to each server mode, and measures how many get served
+ * and the latency of their requests.
+ * <p>
+ * Every client connects first and stays connected. Then each one sends a request, to count how many
+ * are served at all, and finally the clients that were served send requests one after the other,
+ * from a few driver threads, to measure the latency while every other connection stays open and idle.
+ * Run with {@code java -cp ... server.ServerLoadBenchmark [clients] [requests] [modes...]},
+ * where the modes are {@code blocking}, {@code virtual} and {@code nio}.
+ * The clients and the server share the process, so it needs about two file descriptors per client.
+ */
+public class ServerLoadBenchmark {
+
+    private static final int DRIVERS = 64;
+    private static final int TIMEOUT_MS = 1000;
+    private static final int NTHREADS = 50;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        List<String> modes = args.length > 2 ? Arrays.asList(args).subList(2, args.length) : List.of("blocking", "virtual", "nio");
+
+        if (!ThreadPerConnectionServer.virtualThreadsSupported())
+            System.out.println("Virtual threads not available on this JDK: virtual mode uses a platform thread per connection");
+
+        for (String mode : modes)
+            run(mode, clients, requests);
+        System.exit(0);
+    }
+
+    private static FrontEnd start(String mode, IAirportSystem airportSystem) throws IOException {
+        return switch (mode) {
+            case "blocking" -> new ThreadPerConnectionServer(0, airportSystem, new ThreadPool(NTHREADS, NTHREADS * 2)::execute);
+            case "virtual" -> ThreadPerConnectionServer.withVirtualThreads(0, airportSystem);
+            case "nio" -> new NioServer(0, airportSystem, NTHREADS);
+            default -> throw new IllegalArgumentException("Unknown mode: " + mode);
+        };
+    }
+
+    private static void run(String mode, int clients, int requests) throws Exception {
+        AirportSystem airportSystem = new AirportSystem();
+        airportSystem.addRoute("Porto", "Lisbon", 200);
+        airportSystem.addRoute("Lisbon", "London", 200);
+
+        FrontEnd server = start(mode, airportSystem);
+        Thread serverThread = new Thread(server);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        InetSocketAddress address = new InetSocketAddress("localhost", server.getPort());
+
+        // Each driver connects its share of the clients, and gives up after a few refused in a row.
+        List<List<TaggedConnection>> connected = new ArrayList<>(DRIVERS);
+        for (int d = 0; d < DRIVERS; d++)
+            connected.add(new ArrayList<>());
+        runDrivers(d -> {
+            int refused = 0;
+            for (int c = d; c < clients && refused < 3; c += DRIVERS) {
+                Socket socket = new Socket();
+                try {
+                    socket.connect(address, TIMEOUT_MS);
+                    connected.get(d).add(new TaggedConnection(socket));
+                    refused = 0;
+                } catch (IOException e) {
+                    socket.close();
+                    refused++;
+                }
+            }
+        });
+
+        // Each client sends a request, and the ones that get no reply in time are left out.
+        List<List<TaggedConnection>> served = new ArrayList<>(DRIVERS);
+        for (int d = 0; d < DRIVERS; d++)
+            served.add(new ArrayList<>());
+        long deadline = System.currentTimeMillis() + 5 * TIMEOUT_MS;
+        runDrivers(d -> {
+            for (TaggedConnection connection : connected.get(d))
+                connection.send(GET_ROUTES.ordinal(), null);
+            for (TaggedConnection connection : connected.get(d)) {
+                if (receive(connection, (int) Math.max(1, deadline - System.currentTimeMillis())))
+                    served.get(d).add(connection);
+            }
+        });
+
+        // The clients served take turns sending requests, while the others stay connected.
+        long[][] latencies = new long[DRIVERS][];
+        AtomicInteger timeouts = new AtomicInteger();
+        long start = System.nanoTime();
+        runDrivers(d -> {
+            List<TaggedConnection> mine = served.get(d);
+            int count = mine.isEmpty() ? 0 : requests / DRIVERS;
+            latencies[d] = new long[count];
+            for (int i = 0; i < count; i++) {
+                TaggedConnection connection = mine.get(i % mine.size());
+                long begin = System.nanoTime();
+                connection.send(GET_ROUTES.ordinal(), null);
+                if (!receive(connection, TIMEOUT_MS))
+                    timeouts.incrementAndGet();
+                latencies[d][i] = System.nanoTime() - begin;
+            }
+        });
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        int open = connected.stream().mapToInt(List::size).sum();
+        int answered = served.stream().mapToInt(List::size).sum();
+        System.out.printf("%-8s connected: %6d | served: %6d | %8.0f requests/s | p50: %8.3f ms | p99: %8.3f ms | timeouts: %d%n",
+                mode, open, answered, all.length / seconds, percentile(all, 0.50), percentile(all, 0.99), timeouts.get());
+
+        for (List<TaggedConnection> connections : connected)
+            for (TaggedConnection connection : connections)
+                connection.close();
+        server.close();
+    }
+
+    private static boolean receive(TaggedConnection connection, int timeoutMs) throws IOException {
+        try {
+            connection.setTimeout(timeoutMs);
+            connection.receive();
+            return true;
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return Double.NaN;
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+
+    private static void runDrivers(Driver driver) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>(DRIVERS);
+        for (int d = 0; d < DRIVERS; d++) {
+            int id = d;
+            Thread thread = new Thread(() -> {
+                try {
+                    driver.run(id);
+                } catch (IOException e) {
+                    System.out.println("Driver " + id + " failed: " + e.getMessage());
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads)
+            thread.join();
+    }
+
+    private interface Driver {
+        void run(int id) throws IOException;
+    }
+}
@@ -1,5 +1,10 @@
 package system;
 
+import airport.Booking;
+import airport.BookingResult;
+import airport.Itinerary;
+import airport.PossiblePath;
+import airport.Reservation;
 import airport.Route;
 import exceptions.*;
 import org.junit.jupiter.api.AfterAll;
@@ -19,7 +24,9 @@ import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.fail;
@@ -184,6 +191,262 @@ class AirportSystemTest {
         assert list.size() == N * 2;
     }
 
+    /**
+     * Test to check that the version of the routes changes only when a route is added.
+     */
+    @org.junit.jupiter.api.Test
+    void getRoutesVersion() {
+        long version = airportSystem.getRoutesVersion();
+        addRoute("Paris", "Lisbon", 2);
+        Assertions.assertEquals(version + 1, airportSystem.getRoutesVersion());
+
+        Assertions.assertThrows(RouteAlreadyExistsException.class, () ->
+                airportSystem.addRoute("Paris", "Lisbon", 2));
+        Assertions.assertEquals(version + 1, airportSystem.getRoutesVersion());
+    }
+
+    /**
+     * Test to check that every path up to 3 routes between two cities is found, and only those.
+     */
+    @org.junit.jupiter.api.Test
+    void getPathsBetween() {
+        addRoute("A", "B", 1);
+        addRoute("A", "C", 1);
+        addRoute("C", "DEST", 1);
+        addRoute("B", "DEST", 1);
+        addRoute("B", "D", 1);
+        addRoute("D", "DEST", 1);
+        addRoute("A", "DEST", 1);
+        addRoute("A", "D", 1);
+        addRoute("F", "O", 1);
+
+        Assertions.assertDoesNotThrow(() -> {
+            String paths = airportSystem.getPathsBetween("a", "dest").toStringPretty("");
+            Set<String> lines = Arrays.stream(paths.split("\n"))
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty())
+                    .collect(Collectors.toSet());
+            Assertions.assertEquals(Set.of("A [DEST]", "A B [DEST]", "A B D [DEST]", "A C [DEST]", "A D [DEST]"), lines);
+        });
+        Assertions.assertThrows(RouteDoesntExistException.class, () -> airportSystem.getPathsBetween("dest", "a"));
+        Assertions.assertThrows(RouteDoesntExistException.class, () -> airportSystem.getPathsBetween("a", "o"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void getPathsBetween_MaxHops() {
+        addRoute("A", "B", 1);
+        addRoute("B", "C", 1);
+        addRoute("C", "DEST", 1);
+
+        Assertions.assertThrows(RouteDoesntExistException.class, () -> airportSystem.getPathsBetween("a", "dest", 2));
+        Assertions.assertThrows(RouteDoesntExistException.class, () -> airportSystem.getPathsBetween("a", "dest", 0));
+        Assertions.assertDoesNotThrow(() -> {
+            String paths = airportSystem.getPathsBetween("a", "dest", 3).toStringPretty("");
+            Assertions.assertTrue(paths.contains("C [DEST]"));
+        });
+    }
+
+    /**
+     * Test to check that repeated searches are cached, and that adding a route only
+     * invalidates the searches it could change.
+     */
+    @org.junit.jupiter.api.Test
+    void getPathsBetween_Cached() {
+        addRoute("A", "B", 1);
+        addRoute("B", "DEST", 1);
+        addRoute("X", "Y", 1);
+
+        Assertions.assertDoesNotThrow(() -> {
+            PossiblePath first = airportSystem.getPathsBetween("a", "dest");
+            Assertions.assertSame(first, airportSystem.getPathsBetween("A", "DEST"));
+            airportSystem.getPathsBetween("x", "y");
+            Assertions.assertEquals(new PathCacheStats(1, 2, 0, 0, 2), airportSystem.getPathCacheStats());
+
+            // Only the search from X to Y can use the new routes, and only once both are added.
+            // The searches are only checked against the routes added when they are read again.
+            addRoute("X", "W", 1);
+            Assertions.assertSame(first, airportSystem.getPathsBetween("a", "dest"));
+            airportSystem.getPathsBetween("x", "y");
+            Assertions.assertEquals(0, airportSystem.getPathCacheStats().invalidations());
+            addRoute("W", "Y", 1);
+            Assertions.assertSame(first, airportSystem.getPathsBetween("a", "dest"));
+            Assertions.assertEquals(0, airportSystem.getPathCacheStats().invalidations());
+            Assertions.assertTrue(airportSystem.getPathsBetween("x", "y").toStringPretty("").contains("W [Y]"));
+            Assertions.assertEquals(1, airportSystem.getPathCacheStats().invalidations());
+
+            addRoute("A", "DEST", 1);
+            String paths = airportSystem.getPathsBetween("a", "dest").toStringPretty("");
+            Assertions.assertTrue(paths.contains("A [DEST]"));
+            Assertions.assertEquals(2, airportSystem.getPathCacheStats().invalidations());
+        });
+    }
+
+    @org.junit.jupiter.api.Test
+    void getPathsBetween_CacheEvictsLeastRecentlyUsed() {
+        airportSystem = new AirportSystem(ReservationEngine.PESSIMISTIC, 1);
+        addRoute("A", "B", 1);
+        addRoute("C", "D", 1);
+
+        Assertions.assertDoesNotThrow(() -> {
+            airportSystem.getPathsBetween("a", "b");
+            airportSystem.getPathsBetween("c", "d");
+            airportSystem.getPathsBetween("a", "b");
+        });
+        Assertions.assertEquals(new PathCacheStats(0, 3, 2, 0, 1), airportSystem.getPathCacheStats());
+    }
+
+    @org.junit.jupiter.api.Test
+    void getBestPaths() {
+        addRoute("A", "B", 1);
+        addRoute("B", "A", 1);
+        addRoute("A", "C", 1);
+        addRoute("C", "DEST", 1);
+        addRoute("B", "DEST", 1);
+        addRoute("B", "D", 1);
+        addRoute("D", "DEST", 1);
+        addRoute("A", "DEST", 1);
+
+        Assertions.assertDoesNotThrow(() -> {
+            List<Itinerary> best = airportSystem.getBestPaths("a", "dest", 3, 3, null, null);
+            Assertions.assertEquals(3, best.size());
+            Assertions.assertEquals(List.of("A", "DEST"), best.get(0).getCities());
+            Assertions.assertEquals(2, best.get(1).hops());
+            Assertions.assertEquals(2, best.get(2).hops());
+
+            best = airportSystem.getBestPaths("a", "dest", 3, 10, null, null);
+            Assertions.assertEquals(4, best.size());
+            Assertions.assertEquals(List.of("A", "B", "D", "DEST"), best.get(3).getCities());
+        });
+        Assertions.assertThrows(RouteDoesntExistException.class, () -> airportSystem.getBestPaths("dest", "a", 3, 1, null, null));
+    }
+
+    /**
+     * Test to check that the number of routes and of itineraries asked for are bounded, and rejected if negative.
+     */
+    @org.junit.jupiter.api.Test
+    void getBestPaths_Bounded() {
+        addRoute("A", "B", 1);
+        addRoute("B", "C", 1);
+        addRoute("A", "C", 1);
+
+        Assertions.assertDoesNotThrow(() -> {
+            List<Itinerary> best = airportSystem.getBestPaths("a", "c", Integer.MAX_VALUE, Integer.MAX_VALUE, null, null);
+            Assertions.assertEquals(2, best.size());
+            best = airportSystem.getBestPaths("a", "c", Integer.MAX_VALUE, 5, date, date);
+            Assertions.assertEquals(2, best.size());
+            Assertions.assertTrue(airportSystem.getPathsBetween("a", "c", Integer.MAX_VALUE).toStringPretty("").contains("B [C]"));
+        });
+        Assertions.assertThrows(IllegalArgumentException.class, () -> airportSystem.getBestPaths("a", "c", -1, 1, null, null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> airportSystem.getBestPaths("a", "c", 2, 0, null, null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> airportSystem.getPathsBetween("a", "c", -1));
+    }
+
+    /**
+     * Test to check that itineraries with the same number of routes are ranked by the earliest day with seats.
+     */
+    @org.junit.jupiter.api.Test
+    void getBestPaths_RankedByDate() {
+        initUser();
+        addRoute("A", "B", 1);
+        addRoute("B", "DEST", 1);
+        addRoute("A", "C", 1);
+        addRoute("C", "DEST", 1);
+
+        Assertions.assertDoesNotThrow(() -> {
+            airportSystem.reserveFlight(username, List.of("A", "B", "DEST"), date, date);
+            airportSystem.reserveFlight(username, List.of("A", "C", "DEST"), date, date);
+            airportSystem.reserveFlight(username, List.of("A", "C", "DEST"), date.plusDays(1), date.plusDays(1));
+
+            List<Itinerary> best = airportSystem.getBestPaths("a", "dest", 2, 2, date, date.plusDays(1));
+            Assertions.assertEquals(new Itinerary(List.of("A", "B", "DEST"), List.of(date.plusDays(1), date.plusDays(1))), best.get(0));
+            Assertions.assertEquals(new Itinerary(List.of("A", "C", "DEST"), List.of()), best.get(1));
+        });
+    }
+
+    /**
+     * Test to check that itineraries aren't ranked by the days of an interval that can't be booked.
+     */
+    @org.junit.jupiter.api.Test
+    void getBestPaths_InvalidInterval() {
+        addRoute("A", "B", 1);
+
+        Assertions.assertThrows(InvalidDateException.class,
+                () -> airportSystem.getBestPaths("a", "b", 3, 1, date.minusDays(30), date.minusDays(28)));
+        Assertions.assertThrows(InvalidDateException.class,
+                () -> airportSystem.getBestPaths("a", "b", 3, 1, date.plusDays(2), date.plusDays(1)));
+        Assertions.assertDoesNotThrow(() -> {
+            Assertions.assertEquals(List.of(date), airportSystem.getBestPaths("a", "b", 3, 1, date, date).get(0).getDates());
+            Assertions.assertEquals(1, airportSystem.getBestPaths("a", "b", 3, 1, null, null).size());
+        });
+    }
+
+    /**
+     * Test to check that only itineraries with seats are returned, with the earliest day of each flight.
+     */
+    @org.junit.jupiter.api.Test
+    void getAvailableItineraries() {
+        initUser();
+        addRoute("A", "DEST", 1);
+        addRoute("A", "B", 2);
+        addRoute("B", "DEST", 1);
+        addRoute("A", "C", 1);
+        addRoute("C", "DEST", 1);
+
+        Assertions.assertDoesNotThrow(() -> {
+            airportSystem.reserveFlight(username, List.of("A", "DEST"), date, date);
+            airportSystem.reserveFlight(username, List.of("A", "DEST"), date.plusDays(1), date.plusDays(1));
+            airportSystem.reserveFlight(username, List.of("A", "C"), date, date.plusDays(1));
+            airportSystem.reserveFlight(username, List.of("A", "C"), date, date.plusDays(1));
+            airportSystem.reserveFlight(username, List.of("B", "DEST"), date, date);
+
+            List<Itinerary> available = airportSystem.getAvailableItineraries("a", "dest", 3, date, date.plusDays(1));
+            Assertions.assertEquals(List.of(new Itinerary(List.of("A", "B", "DEST"), List.of(date, date.plusDays(1)))), available);
+
+            Assertions.assertEquals(List.of(), airportSystem.getAvailableItineraries("a", "dest", 3, date, date));
+            Assertions.assertEquals(0, airportSystem.numberEmptyFlights());
+        });
+        Assertions.assertThrows(RouteDoesntExistException.class,
+                () -> airportSystem.getAvailableItineraries("dest", "a", 3, date, date));
+    }
+
+    /**
+     * Test to check that a search of itineraries with any number of routes ends, with a bounded number of them.
+     */
+    @org.junit.jupiter.api.Test
+    void getAvailableItineraries_Bounded() {
+        // Every city has a route to every other, so there are thousands of itineraries between two of them.
+        for (char orig = 'A'; orig <= 'H'; orig++)
+            for (char dest = 'A'; dest <= 'H'; dest++)
+                if (orig != dest)
+                    addRoute(String.valueOf(orig), String.valueOf(dest), 1);
+
+        Assertions.assertDoesNotThrow(() -> {
+            List<Itinerary> available = airportSystem.getAvailableItineraries("a", "h", Integer.MAX_VALUE, date, date);
+            Assertions.assertEquals(IAirportSystem.MAX_ITINERARIES, available.size());
+            Assertions.assertEquals(List.of("A", "H"), available.get(0).getCities());
+        });
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> airportSystem.getAvailableItineraries("a", "h", -1, date, date));
+    }
+
+    /**
+     * Test to check that itineraries aren't searched in an interval that can't be booked,
+     * one in the past or ending before it starts.
+     */
+    @org.junit.jupiter.api.Test
+    void getAvailableItineraries_InvalidInterval() {
+        addRoute("A", "B", 1);
+
+        Assertions.assertThrows(InvalidDateException.class,
+                () -> airportSystem.getAvailableItineraries("a", "b", 3, date.minusDays(30), date.minusDays(28)));
+        Assertions.assertThrows(InvalidDateException.class,
+                () -> airportSystem.getAvailableItineraries("a", "b", 3, date.minusDays(1), date));
+        Assertions.assertThrows(InvalidDateException.class,
+                () -> airportSystem.getAvailableItineraries("a", "b", 3, date.plusDays(2), date.plusDays(1)));
+        Assertions.assertDoesNotThrow(() -> Assertions.assertEquals(1,
+                airportSystem.getAvailableItineraries("a", "b", 3, date, date).size()));
+    }
+
     //---------------------- Reservation Flights ----------------
     @org.junit.jupiter.api.Test
     void reserveFlight() {
@@ -209,6 +472,63 @@ class AirportSystemTest {
         });
     }
 
+    /**
+     * Test to check that the bookings of a batch are reserved one by one, in order,
+     * moving to a later day when an earlier booking took the last seat, and that a failed booking doesn't stop the others.
+     */
+    @org.junit.jupiter.api.Test
+    void reserveFlights() {
+        initUser();
+        initRoutes_LondonParisLisbon();
+        List<Booking> bookings = List.of(
+                new Booking(List.of("London", "Paris", "Lisbon"), date, date),
+                new Booking(List.of("Paris", "Lisbon"), date, date.plusDays(1)),
+                new Booking(List.of("London", "Paris"), date, date),
+                new Booking(List.of("London", "Nowhere"), date, date));
+
+        Assertions.assertDoesNotThrow(() -> {
+            List<BookingResult> results = airportSystem.reserveFlights(username, bookings, false);
+            Assertions.assertEquals(4, results.size());
+            Assertions.assertTrue(results.get(0).isReserved());
+            Assertions.assertTrue(results.get(1).isReserved());
+            Assertions.assertFalse(results.get(2).isReserved());
+            Assertions.assertFalse(results.get(3).isReserved());
+
+            Set<Reservation> reservations = airportSystem.getReservationsFromClient(username);
+            Assertions.assertEquals(2, reservations.size());
+            Assertions.assertEquals(3, airportSystem.numberFlights());
+        });
+    }
+
+    /**
+     * Test to check that an all-or-nothing batch reserves nothing if one of its bookings can't be reserved,
+     * and reserves every booking otherwise.
+     */
+    @org.junit.jupiter.api.Test
+    void reserveFlights_AllOrNothing() {
+        initUser();
+        initRoutes_LondonParisLisbon();
+        List<Booking> tooMany = List.of(
+                new Booking(List.of("London", "Paris"), date, date),
+                new Booking(List.of("Paris", "Lisbon"), date, date),
+                new Booking(List.of("London", "Paris"), date, date));
+        List<Booking> enough = List.of(
+                new Booking(List.of("London", "Paris"), date, date),
+                new Booking(List.of("London", "Paris", "Lisbon"), date, date.plusDays(1)));
+
+        Assertions.assertDoesNotThrow(() -> {
+            List<BookingResult> results = airportSystem.reserveFlights(username, tooMany, true);
+            Assertions.assertTrue(results.stream().noneMatch(BookingResult::isReserved));
+            Assertions.assertEquals(0, airportSystem.getReservationsFromClient(username).size());
+            Assertions.assertEquals(airportSystem.numberFlights(), airportSystem.numberEmptyFlights());
+
+            results = airportSystem.reserveFlights(username, enough, true);
+            Assertions.assertTrue(results.stream().allMatch(BookingResult::isReserved));
+            Assertions.assertEquals(2, airportSystem.getReservationsFromClient(username).size());
+        });
+        Assertions.assertThrows(UserNotFoundException.class, () -> airportSystem.reserveFlights("nobody", enough, false));
+    }
+
     /**
      * Test to check if the pre-reservations are removed if the full flight isn't possible.
      * Example of the tested situation:
@@ -258,6 +578,52 @@ class AirportSystemTest {
                 airportSystem.reserveFlight(username, cities1, date, date));
     }
 
+    /**
+     * Test to check that the reservation skips full and cancelled days,
+     * and that a day is available again after a reservation on it is cancelled.
+     */
+    @org.junit.jupiter.api.Test
+    void reserveFlight_SkipsFullAndCanceledDays() {
+        initUser();
+        addRoute("Paris", "Lisbon", 1);
+        List<String> cities1 = new ArrayList<>(Arrays.asList("Paris", "Lisbon"));
+
+        Assertions.assertDoesNotThrow(() -> {
+            UUID first = airportSystem.reserveFlight(username, cities1, date, date);
+            airportSystem.cancelDay(date.plusDays(1));
+
+            UUID second = airportSystem.reserveFlight(username, cities1, date, date.plusDays(3));
+            Reservation reservation = airportSystem.cancelReservation(username, second);
+            Assertions.assertEquals(date.plusDays(2), reservation.getFlights().iterator().next().date);
+
+            airportSystem.cancelReservation(username, first);
+            UUID third = airportSystem.reserveFlight(username, cities1, date, date.plusDays(3));
+            reservation = airportSystem.cancelReservation(username, third);
+            Assertions.assertEquals(date, reservation.getFlights().iterator().next().date);
+        });
+    }
+
+    /**
+     * Test to check that a search that fails doesn't create empty flights for the days it probed,
+     * and that only the flights that got a seat are created.
+     */
+    @org.junit.jupiter.api.Test
+    void reserveFlight_NoEmptyFlightsCreated() {
+        initUser();
+        initRoutes_LondonParisLisbon();
+        List<String> cities1 = new ArrayList<>(Arrays.asList("Paris", "Lisbon"));
+        List<String> cities2 = new ArrayList<>(Arrays.asList("London", "Paris", "Lisbon"));
+
+        Assertions.assertDoesNotThrow(() -> airportSystem.reserveFlight(username, cities1, date, date));
+        Assertions.assertThrows(BookingFlightsNotPossibleException.class, () ->
+                airportSystem.reserveFlight(username, cities2, date, date));
+        Assertions.assertEquals(1, airportSystem.numberFlights());
+
+        Assertions.assertDoesNotThrow(() -> airportSystem.reserveFlight(username, cities2, date, date.plusDays(30)));
+        Assertions.assertEquals(3, airportSystem.numberFlights());
+        Assertions.assertEquals(0, airportSystem.numberEmptyFlights());
+    }
+
     //---------------------- Cancel Flights ----------------
 
     /*
@@ -1,16 +1,26 @@
 package system;
 
+import airport.Booking;
+import airport.BookingResult;
+import airport.Flight;
+import airport.Reservation;
+import airport.Route;
 import exceptions.RouteAlreadyExistsException;
 import exceptions.RouteDoesntExistException;
 import exceptions.UsernameAlreadyExistsException;
 import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 
@@ -117,6 +127,287 @@ class AirportSystemThreadTest {
         assert makeReservation.reservationSucceed == routeCapacity * numberDays;
     }
 
+    @org.junit.jupiter.api.Test
+    void testContentionSingleRoute() throws Exception {
+        contentionSingleRoute();
+    }
+
+    @org.junit.jupiter.api.Test
+    void testContentionSingleRouteOptimistic() throws Exception {
+        airportSystem = new AirportSystem(ReservationEngine.OPTIMISTIC);
+        contentionSingleRoute();
+    }
+
+    private void contentionSingleRoute() throws Exception {
+        int N = 64;
+        int attemptsByThread = 50;
+        int numberDays = 5;
+        int routeCapacity = 20;
+        initUser();
+        initRoutes_LondonParisLisbon(routeCapacity);
+        List<String> cities = new ArrayList<>(Arrays.asList("Paris", "Lisbon"));
+        AtomicInteger succeeded = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[N];
+
+        for (int i = 0; i < N; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < attemptsByThread; j++) {
+                        try {
+                            airportSystem.reserveFlight(username, cities, date, date.plusDays(numberDays - 1));
+                            succeeded.incrementAndGet();
+                        } catch (Exception ignored) {
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        Assertions.assertEquals(routeCapacity * numberDays, succeeded.get());
+        Assertions.assertEquals(routeCapacity * numberDays, airportSystem.getReservationsFromClient(username).size());
+    }
+
+    @org.junit.jupiter.api.Test
+    void testCrossingItinerariesDontDeadlock() throws Exception {
+        crossingItineraries();
+    }
+
+    @org.junit.jupiter.api.Test
+    void testCrossingItinerariesOptimistic() throws Exception {
+        airportSystem = new AirportSystem(ReservationEngine.OPTIMISTIC);
+        crossingItineraries();
+    }
+
+    private void crossingItineraries() throws Exception {
+        int N = 32;
+        int attemptsByThread = 40;
+        int numberDays = 3;
+        int routeCapacity = 15;
+        initUser();
+        airportSystem.addRoute("A", "B", routeCapacity);
+        airportSystem.addRoute("B", "C", routeCapacity);
+        airportSystem.addRoute("C", "B", routeCapacity);
+        airportSystem.addRoute("B", "A", routeCapacity);
+        airportSystem.addRoute("C", "A", routeCapacity);
+        List<List<String>> itineraries = List.of(
+                List.of("A", "B", "C"),
+                List.of("C", "B", "A"),
+                List.of("A", "B", "C", "A", "B"),
+                List.of("B", "C", "A", "B"),
+                List.of("C", "A", "B", "C"));
+        AtomicInteger succeeded = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[N];
+
+        for (int i = 0; i < N; i++) {
+            List<String> cities = itineraries.get(i % itineraries.size());
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < attemptsByThread; j++) {
+                        try {
+                            airportSystem.reserveFlight(username, cities, date, date.plusDays(numberDays - 1));
+                            succeeded.incrementAndGet();
+                        } catch (Exception ignored) {
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join(30_000);
+            Assertions.assertFalse(t.isAlive(), "Reservations are deadlocked");
+        }
+
+        Map<Flight, Integer> seatsByFlight = new HashMap<>();
+        for (Reservation reservation : airportSystem.getReservationsFromClient(username))
+            for (Flight flight : reservation.getFlights())
+                seatsByFlight.merge(flight, 1, Integer::sum);
+
+        Assertions.assertEquals(succeeded.get(), airportSystem.getReservationsFromClient(username).size());
+        Assertions.assertTrue(succeeded.get() > 0);
+        for (var entry : seatsByFlight.entrySet()) {
+            Assertions.assertTrue(entry.getValue() <= routeCapacity);
+            Assertions.assertEquals(entry.getValue().intValue(), entry.getKey().getReservations().size());
+        }
+    }
+
+    /**
+     * Batches, some of them all-or-nothing, are reserved while single reservations take the same flights.
+     * Nothing deadlocks, no flight is overbooked, and every booking reported as reserved is there.
+     */
+    @org.junit.jupiter.api.Test
+    void testBatchesWithSingleReservations() throws Exception {
+        int N = 16;
+        int attemptsByThread = 20;
+        int numberDays = 3;
+        int routeCapacity = 20;
+        initUser();
+        airportSystem.addRoute("A", "B", routeCapacity);
+        airportSystem.addRoute("B", "C", routeCapacity);
+        airportSystem.addRoute("C", "B", routeCapacity);
+        airportSystem.addRoute("B", "A", routeCapacity);
+        List<Booking> batch = List.of(
+                new Booking(List.of("A", "B", "C"), date, date.plusDays(numberDays - 1)),
+                new Booking(List.of("C", "B", "A"), date, date.plusDays(numberDays - 1)),
+                new Booking(List.of("B", "C"), date, date.plusDays(numberDays - 1)));
+        AtomicInteger succeeded = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[N];
+
+        for (int i = 0; i < N; i++) {
+            int id = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < attemptsByThread; j++) {
+                        try {
+                            if (id % 2 == 0) {
+                                for (BookingResult result : airportSystem.reserveFlights(username, batch, id % 4 == 0))
+                                    if (result.isReserved()) succeeded.incrementAndGet();
+                            } else {
+                                airportSystem.reserveFlight(username, List.of("B", "A"), date, date.plusDays(numberDays - 1));
+                                succeeded.incrementAndGet();
+                            }
+                        } catch (Exception ignored) {
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join(30_000);
+            Assertions.assertFalse(t.isAlive(), "Reservations are deadlocked");
+        }
+
+        Map<Flight, Integer> seatsByFlight = new HashMap<>();
+        for (Reservation reservation : airportSystem.getReservationsFromClient(username))
+            for (Flight flight : reservation.getFlights())
+                seatsByFlight.merge(flight, 1, Integer::sum);
+
+        Assertions.assertEquals(succeeded.get(), airportSystem.getReservationsFromClient(username).size());
+        for (var entry : seatsByFlight.entrySet()) {
+            Assertions.assertTrue(entry.getValue() <= routeCapacity);
+            Assertions.assertEquals(entry.getValue().intValue(), entry.getKey().getReservations().size());
+        }
+        // No seat was left claimed by a batch that failed.
+        for (var entry : seatsByFlight.entrySet())
+            Assertions.assertEquals(routeCapacity - entry.getValue(), entry.getKey().availableSeats());
+    }
+
+    /**
+     * Routes are added while other threads read them.
+     * Each read must see a consistent snapshot: routes never disappear from one read to the next,
+     * every route read was really added, and in the end all of them are there.
+     */
+    @org.junit.jupiter.api.Test
+    void testAddRouteWhileGettingRoutes() throws Exception {
+        int writers = 8;
+        int routesByWriter = 200;
+        int readers = 8;
+        AtomicInteger violations = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < routesByWriter; i++)
+                        airportSystem.addRoute("W" + writer, "C" + i, i + 1);
+                } catch (Exception e) {
+                    violations.incrementAndGet();
+                }
+            }));
+        }
+        Thread[] writerThreads = threads.toArray(new Thread[0]);
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    int lastSize = 0;
+                    boolean writing = true;
+                    while (writing) {
+                        writing = Arrays.stream(writerThreads).anyMatch(Thread::isAlive);
+                        List<Route> routes = airportSystem.getRoutes();
+                        if (routes.size() < lastSize)
+                            violations.incrementAndGet();
+                        for (Route route : routes) {
+                            int i = Integer.parseInt(route.destination.substring(1));
+                            if (route.capacity != i + 1 || !route.origin.startsWith("W"))
+                                violations.incrementAndGet();
+                        }
+                        lastSize = routes.size();
+                    }
+                } catch (Exception e) {
+                    violations.incrementAndGet();
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertEquals(0, violations.get());
+        Assertions.assertEquals(writers * routesByWriter, airportSystem.getRoutes().size());
+    }
+
+    /**
+     * The same route and the same day are added and cancelled from many threads: only one of them must succeed.
+     */
+    @org.junit.jupiter.api.Test
+    void testSameRouteAndDayOnlyOnce() throws Exception {
+        int N = 32;
+        AtomicInteger routesAdded = new AtomicInteger();
+        AtomicInteger daysCanceled = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[N];
+
+        for (int i = 0; i < N; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ignored) {
+                }
+                try {
+                    airportSystem.addRoute("Porto", "Lisbon", 10);
+                    routesAdded.incrementAndGet();
+                } catch (Exception ignored) {
+                }
+                try {
+                    airportSystem.cancelDay(date);
+                    daysCanceled.incrementAndGet();
+                } catch (Exception ignored) {
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertEquals(1, routesAdded.get());
+        Assertions.assertEquals(1, daysCanceled.get());
+        Assertions.assertEquals(1, airportSystem.numberCanceledDays());
+    }
+
     private class makeReservation implements Runnable {
         protected int reservationSucceed;
         protected int numberDays;
@@ -0,0 +1,70 @@
+package system;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures the throughput of reservations spread across a year of days, from many threads at once.
+ * Reservations on different days should not contend with each other.
+ * <p>
+ * Run with {@code java -cp ... system.CalendarBenchmark [threads] [reservationsByThread] [days]}.
+ */
+public class CalendarBenchmark {
+
+    private static final String USERNAME = "bench";
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int reservationsByThread = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int days = args.length > 2 ? Integer.parseInt(args[2]) : 365;
+
+        for (int i = 0; i < 5; i++) {
+            double throughput = run(threads, reservationsByThread, days);
+            System.out.printf("%s%d threads, %d days: %10.0f reservations/s%n",
+                    i < 2 ? "(warm up) " : "", threads, days, throughput);
+        }
+    }
+
+    /**
+     * @return reservations per second.
+     */
+    private static double run(int threads, int reservationsByThread, int days) throws Exception {
+        AirportSystem airportSystem = new AirportSystem();
+        airportSystem.registerClient(USERNAME, USERNAME);
+        airportSystem.addRoute("Porto", "Lisbon", Integer.MAX_VALUE);
+        List<String> cities = List.of("Porto", "Lisbon");
+        LocalDate start = LocalDate.now();
+
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < reservationsByThread; i++) {
+                        LocalDate day = start.plusDays(random.nextInt(days));
+                        airportSystem.reserveFlight(USERNAME, cities, day, day);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        ready.await();
+        long begin = System.nanoTime();
+        go.countDown();
+        for (Thread worker : workers)
+            worker.join();
+        long elapsed = System.nanoTime() - begin;
+        return (double) threads * reservationsByThread / (elapsed / 1e9);
+    }
+}
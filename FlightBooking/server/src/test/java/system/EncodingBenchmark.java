@@ -0,0 +1,60 @@
+package system;
+
+import airport.CompactEncoding;
+import airport.Reservation;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Measures the bytes of a GET_RESERVATIONS response in the legacy and the compact encodings, and how long
+ * each takes to encode. The client has reservations of two connecting flights, each on a flight shared with
+ * other clients, since the legacy encoding also carries the ids of the other reservations on a flight.
+ * <p>
+ * Run with {@code java -cp ... system.EncodingBenchmark [reservations] [others by flight]}.
+ */
+public class EncodingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int reservations = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int others = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        AirportSystem airportSystem = new AirportSystem();
+        airportSystem.registerClient("client", "pass");
+        airportSystem.registerClient("other", "pass");
+        airportSystem.addRoute("Porto", "Lisbon", others + reservations);
+        airportSystem.addRoute("Lisbon", "London", others + reservations);
+        LocalDate today = LocalDate.now();
+        List<String> stops = List.of("Porto", "Lisbon", "London");
+        for (int i = 0; i < reservations; i++) {
+            LocalDate day = today.plusDays(i % 7);
+            airportSystem.reserveFlight("client", stops, day, day);
+        }
+        for (int day = 0; day < 7; day++)
+            for (int i = 0; i < others; i++)
+                airportSystem.reserveFlight("other", stops, today.plusDays(day), today.plusDays(day));
+
+        Set<Reservation> response = airportSystem.getReservationsFromClient("client");
+        // Each element of a frame is preceded by its length.
+        long legacy = response.stream().mapToLong(reservation -> Integer.BYTES + reservation.serialize().length).sum();
+        long compact = Integer.BYTES + CompactEncoding.encodeReservations(response).length;
+
+        int rounds = 2_000;
+        long begin = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            for (Reservation reservation : response)
+                reservation.serialize();
+        long legacyNanos = (System.nanoTime() - begin) / rounds;
+        begin = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            CompactEncoding.encodeReservations(response);
+        long compactNanos = (System.nanoTime() - begin) / rounds;
+
+        System.out.printf("%d reservations, %d others by flight%n", response.size(), others);
+        System.out.printf("legacy:  %d bytes (%d by reservation), %d us to encode%n",
+                legacy, legacy / response.size(), legacyNanos / 1000);
+        System.out.printf("compact: %d bytes (%d by reservation), %d us to encode%n",
+                compact, compact / response.size(), compactNanos / 1000);
+    }
+}
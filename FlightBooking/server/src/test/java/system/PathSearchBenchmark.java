@@ -0,0 +1,76 @@
+package system;
+
+import airport.PossiblePath;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Measures getPathsBetween on a synthetic hub-and-spoke network.
+ * <p>
+ * The hubs are all connected to each other, and each spoke city has routes to and from a few hubs.
+ * Run with {@code java -cp ... system.PathSearchBenchmark [cities] [hubs] [hubsBySpoke]}.
+ */
+public class PathSearchBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int cities = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int hubs = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int hubsBySpoke = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        AirportSystem airportSystem = new AirportSystem();
+        for (int i = 0; i < hubs; i++)
+            for (int j = 0; j < hubs; j++)
+                if (i != j)
+                    airportSystem.addRoute("Hub" + i, "Hub" + j, 100);
+        for (int spoke = hubs; spoke < cities; spoke++) {
+            for (int k = 0; k < hubsBySpoke; k++) {
+                int hub = (spoke * 7 + k * 3) % hubs;
+                try {
+                    airportSystem.addRoute("City" + spoke, "Hub" + hub, 100);
+                    airportSystem.addRoute("Hub" + hub, "City" + spoke, 100);
+                } catch (exceptions.RouteAlreadyExistsException ignored) {
+                }
+            }
+        }
+
+        PossiblePath paths = airportSystem.getPathsBetween("City" + hubs, "City" + (cities - 1));
+        System.out.printf("%d cities, %d routes: %d distinct path nodes, %d nodes once expanded as a tree%n",
+                cities, airportSystem.getRoutes().size(), distinctNodes(paths), treeNodes(paths));
+
+        int iterations = 2000;
+        for (int round = 0; round < 5; round++) {
+            long begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                int from = hubs + i % (cities - hubs);
+                int to = hubs + (i * 31 + 17) % (cities - hubs);
+                airportSystem.getPathsBetween("City" + from, "City" + to);
+            }
+            long elapsed = System.nanoTime() - begin;
+            System.out.printf("%sgetPathsBetween: %8.1f us/op%n", round < 2 ? "(warm up) " : "",
+                    elapsed / 1e3 / iterations);
+        }
+    }
+
+    private static long distinctNodes(PossiblePath path) {
+        Set<PossiblePath> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        return distinctNodes(path, seen);
+    }
+
+    private static long distinctNodes(PossiblePath path, Set<PossiblePath> seen) {
+        if (!seen.add(path))
+            return 0;
+        long count = 1;
+        for (PossiblePath child : path.getPossiblePaths())
+            count += distinctNodes(child, seen);
+        return count;
+    }
+
+    private static long treeNodes(PossiblePath path) {
+        long count = 1;
+        for (PossiblePath child : path.getPossiblePaths())
+            count += treeNodes(child);
+        return count;
+    }
+}
@@ -0,0 +1,100 @@
+package system;
+
+import airport.PossiblePath;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Measures serializing and deserializing paths, against the previous serializer, that copied the buffer for
+ * every path, and the previous deserializer.
+ * The paths are a tree with no shared paths, {@code fanout} paths from each city, {@code depth} routes deep.
+ * <p>
+ * Run with {@code java -cp ... system.PathSerializationBenchmark [fanout] [depth]}.
+ */
+public class PathSerializationBenchmark {
+
+    public static void main(String[] args) {
+        int fanout = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        int[] nodes = new int[1];
+        PossiblePath paths = tree(fanout, depth, nodes);
+        byte[] bytes = paths.serialize();
+        if (!java.util.Arrays.equals(bytes, copyingSerialize(paths)))
+            throw new AssertionError("Serializers disagree");
+        System.out.printf("%d nodes, %d bytes%n", nodes[0], bytes.length);
+
+        int iterations = 200;
+        for (int round = 0; round < 5; round++) {
+            String warmUp = round < 2 ? "(warm up) " : "";
+            long begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                copyingSerialize(paths);
+            long copying = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                paths.serialize();
+            long singlePass = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                copyingDeserialize(ByteBuffer.wrap(bytes));
+            long copyingDeserialize = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                PossiblePath.deserialize(bytes);
+            long deserialize = System.nanoTime() - begin;
+
+            System.out.printf("%sserialize: %8.1f -> %8.1f us/op, deserialize: %8.1f -> %8.1f us/op%n",
+                    warmUp, copying / 1e3 / iterations, singlePass / 1e3 / iterations,
+                    copyingDeserialize / 1e3 / iterations, deserialize / 1e3 / iterations);
+        }
+    }
+
+    private static PossiblePath tree(int fanout, int depth, int[] nodes) {
+        String city = "City" + nodes[0]++;
+        if (depth == 0)
+            return new PossiblePath(true, city);
+        PossiblePath path = new PossiblePath(false, city);
+        for (int i = 0; i < fanout; i++)
+            path.addPossiblePath(tree(fanout, depth - 1, nodes));
+        return path;
+    }
+
+    /**
+     * The previous serializer, that grew the buffer of a city by copying it for each of its paths.
+     */
+    private static byte[] copyingSerialize(PossiblePath path) {
+        byte[] cityToByte = path.getCity().getBytes();
+        ByteBuffer bb = ByteBuffer.allocate(Integer.BYTES + cityToByte.length + Integer.BYTES);
+        bb.putInt(cityToByte.length);
+        bb.put(cityToByte);
+        bb.putInt(path.numPossiblePaths());
+        for (PossiblePath possiblePath : path.getPossiblePaths()) {
+            byte[] elem = copyingSerialize(possiblePath);
+            ByteBuffer newBuffer = ByteBuffer.allocate(bb.capacity() + elem.length);
+            newBuffer.put(bb.array());
+            newBuffer.put(elem);
+            bb = newBuffer;
+        }
+        return bb.array();
+    }
+
+    /**
+     * The previous deserializer, that copied the name of each city and the paths from it into a new list.
+     */
+    private static PossiblePath copyingDeserialize(ByteBuffer bb) {
+        byte[] thisCityBytes = new byte[bb.getInt()];
+        bb.get(thisCityBytes);
+        int size = bb.getInt();
+        PossiblePath possiblePath = new PossiblePath(size == 0, new String(thisCityBytes));
+        java.util.List<PossiblePath> list = new java.util.ArrayList<>();
+        for (int i = 0; i < size; i++)
+            list.add(copyingDeserialize(bb));
+        for (PossiblePath path : list)
+            possiblePath.addPossiblePath(path);
+        return possiblePath;
+    }
+}
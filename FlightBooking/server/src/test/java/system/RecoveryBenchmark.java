@@ -0,0 +1,98 @@
+package system;
+
+import encryption.BCrypt;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Measures the time the server takes to start from its log alone, and from a snapshot and the tail of the log.
+ * The reservations are spread across clients, routes and a year of days, and the tail has one reservation in a hundred.
+ * <p>
+ * Run with {@code java -cp ... system.RecoveryBenchmark [reservations] [clients] [routes] [days]}.
+ */
+public class RecoveryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int reservations = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int routes = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int days = args.length > 3 ? Integer.parseInt(args[3]) : 365;
+
+        Path logPath = Files.createTempFile("wal", ".log");
+        Path snapshotPath = Files.createTempFile("state", ".snapshot");
+        try {
+            long begin = System.nanoTime();
+            populate(logPath, snapshotPath, reservations, clients, routes, days);
+            System.out.printf("populated %d reservations in %d ms, log of %d MB, snapshot of %d MB%n",
+                    reservations, (System.nanoTime() - begin) / 1_000_000,
+                    Files.size(logPath) >> 20, Files.size(snapshotPath) >> 20);
+
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+                begin = System.nanoTime();
+                try (WriteAheadLog log = WriteAheadLog.open(logPath, 0)) {
+                    new AirportSystem(ReservationEngine.PESSIMISTIC, AirportSystem.PATH_CACHE_CAPACITY, log);
+                }
+                long fromLog = System.nanoTime() - begin;
+
+                System.gc();
+                begin = System.nanoTime();
+                Snapshot snapshot = Snapshot.read(snapshotPath);
+                try (WriteAheadLog log = WriteAheadLog.open(logPath, 0, snapshot.getLogPosition())) {
+                    new AirportSystem(ReservationEngine.PESSIMISTIC, AirportSystem.PATH_CACHE_CAPACITY, snapshot, log);
+                }
+                long fromSnapshot = System.nanoTime() - begin;
+
+                System.out.printf("%sstart-up: whole log %6d ms, snapshot and tail %6d ms%n",
+                        i == 0 ? "(warm up) " : "", fromLog / 1_000_000, fromSnapshot / 1_000_000);
+            }
+        } finally {
+            Files.deleteIfExists(logPath);
+            Files.deleteIfExists(snapshotPath);
+        }
+    }
+
+    /**
+     * Writes the log of the reservations, one leg each, and takes a snapshot before the last hundredth of them.
+     * The log is written straight, as the system would log it, without a sync per reservation.
+     */
+    private static void populate(Path logPath, Path snapshotPath, int reservations, int clients, int routes, int days)
+            throws Exception {
+        String passwordHash = BCrypt.hashpw("password", BCrypt.gensalt());
+        int capacity = reservations / (routes * days) + 1;
+        LocalDate start = LocalDate.now();
+        int tail = reservations / 100;
+
+        try (WriteAheadLog log = WriteAheadLog.open(logPath, 0)) {
+            for (int c = 0; c < clients; c++)
+                log.append(new LogRecord.RegisterUser("client" + c, passwordHash, false));
+            for (int r = 0; r < routes; r++)
+                log.append(new LogRecord.AddRoute("city" + r, "city" + (r + 1), capacity));
+            appendReservations(log, 0, reservations - tail, clients, routes, days, capacity, start);
+            log.awaitDurable(log.lastAppended());
+        }
+        long position;
+        try (WriteAheadLog log = WriteAheadLog.open(logPath, 0)) {
+            position = new AirportSystem(ReservationEngine.PESSIMISTIC, AirportSystem.PATH_CACHE_CAPACITY, log)
+                    .snapshot(snapshotPath);
+        }
+        try (WriteAheadLog log = WriteAheadLog.open(logPath, 0, position)) {
+            appendReservations(log, reservations - tail, reservations, clients, routes, days, capacity, start);
+            log.awaitDurable(log.lastAppended());
+        }
+    }
+
+    private static void appendReservations(WriteAheadLog log, int from, int to, int clients, int routes, int days,
+                                           int capacity, LocalDate start) {
+        for (int i = from; i < to; i++) {
+            int route = i % routes;
+            LocalDate day = start.plusDays((i / routes) % days);
+            log.append(new LogRecord.Reserve(UUID.randomUUID(), "client" + (i % clients),
+                    List.of(new LogRecord.Leg("city" + route, "city" + (route + 1), capacity, day))));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package system;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the throughput of the reservation engines under low and high contention.
+ * <p>
+ * Low contention: each thread books its own route. High contention: every thread books the same route.
+ * Run with {@code java -cp ... system.ReservationEngineBenchmark [threads] [reservationsByThread]}.
+ */
+public class ReservationEngineBenchmark {
+
+    private static final String USERNAME = "bench";
+    private static final int DAYS = 30;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int reservationsByThread = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        for (ReservationEngine engine : ReservationEngine.values()) {
+            // Warm up
+            run(engine, threads, reservationsByThread, false);
+            run(engine, threads, reservationsByThread, true);
+
+            double low = run(engine, threads, reservationsByThread, false);
+            double high = run(engine, threads, reservationsByThread, true);
+            System.out.printf("%-12s low contention: %10.0f reservations/s | high contention: %10.0f reservations/s%n",
+                    engine, low, high);
+        }
+    }
+
+    /**
+     * @return reservations per second.
+     */
+    private static double run(ReservationEngine engine, int threads, int reservationsByThread, boolean sameRoute)
+            throws Exception {
+        AirportSystem airportSystem = new AirportSystem(engine);
+        airportSystem.registerClient(USERNAME, USERNAME);
+        int capacity = reservationsByThread * threads / DAYS + 1;
+        int routes = sameRoute ? 1 : threads;
+        for (int i = 0; i < routes; i++) {
+            airportSystem.addRoute("Orig" + i, "Hub", capacity);
+            airportSystem.addRoute("Hub", "Dest" + i, capacity);
+        }
+
+        LocalDate start = LocalDate.now();
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            int route = sameRoute ? 0 : t;
+            List<String> cities = List.of("Orig" + route, "Hub", "Dest" + route);
+            Thread worker = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                    for (int i = 0; i < reservationsByThread; i++) {
+                        try {
+                            airportSystem.reserveFlight(USERNAME, cities, start, start.plusDays(DAYS - 1));
+                        } catch (Exception e) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        ready.await();
+        long begin = System.nanoTime();
+        go.countDown();
+        for (Thread worker : workers)
+            worker.join();
+        long elapsed = System.nanoTime() - begin;
+
+        if (failed.get() > 0)
+            System.out.println(engine + ": " + failed.get() + " reservations failed");
+        return (double) threads * reservationsByThread / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,73 @@
+package system;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Measures the heap reclaimed by archiving departed days, against the estimate the system reports,
+ * and how long archiving takes. The reservations have one flight each, spread across routes and past days.
+ * <p>
+ * Run with {@code java -cp ... system.RetentionBenchmark [reservations] [routes] [days]}.
+ */
+public class RetentionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int reservations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int routes = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int days = args.length > 2 ? Integer.parseInt(args[2]) : 365;
+
+        Path logPath = Files.createTempFile("wal", ".log");
+        Path historyPath = Files.createTempFile("history", ".archive");
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        try {
+            LocalDate today = LocalDate.now();
+            try (WriteAheadLog log = WriteAheadLog.open(logPath, 0)) {
+                log.append(new LogRecord.RegisterUser("client", "hash", false));
+                int capacity = reservations / (routes * days) + 1;
+                for (int i = 0; i < reservations; i++) {
+                    int route = i % routes;
+                    LocalDate day = today.minusDays(1 + (i / routes) % days);
+                    log.append(new LogRecord.Reserve(UUID.randomUUID(), "client",
+                            List.of(new LogRecord.Leg("city" + route, "city" + (route + 1), capacity, day))));
+                }
+                log.awaitDurable(log.lastAppended());
+            }
+
+            try (WriteAheadLog log = WriteAheadLog.open(logPath, 0);
+                 HistoryArchive history = HistoryArchive.open(historyPath)) {
+                AirportSystem airportSystem = new AirportSystem(ReservationEngine.PESSIMISTIC,
+                        AirportSystem.PATH_CACHE_CAPACITY, log);
+                long before = usedAfterGc(memory);
+
+                long begin = System.nanoTime();
+                RetentionStats stats = airportSystem.archiveBefore(today, history);
+                long elapsed = System.nanoTime() - begin;
+
+                long after = usedAfterGc(memory);
+                System.out.printf("archived %d days, %d flights, %d reservations in %d ms, %d MB of history%n",
+                        stats.days(), stats.flights(), stats.reservations(), elapsed / 1_000_000,
+                        stats.historyBytes() >> 20);
+                System.out.printf("heap reclaimed: measured %d MB, estimated %d MB%n",
+                        (before - after) >> 20, stats.estimatedHeapBytes() >> 20);
+                System.out.printf("by object: %d bytes per reservation with its flight share%n",
+                        (before - after) / Math.max(1, stats.reservations()));
+            }
+        } finally {
+            Files.deleteIfExists(logPath);
+            Files.deleteIfExists(historyPath);
+        }
+    }
+
+    private static long usedAfterGc(MemoryMXBean memory) throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
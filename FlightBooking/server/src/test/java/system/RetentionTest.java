@@ -0,0 +1,160 @@
+package system;
+
+import airport.Reservation;
+import org.junit.jupiter.api.Assertions;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+class RetentionTest {
+
+    private static LogRecord.Reserve reserve(UUID id, LocalDate... days) {
+        List<String> cities = List.of("Porto", "Lisbon", "London");
+        List<LogRecord.Leg> legs = new ArrayList<>();
+        for (int i = 0; i < days.length; i++)
+            legs.add(new LogRecord.Leg(cities.get(i), cities.get(i + 1), 10, days[i]));
+        return new LogRecord.Reserve(id, "user", legs);
+    }
+
+    private static Set<UUID> reservationIds(AirportSystem airportSystem) throws Exception {
+        return airportSystem.getReservationsFromClient("user").stream()
+                .map(reservation -> reservation.id)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Test to check that the reservations whose flights have all departed are archived and evicted,
+     * that a day with a reservation still to depart is kept, and that the archive survives a restart.
+     */
+    @org.junit.jupiter.api.Test
+    void archivesDepartedDays() throws Exception {
+        Path logPath = Files.createTempFile("wal", ".log");
+        Path historyPath = Files.createTempFile("history", ".archive");
+        LocalDate today = LocalDate.now();
+        UUID old = UUID.randomUUID(), twoDays = UUID.randomUUID(), pending = UUID.randomUUID(),
+                spanning = UUID.randomUUID();
+        try {
+            // Departed days can't be booked, so their reservations are written straight to the log.
+            try (WriteAheadLog log = WriteAheadLog.open(logPath, 0)) {
+                log.append(new LogRecord.RegisterUser("user", "hash", false));
+                log.append(reserve(old, today.minusDays(5)));
+                log.append(reserve(twoDays, today.minusDays(4), today.minusDays(3)));
+                log.append(reserve(pending, today.minusDays(1)));
+                log.append(reserve(spanning, today.minusDays(1), today));
+                log.awaitDurable(log.lastAppended());
+            }
+
+            try (WriteAheadLog log = WriteAheadLog.open(logPath, 0);
+                 HistoryArchive history = HistoryArchive.open(historyPath)) {
+                AirportSystem airportSystem = new AirportSystem(ReservationEngine.PESSIMISTIC,
+                        AirportSystem.PATH_CACHE_CAPACITY, log);
+                long flights = airportSystem.numberFlights();
+                Assertions.assertThrows(IllegalArgumentException.class,
+                        () -> airportSystem.archiveBefore(today.plusDays(1), history));
+
+                RetentionStats stats = airportSystem.archiveBefore(today, history);
+                Assertions.assertEquals(3, stats.days());
+                Assertions.assertEquals(3, stats.flights());
+                Assertions.assertEquals(2, stats.reservations());
+                Assertions.assertEquals(history.size(), stats.historyBytes());
+                Assertions.assertTrue(stats.estimatedHeapBytes() > 0);
+                Assertions.assertEquals(flights - 3, airportSystem.numberFlights());
+                Assertions.assertEquals(Set.of(pending, spanning), reservationIds(airportSystem));
+                Assertions.assertEquals(stats, airportSystem.getRetentionStats());
+
+                // Nothing is left to archive until the reservation that spans today departs.
+                Assertions.assertEquals(0, airportSystem.archiveBefore(today, history).days());
+                Assertions.assertEquals(stats, airportSystem.getRetentionStats());
+            }
+
+            Assertions.assertEquals(Set.of(old, twoDays), HistoryArchive.read(historyPath).stream()
+                    .map(LogRecord.Reserve::reservationId)
+                    .collect(Collectors.toSet()));
+
+            try (WriteAheadLog log = WriteAheadLog.open(logPath, 0)) {
+                AirportSystem airportSystem = new AirportSystem(ReservationEngine.PESSIMISTIC,
+                        AirportSystem.PATH_CACHE_CAPACITY, log);
+                Assertions.assertEquals(Set.of(pending, spanning), reservationIds(airportSystem));
+                for (Reservation reservation : airportSystem.getReservationsFromClient("user"))
+                    for (airport.Flight flight : reservation.getFlights())
+                        Assertions.assertFalse(flight.date.isBefore(today.minusDays(1)));
+            }
+        } finally {
+            Files.deleteIfExists(logPath);
+            Files.deleteIfExists(historyPath);
+        }
+    }
+
+    /**
+     * Test to check that, once a snapshot is taken after an archive and the log truncated before it,
+     * the reservations archived are no longer in the log, and the state recovered is the same.
+     */
+    @org.junit.jupiter.api.Test
+    void truncatesArchivedReservationsFromLog() throws Exception {
+        Path logPath = Files.createTempFile("wal", ".log");
+        Path historyPath = Files.createTempFile("history", ".archive");
+        Path snapshotPath = Files.createTempFile("state", ".snapshot");
+        LocalDate today = LocalDate.now();
+        UUID old = UUID.randomUUID(), pending = UUID.randomUUID();
+        try {
+            try (WriteAheadLog log = WriteAheadLog.open(logPath, 0)) {
+                log.append(new LogRecord.RegisterUser("user", "hash", false));
+                log.append(reserve(old, today.minusDays(5)));
+                log.append(reserve(pending, today.minusDays(1)));
+                log.awaitDurable(log.lastAppended());
+            }
+
+            long position;
+            try (WriteAheadLog log = WriteAheadLog.open(logPath, 0);
+                 HistoryArchive history = HistoryArchive.open(historyPath)) {
+                AirportSystem airportSystem = new AirportSystem(ReservationEngine.PESSIMISTIC,
+                        AirportSystem.PATH_CACHE_CAPACITY, log);
+                Assertions.assertEquals(1, airportSystem.archiveBefore(today.minusDays(2), history).days());
+                position = airportSystem.snapshot(snapshotPath);
+                Assertions.assertTrue(log.truncateBefore(position) > 0);
+            }
+
+            try (WriteAheadLog log = WriteAheadLog.open(logPath, 0, position)) {
+                Assertions.assertTrue(log.getRecovered().stream()
+                        .noneMatch(record -> record instanceof LogRecord.Reserve r && r.reservationId().equals(old)));
+                AirportSystem airportSystem = new AirportSystem(ReservationEngine.PESSIMISTIC,
+                        AirportSystem.PATH_CACHE_CAPACITY, Snapshot.read(snapshotPath), log);
+                Assertions.assertEquals(Set.of(pending), reservationIds(airportSystem));
+            }
+        } finally {
+            Files.deleteIfExists(logPath);
+            Files.deleteIfExists(historyPath);
+            Files.deleteIfExists(snapshotPath);
+        }
+    }
+
+    /**
+     * Test to check that a block cut short at the end of the history is dropped when it is opened.
+     */
+    @org.junit.jupiter.api.Test
+    void dropsTornBlock() throws Exception {
+        Path path = Files.createTempFile("history", ".archive");
+        try {
+            LocalDate day = LocalDate.now().minusDays(1);
+            try (HistoryArchive history = HistoryArchive.open(path)) {
+                history.append(day, List.of(reserve(UUID.randomUUID(), day)));
+            }
+            long size = Files.size(path);
+            Files.write(path, new byte[]{0, 0, 1, 0, 1, 2, 3}, java.nio.file.StandardOpenOption.APPEND);
+
+            try (HistoryArchive history = HistoryArchive.open(path)) {
+                Assertions.assertEquals(size, history.size());
+                history.append(day, List.of(reserve(UUID.randomUUID(), day)));
+            }
+            Assertions.assertEquals(2, HistoryArchive.read(path).size());
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
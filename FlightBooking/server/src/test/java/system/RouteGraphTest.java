@@ -0,0 +1,108 @@
+package system;
+
+import airport.Route;
+import exceptions.RouteAlreadyExistsException;
+import exceptions.RouteDoesntExistException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+class RouteGraphTest {
+
+    private static RouteGraph graph(Route... routes) throws RouteAlreadyExistsException {
+        RouteGraph graph = RouteGraph.EMPTY;
+        for (Route route : routes)
+            graph = graph.withRoute(route);
+        return graph;
+    }
+
+    @Test
+    void withRouteKeepsOldSnapshot() throws Exception {
+        RouteGraph first = graph(new Route("Porto", "Lisbon", 10));
+        RouteGraph second = first.withRoute(new Route("Lisbon", "London", 20));
+
+        Assertions.assertEquals(1, first.version);
+        Assertions.assertEquals(2, second.version);
+        Assertions.assertEquals(1, first.getRoutes().size());
+        Assertions.assertEquals(2, second.getRoutes().size());
+        Assertions.assertThrows(RouteDoesntExistException.class, () -> first.getRoute("lisbon", "LONDON"));
+        Assertions.assertEquals(20, second.getRoute("lisbon", "LONDON").capacity);
+        Assertions.assertThrows(RouteAlreadyExistsException.class, () ->
+                second.withRoute(new Route("PORTO", "lisbon", 5)));
+    }
+
+    @Test
+    void withRouteKeepsOldSnapshotsOfManyCities() throws Exception {
+        RouteGraph graph = RouteGraph.EMPTY;
+        List<RouteGraph> snapshots = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            graph = graph.withRoute(new Route("City" + i, "City" + (i + 1), i + 1));
+            snapshots.add(graph);
+        }
+        // Both names have the same hash once upper-cased.
+        RouteGraph colliding = graph.withRoute(new Route("A_", "Porto", 1)).withRoute(new Route("B@", "Porto", 2));
+        colliding = colliding.withRoute(new Route("a_", "Faro", 3));
+
+        Assertions.assertEquals("A_".hashCode(), "B@".hashCode());
+        Assertions.assertEquals(2000, graph.getRoutes().size());
+        Assertions.assertEquals(2003, colliding.getRoutes().size());
+        Assertions.assertEquals(1, colliding.getRoute("a_", "porto").capacity);
+        Assertions.assertEquals(2, colliding.getRoute("b@", "porto").capacity);
+        Assertions.assertEquals(3, colliding.getRoute("A_", "FARO").capacity);
+        Assertions.assertThrows(RouteDoesntExistException.class, () -> snapshots.get(1999).getRoute("A_", "Porto"));
+        for (int i = 0; i < 2000; i += 99) {
+            RouteGraph snapshot = snapshots.get(i);
+            Assertions.assertEquals(i + 1, snapshot.getRoutes().size());
+            Assertions.assertEquals(i + 1, snapshot.getRoute("city" + i, "city" + (i + 1)).capacity);
+            int next = i + 1;
+            Assertions.assertThrows(RouteDoesntExistException.class, () ->
+                    snapshot.getRoute("city" + next, "city" + (next + 1)));
+        }
+    }
+
+    @Test
+    void compactGraphHasEveryRoute() throws Exception {
+        RouteGraph graph = graph(
+                new Route("Porto", "Lisbon", 10),
+                new Route("Porto", "Faro", 11),
+                new Route("Lisbon", "London", 12),
+                new Route("London", "Paris", 13));
+        RouteGraph.CompactGraph compact = graph.compact();
+
+        Assertions.assertSame(compact, graph.compact());
+        Assertions.assertEquals(5, compact.numberCities());
+        Assertions.assertEquals(-1, compact.cityId("TOKYO"));
+
+        Set<String> routes = new HashSet<>();
+        for (int city = 0; city < compact.numberCities(); city++)
+            for (int route = compact.firstRoute(city); route < compact.endRoute(city); route++)
+                routes.add(compact.cityName(city) + "->" + compact.cityName(compact.target(route)));
+
+        Assertions.assertEquals(Set.of("PORTO->LISBON", "PORTO->FARO", "LISBON->LONDON", "LONDON->PARIS"), routes);
+        int paris = compact.cityId("PARIS");
+        Assertions.assertEquals(compact.firstRoute(paris), compact.endRoute(paris));
+    }
+
+    @Test
+    void hopsToDestination() throws Exception {
+        RouteGraph.CompactGraph compact = graph(
+                new Route("A", "B", 1),
+                new Route("B", "C", 1),
+                new Route("C", "D", 1),
+                new Route("D", "E", 1),
+                new Route("A", "D", 1),
+                new Route("E", "A", 1)).compact();
+
+        int[] hops = compact.hopsTo(compact.cityId("E"), 2);
+
+        Assertions.assertEquals(0, hops[compact.cityId("E")]);
+        Assertions.assertEquals(1, hops[compact.cityId("D")]);
+        Assertions.assertEquals(2, hops[compact.cityId("A")]);
+        Assertions.assertEquals(2, hops[compact.cityId("C")]);
+        Assertions.assertEquals(RouteGraph.CompactGraph.UNREACHABLE, hops[compact.cityId("B")]);
+    }
+}
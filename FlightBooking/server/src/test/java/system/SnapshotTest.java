@@ -0,0 +1,115 @@
+package system;
+
+import airport.Reservation;
+import org.junit.jupiter.api.Assertions;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+class SnapshotTest {
+
+    private static AirportSystem open(Snapshot snapshot, WriteAheadLog log) {
+        return new AirportSystem(ReservationEngine.PESSIMISTIC, AirportSystem.PATH_CACHE_CAPACITY, snapshot, log);
+    }
+
+    private static Set<UUID> reservationIds(AirportSystem airportSystem, String username) throws Exception {
+        return airportSystem.getReservationsFromClient(username).stream()
+                .map(reservation -> reservation.id)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Test to check that the state is recovered from a snapshot and the changes logged after it,
+     * and that the log replayed from the start on top of the snapshot gives the same state.
+     */
+    @org.junit.jupiter.api.Test
+    void recoversFromSnapshotAndLogTail() throws Exception {
+        Path logPath = Files.createTempFile("wal", ".log");
+        Path snapshotPath = Files.createTempFile("state", ".snapshot");
+        Files.delete(snapshotPath);
+        LocalDate date = LocalDate.now();
+        try {
+            UUID canceled, kept, tail;
+            long position;
+            try (WriteAheadLog log = WriteAheadLog.open(logPath, 0)) {
+                Assertions.assertNull(Snapshot.read(snapshotPath));
+                AirportSystem airportSystem = open(null, log);
+                airportSystem.registerAdmin("admin", "admin");
+                airportSystem.registerClient("user", "pass");
+                airportSystem.addRoute("Porto", "Lisbon", 2);
+                airportSystem.addRoute("Lisbon", "London", 2);
+                canceled = airportSystem.reserveFlight("user", List.of("Porto", "Lisbon", "London"), date, date);
+                kept = airportSystem.reserveFlight("user", List.of("Porto", "Lisbon"), date, date);
+                airportSystem.reserveFlight("user", List.of("Porto", "Lisbon"), date.plusDays(1), date.plusDays(1));
+                airportSystem.cancelDay(date.plusDays(1));
+
+                position = airportSystem.snapshot(snapshotPath);
+                Assertions.assertEquals(log.lastAppended(), position);
+
+                airportSystem.cancelReservation("user", canceled);
+                tail = airportSystem.reserveFlight("user", List.of("Lisbon", "London"), date, date);
+                airportSystem.registerClient("other", "other");
+                airportSystem.changePassword("user", "new");
+            }
+
+            for (long from : new long[]{position, 0}) {
+                Snapshot snapshot = Snapshot.read(snapshotPath);
+                Assertions.assertEquals(position, snapshot.getLogPosition());
+                try (WriteAheadLog log = WriteAheadLog.open(logPath, 0, from)) {
+                    if (from == position)
+                        Assertions.assertEquals(4, log.getRecovered().size());
+                    AirportSystem airportSystem = open(snapshot, log);
+                    Assertions.assertEquals(2, airportSystem.numberClients());
+                    Assertions.assertEquals(2, airportSystem.getRoutes().size());
+                    Assertions.assertEquals(1, airportSystem.numberCanceledDays());
+                    Assertions.assertEquals(Set.of(kept, tail), reservationIds(airportSystem, "user"));
+                    Assertions.assertDoesNotThrow(() -> airportSystem.authenticate("user", "new"));
+                    Assertions.assertTrue(airportSystem.authenticate("admin", "admin") instanceof users.Admin);
+                    Assertions.assertEquals(1, airportSystem.getNotificationsByUsername("user").size());
+
+                    // Each flight left has one seat taken, after the cancel and the reservation of the tail.
+                    for (Reservation reservation : airportSystem.getReservationsFromClient("user"))
+                        for (airport.Flight flight : reservation.getFlights())
+                            Assertions.assertEquals(1, flight.availableSeats(), flight.toString());
+                }
+            }
+        } finally {
+            Files.deleteIfExists(logPath);
+            Files.deleteIfExists(snapshotPath);
+        }
+    }
+
+    /**
+     * Test to check that a reservation with more flights than fit in a byte is restored whole.
+     */
+    @org.junit.jupiter.api.Test
+    void restoresReservationWithManyFlights() throws Exception {
+        Path snapshotPath = Files.createTempFile("state", ".snapshot");
+        LocalDate date = LocalDate.now();
+        int legs = 300;
+        try {
+            AirportSystem airportSystem = open(null, null);
+            airportSystem.registerClient("user", "pass");
+            List<String> cities = new java.util.ArrayList<>();
+            for (int i = 0; i <= legs; i++) {
+                cities.add("City" + i);
+                if (i > 0)
+                    airportSystem.addRoute("City" + (i - 1), "City" + i, 1);
+            }
+            UUID id = airportSystem.reserveFlight("user", cities, date, date);
+            airportSystem.snapshot(snapshotPath);
+
+            AirportSystem restored = open(Snapshot.read(snapshotPath), null);
+            Reservation reservation = restored.getReservationsFromClient("user").iterator().next();
+            Assertions.assertEquals(id, reservation.id);
+            Assertions.assertEquals(legs, reservation.getFlights().size());
+        } finally {
+            Files.deleteIfExists(snapshotPath);
+        }
+    }
+}
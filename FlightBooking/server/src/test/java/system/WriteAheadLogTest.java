@@ -0,0 +1,188 @@
+package system;
+
+import airport.Route;
+import org.junit.jupiter.api.Assertions;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+class WriteAheadLogTest {
+
+    private static AirportSystem open(WriteAheadLog log) {
+        return new AirportSystem(ReservationEngine.PESSIMISTIC, AirportSystem.PATH_CACHE_CAPACITY, log);
+    }
+
+    /**
+     * Test to check that every change made with a log is there again after the log is reopened.
+     */
+    @org.junit.jupiter.api.Test
+    void recoversState() throws Exception {
+        Path path = Files.createTempFile("wal", ".log");
+        LocalDate date = LocalDate.now();
+        try {
+            UUID kept;
+            try (WriteAheadLog log = WriteAheadLog.open(path, 0)) {
+                AirportSystem airportSystem = open(log);
+                airportSystem.registerAdmin("admin", "admin");
+                airportSystem.registerClient("user", "pass");
+                airportSystem.addRoute("Porto", "Lisbon", 2);
+                airportSystem.addRoute("Lisbon", "London", 1);
+                kept = airportSystem.reserveFlight("user", List.of("Porto", "Lisbon", "London"), date, date);
+                UUID canceled = airportSystem.reserveFlight("user", List.of("Porto", "Lisbon"), date, date);
+                airportSystem.cancelReservation("user", canceled);
+                airportSystem.reserveFlight("user", List.of("Porto", "Lisbon"), date.plusDays(1), date.plusDays(1));
+                airportSystem.cancelDay(date.plusDays(1));
+                airportSystem.changePassword("user", "new");
+            }
+
+            try (WriteAheadLog log = WriteAheadLog.open(path, 0)) {
+                AirportSystem airportSystem = open(log);
+                Assertions.assertEquals(1, airportSystem.numberClients());
+                Assertions.assertTrue(airportSystem.authenticate("admin", "admin") instanceof users.Admin);
+                Assertions.assertEquals(List.of(new Route("Lisbon", "London", 1), new Route("Porto", "Lisbon", 2)),
+                        airportSystem.getRoutes().stream()
+                                .sorted((a, b) -> a.origin.compareTo(b.origin)).toList());
+                Assertions.assertEquals(kept, airportSystem.getReservationsFromClient("user").iterator().next().id);
+                Assertions.assertEquals(1, airportSystem.getReservationsFromClient("user").size());
+                Assertions.assertEquals(1, airportSystem.numberCanceledDays());
+                Assertions.assertDoesNotThrow(() -> airportSystem.authenticate("user", "new"));
+
+                // The seat taken before the restart is still taken.
+                Assertions.assertThrows(exceptions.BookingFlightsNotPossibleException.class,
+                        () -> airportSystem.reserveFlight("user", List.of("Lisbon", "London"), date, date));
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Test to check that a reservation logged before the cancel that gave back its seat is kept,
+     * and that its flight is left without free seats instead of being overbooked.
+     */
+    @org.junit.jupiter.api.Test
+    void recountsSeatsOfReservationsLoggedOutOfOrder() throws Exception {
+        Path path = Files.createTempFile("wal", ".log");
+        LocalDate date = LocalDate.now();
+        UUID canceled = UUID.randomUUID();
+        UUID kept = UUID.randomUUID();
+        List<LogRecord.Leg> legs = List.of(new LogRecord.Leg("Porto", "Lisbon", 1, date));
+        try {
+            try (WriteAheadLog log = WriteAheadLog.open(path, 0)) {
+                log.append(new LogRecord.RegisterUser("user", encryption.BCrypt.hashpw("pass", encryption.BCrypt.gensalt()), false));
+                log.append(new LogRecord.AddRoute("Porto", "Lisbon", 1));
+                log.append(new LogRecord.Reserve(canceled, "user", legs));
+                log.append(new LogRecord.Reserve(kept, "user", legs));
+                log.awaitDurable(log.append(new LogRecord.CancelReservation("user", canceled)));
+            }
+
+            try (WriteAheadLog log = WriteAheadLog.open(path, 0)) {
+                AirportSystem airportSystem = open(log);
+                Assertions.assertEquals(kept, airportSystem.getReservationsFromClient("user").iterator().next().id);
+                Assertions.assertThrows(exceptions.BookingFlightsNotPossibleException.class,
+                        () -> airportSystem.reserveFlight("user", List.of("Porto", "Lisbon"), date, date));
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Test to check that a record cut short at the end of the log is dropped, and the records before it kept.
+     */
+    @org.junit.jupiter.api.Test
+    void dropsTornRecord() throws Exception {
+        Path path = Files.createTempFile("wal", ".log");
+        try {
+            try (WriteAheadLog log = WriteAheadLog.open(path, 0)) {
+                log.awaitDurable(log.append(new LogRecord.AddRoute("Porto", "Lisbon", 10)));
+                log.awaitDurable(log.append(new LogRecord.CancelDay(LocalDate.now())));
+            }
+            long size = Files.size(path);
+            Files.write(path, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+            try (WriteAheadLog log = WriteAheadLog.open(path, 0)) {
+                Assertions.assertEquals(List.of(new LogRecord.AddRoute("Porto", "Lisbon", 10),
+                        new LogRecord.CancelDay(LocalDate.now())), log.getRecovered());
+                Assertions.assertEquals(size, Files.size(path));
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Test to check that truncating the log drops the records before the position and keeps the positions
+     * of the others, with the records appended during and after the truncation.
+     */
+    @org.junit.jupiter.api.Test
+    void truncatesBeforePosition() throws Exception {
+        Path path = Files.createTempFile("wal", ".log");
+        try {
+            long position, end;
+            try (WriteAheadLog log = WriteAheadLog.open(path, 0)) {
+                log.append(new LogRecord.AddRoute("Porto", "Lisbon", 10));
+                position = log.append(new LogRecord.AddRoute("Lisbon", "London", 10));
+                log.awaitDurable(log.append(new LogRecord.CancelDay(LocalDate.now())));
+                long size = Files.size(path);
+                Assertions.assertTrue(log.truncateBefore(position) > 0);
+                Assertions.assertTrue(Files.size(path) < size);
+                Assertions.assertEquals(0, log.truncateBefore(position));
+                end = log.append(new LogRecord.ChangePassword("user", "hash"));
+                log.awaitDurable(end);
+            }
+
+            try (WriteAheadLog log = WriteAheadLog.open(path, 0, position)) {
+                Assertions.assertEquals(List.of(new LogRecord.CancelDay(LocalDate.now()),
+                        new LogRecord.ChangePassword("user", "hash")), log.getRecovered());
+                Assertions.assertEquals(end, log.lastAppended());
+            }
+            Assertions.assertThrows(IOException.class, () -> WriteAheadLog.open(path, 0));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Test to check that the records appended by many threads at once share syncs,
+     * and that each one is durable when its wait returns.
+     */
+    @org.junit.jupiter.api.Test
+    void groupCommit() throws Exception {
+        int N = 32;
+        int recordsByThread = 20;
+        Path path = Files.createTempFile("wal", ".log");
+        try {
+            try (WriteAheadLog log = WriteAheadLog.open(path, 2_000_000)) {
+                Thread[] threads = new Thread[N];
+                for (int i = 0; i < N; i++) {
+                    int id = i;
+                    threads[i] = new Thread(() -> {
+                        try {
+                            for (int j = 0; j < recordsByThread; j++)
+                                log.awaitDurable(log.append(new LogRecord.AddRoute("city" + id, "city" + j, 1)));
+                        } catch (IOException e) {
+                            Assertions.fail(e.getMessage());
+                        }
+                    });
+                    threads[i].start();
+                }
+                for (Thread t : threads)
+                    t.join();
+
+                Assertions.assertTrue(log.getSyncCount() < N * recordsByThread / 4,
+                        "Expected the records to share syncs, got " + log.getSyncCount() + " syncs");
+            }
+            try (WriteAheadLog log = WriteAheadLog.open(path, 0)) {
+                Assertions.assertEquals(N * recordsByThread, log.getRecovered().size());
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}